@@ -0,0 +1,96 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring cost at the production embedding size (1536 dimensions).
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VectorMathBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+
+    @Param({"10000"})
+    public int chunks;
+
+    private float[] matrix;
+    private float[][] rows;
+    private float[] query;
+    private final DocumentChunkHelper helper = new DocumentChunkHelper();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        matrix = new float[chunks * DIMENSIONS];
+        rows = new float[chunks][DIMENSIONS];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = (float) random.nextGaussian();
+            rows[i / DIMENSIONS][i % DIMENSIONS] = matrix[i];
+        }
+        query = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            query[i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public float dotSimd() {
+        return VectorMath.dot(matrix, 0, query, 0, DIMENSIONS);
+    }
+
+    @Benchmark
+    public float dotScalar() {
+        return VectorMath.scalarDot(matrix, 0, query, 0, DIMENSIONS);
+    }
+
+    @Benchmark
+    public float cosineScalarLegacy() {
+        float[] a = rows[0];
+        float dotProduct = 0.0f;
+        float normA = 0.0f;
+        float normB = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            dotProduct += a[i] * query[i];
+            normA += a[i] * a[i];
+            normB += query[i] * query[i];
+        }
+        return (float) (dotProduct / (Math.sqrt(normA) * Math.sqrt(normB)));
+    }
+
+    @Benchmark
+    public float cosineWithNorms() {
+        return helper.cosineSimilarity(rows[0], query);
+    }
+
+    @Benchmark
+    public int top5ScanSimd() {
+        TopKSelector best = new TopKSelector(5);
+        for (int row = 0, offset = 0; row < chunks; row++, offset += DIMENSIONS) {
+            best.offer(row, VectorMath.dot(matrix, offset, query, 0, DIMENSIONS));
+        }
+        return best.size();
+    }
+
+    @Benchmark
+    public int top5ScanScalar() {
+        TopKSelector best = new TopKSelector(5);
+        for (int row = 0, offset = 0; row < chunks; row++, offset += DIMENSIONS) {
+            best.offer(row, VectorMath.scalarDot(matrix, offset, query, 0, DIMENSIONS));
+        }
+        return best.size();
+    }
+}
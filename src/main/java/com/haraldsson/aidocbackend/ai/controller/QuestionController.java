@@ -4,7 +4,10 @@ import com.haraldsson.aidocbackend.advice.exceptions.ValidationException;
 import com.haraldsson.aidocbackend.ai.dto.AiResponseDTO;
 import com.haraldsson.aidocbackend.ai.dto.AskQuestionRequestDTO;
 import com.haraldsson.aidocbackend.ai.service.AiService;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
 import com.haraldsson.aidocbackend.filemanagement.service.DocumentService;
+import com.haraldsson.aidocbackend.filemanagement.utils.FileValidator;
 import com.haraldsson.aidocbackend.user.model.CustomUser;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
@@ -14,6 +17,10 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
 @RestController
 @RequestMapping("/api")
 public class QuestionController {
@@ -52,7 +59,11 @@ public class QuestionController {
         log.info("Question request from user {}: {}",
                 maskedUsername, truncatedQuestion);
 
-        return aiService.askQuestionAboutDocument(request.getQuestion(), user.getId())
+        RetrievalMode retrievalMode = RetrievalMode.from(request.getRetrievalMode());
+        RetrievalFilter filter = toRetrievalFilter(request);
+
+        return aiService.askQuestionAboutDocument(request.getQuestion(), user.getId(), retrievalMode, filter,
+                        request.isBypassCache())
                 .doOnSubscribe(s -> log.debug("Starting AI processing for user: {}",
                         maskedUsername))
                 .map(response -> {
@@ -83,6 +94,36 @@ public class QuestionController {
                             .body(new AiResponseDTO("Error: " + e.getMessage(), "error", 0))));
     }
 
+    private RetrievalFilter toRetrievalFilter(AskQuestionRequestDTO request) {
+        if (request.getUploadedFrom() != null && request.getUploadedTo() != null
+                && request.getUploadedFrom().isAfter(request.getUploadedTo())) {
+            throw new ValidationException("uploadedFrom must not be after uploadedTo");
+        }
+
+        Set<UUID> documentIds = new HashSet<>();
+        if (request.getDocumentIds() != null) {
+            documentIds.addAll(request.getDocumentIds());
+        }
+        // Older clients send a single documentId
+        if (request.getDocumentId() != null && !request.getDocumentId().isBlank()) {
+            try {
+                documentIds.add(UUID.fromString(request.getDocumentId().trim()));
+            } catch (IllegalArgumentException e) {
+                throw new ValidationException("Invalid document id");
+            }
+        }
+
+        Set<String> fileTypes = request.getFileTypes() == null ? Set.of() : new HashSet<>(request.getFileTypes());
+        RetrievalFilter filter = new RetrievalFilter(documentIds, fileTypes, request.getUploadedFrom(),
+                request.getUploadedTo());
+        for (String fileType : filter.fileTypes()) {
+            if (!FileValidator.isSupportedFileType(fileType)) {
+                throw new ValidationException("Unsupported file type: " + fileType);
+            }
+        }
+        return filter;
+    }
+
     // hjälpmetod för dölja username
     private String maskUsername(String username) {
         if (username == null || username.length() <= 2) {
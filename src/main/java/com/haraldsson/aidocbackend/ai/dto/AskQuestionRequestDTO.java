@@ -1,14 +1,28 @@
 package com.haraldsson.aidocbackend.ai.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
 public class AskQuestionRequestDTO {
 
     @NotBlank(message = "Question cannot be empty")
     @Size(min = 1, max = 5000, message = "Question must be between 1 and 5000 characters")
     private String question;
     private String documentId;
+    @Pattern(regexp = "(?i)embedding|keyword|hybrid", message = "Retrieval mode must be embedding, keyword or hybrid")
+    private String retrievalMode;
+    private boolean bypassCache;
+    @Size(max = 100, message = "At most 100 document ids can be given")
+    private List<UUID> documentIds;
+    @Size(max = 20, message = "At most 20 file types can be given")
+    private List<String> fileTypes;
+    private LocalDate uploadedFrom;
+    private LocalDate uploadedTo;
 
     public String getQuestion() {
         return question;
@@ -25,4 +39,52 @@ public class AskQuestionRequestDTO {
     public void setDocumentId(String documentId) {
         this.documentId = documentId;
     }
+
+    public String getRetrievalMode() {
+        return retrievalMode;
+    }
+
+    public void setRetrievalMode(String retrievalMode) {
+        this.retrievalMode = retrievalMode;
+    }
+
+    public boolean isBypassCache() {
+        return bypassCache;
+    }
+
+    public void setBypassCache(boolean bypassCache) {
+        this.bypassCache = bypassCache;
+    }
+
+    public List<UUID> getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(List<UUID> documentIds) {
+        this.documentIds = documentIds;
+    }
+
+    public List<String> getFileTypes() {
+        return fileTypes;
+    }
+
+    public void setFileTypes(List<String> fileTypes) {
+        this.fileTypes = fileTypes;
+    }
+
+    public LocalDate getUploadedFrom() {
+        return uploadedFrom;
+    }
+
+    public void setUploadedFrom(LocalDate uploadedFrom) {
+        this.uploadedFrom = uploadedFrom;
+    }
+
+    public LocalDate getUploadedTo() {
+        return uploadedTo;
+    }
+
+    public void setUploadedTo(LocalDate uploadedTo) {
+        this.uploadedTo = uploadedTo;
+    }
 }
@@ -3,9 +3,16 @@ package com.haraldsson.aidocbackend.ai.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.haraldsson.aidocbackend.ai.dto.AiResponseDTO;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
+import com.haraldsson.aidocbackend.filemanagement.service.CorpusVersionTracker;
 import com.haraldsson.aidocbackend.filemanagement.service.DocumentService;
+import com.haraldsson.aidocbackend.filemanagement.service.EmbeddingService;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import com.haraldsson.aidocbackend.filemanagement.utils.TokenCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -27,9 +34,22 @@ public class AiService {
     private final WebClient webClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final DocumentService documentService;
+    private final EmbeddingService embeddingService;
+    private final AnswerCache answerCache;
+    private final CorpusVersionTracker corpusVersionTracker;
 
-    public AiService(DocumentService documentService) {
+    @Value("${app.ai.context-window-tokens:16385}")
+    private int contextWindowTokens;
+
+    @Value("${app.ai.max-completion-tokens:3000}")
+    private int maxCompletionTokens;
+
+    public AiService(DocumentService documentService, EmbeddingService embeddingService,
+                     AnswerCache answerCache, CorpusVersionTracker corpusVersionTracker) {
         this.documentService = documentService;
+        this.embeddingService = embeddingService;
+        this.answerCache = answerCache;
+        this.corpusVersionTracker = corpusVersionTracker;
         this.openaiToken = System.getenv("OPENAI_API_TOKEN");
 
         if (openaiToken == null || openaiToken.isEmpty()) {
@@ -56,12 +76,21 @@ public class AiService {
     public Mono<AiResponseDTO> askQuestion(String question) {
         log.debug("Sending question to OpenAI: {}", truncateQuestion(question));
 
+        // The completion gets what the prompt leaves of the context window
+        int promptTokens = TokenCounter.countChatMessage(question);
+        int maxTokens = Math.min(maxCompletionTokens, contextWindowTokens - promptTokens);
+        if (maxTokens <= 0) {
+            log.warn("Prompt of {} tokens leaves no room for an answer", promptTokens);
+            return Mono.just(new AiResponseDTO("The question is too long. Please shorten it.", "error", 0));
+        }
+        log.debug("Prompt is {} tokens, requesting at most {} completion tokens", promptTokens, maxTokens);
+
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", "gpt-3.5-turbo");
         requestBody.put("messages", new Object[]{
                 Map.of("role", "user", "content", question)
         });
-        requestBody.put("max_tokens", 3000);
+        requestBody.put("max_tokens", maxTokens);
         requestBody.put("temperature", 0.7);
 
         return webClient.post()
@@ -132,11 +161,50 @@ public class AiService {
         }
     }
 
-    public Mono<AiResponseDTO> askQuestionAboutDocument(String question, UUID userId) {
-        log.info("AI question about documents from user {}: {}",
-                maskUserId(userId), truncateQuestion(question));
+    /**
+     * Answers from {@link AnswerCache} when a close enough question was answered against the
+     * same corpus version; otherwise retrieves context, asks the model and caches the answer.
+     */
+    public Mono<AiResponseDTO> askQuestionAboutDocument(String question, UUID userId, RetrievalMode retrievalMode,
+                                                        boolean bypassCache) {
+        return askQuestionAboutDocument(question, userId, retrievalMode, RetrievalFilter.NONE, bypassCache);
+    }
+
+    public Mono<AiResponseDTO> askQuestionAboutDocument(String question, UUID userId, RetrievalMode retrievalMode,
+                                                        RetrievalFilter filter, boolean bypassCache) {
+        if (bypassCache || !answerCache.isEnabled()) {
+            return answerWithDocuments(question, userId, retrievalMode, filter);
+        }
+
+        // Read the version before answering, so an upload racing this request makes the entry stale.
+        // The version is shared between nodes, so an upload handled elsewhere does too.
+        return corpusVersionTracker.current(userId)
+                .flatMap(corpusVersion -> embeddingService.createQueryEmbedding(question)
+                        .filter(embedding -> embedding.length > 0)
+                        .map(EmbeddingCodec::normalize)
+                        .onErrorResume(e -> Mono.empty())
+                        .flatMap(normalizedQuestion -> {
+                            AiResponseDTO cached = answerCache.find(userId, corpusVersion, retrievalMode, filter, normalizedQuestion);
+                            if (cached != null) {
+                                log.info("Answered question for user {} from answer cache", maskUserId(userId));
+                                return Mono.just(new AiResponseDTO(cached.answer(), cached.model(), 0));
+                            }
+                            return answerWithDocuments(question, userId, retrievalMode, filter)
+                                    .doOnNext(response -> {
+                                        if (!"error".equals(response.model()) && !"unknown".equals(response.model())) {
+                                            answerCache.store(userId, corpusVersion, retrievalMode, filter, normalizedQuestion, response);
+                                        }
+                                    });
+                        }))
+                .switchIfEmpty(Mono.defer(() -> answerWithDocuments(question, userId, retrievalMode, filter)));
+    }
+
+    private Mono<AiResponseDTO> answerWithDocuments(String question, UUID userId, RetrievalMode retrievalMode,
+                                                    RetrievalFilter filter) {
+        log.info("AI question about documents from user {} ({} retrieval): {}",
+                maskUserId(userId), retrievalMode, truncateQuestion(question));
 
-        return documentService.findRelevantChunksWithEmbeddings(question, userId)
+        return documentService.findRelevantChunks(question, userId, retrievalMode, filter)
                 .doOnSuccess(context ->
                         log.debug("Context found for question: {} chars",
                                 context.length()))
@@ -174,21 +242,11 @@ public class AiService {
                 });
     }
 
+    // The context is already packed into the token budget by DocumentService, in whole chunks
     private String createDocumentPrompt(String context, String question) {
-        int maxContextLength = 13000;
-        String truncatedContext;
-
-        if (context.length() > maxContextLength) {
-            log.debug("Truncating context from {} to {} characters",
-                    context.length(), maxContextLength);
-            truncatedContext = context.substring(0, maxContextLength) + "...";
-        } else {
-            truncatedContext = context;
-        }
-
         String prompt = String.format(
                 "Based on following document parts:\n\n%s\n\nAnswer this question in the same language as the question: %s\n\nGive a detailed answer based only on the provided text.",
-                truncatedContext, question
+                context, question
         );
 
         log.debug("Created prompt with total length: {}", prompt.length());
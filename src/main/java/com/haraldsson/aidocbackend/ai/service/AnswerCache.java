@@ -0,0 +1,154 @@
+package com.haraldsson.aidocbackend.ai.service;
+
+import com.haraldsson.aidocbackend.ai.dto.AiResponseDTO;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.VectorMath;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers answers per user so a question semantically close to one already answered
+ * skips retrieval and the chat completion. An entry only matches while the user's corpus
+ * version is unchanged and the questions' normalized embeddings have a dot product at or
+ * above the threshold. Bounded per user and, across users, by total bytes with the least
+ * recently active user giving up its oldest entry first.
+ */
+@Component
+public class AnswerCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final LinkedHashMap<UUID, Deque<Entry>> users = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long totalBytes = 0;
+    private int entryCount = 0;
+
+    @Value("${app.ai.answer-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    @Value("${app.ai.answer-cache.max-entries-per-user:50}")
+    private int maxEntriesPerUser;
+
+    @Value("${app.ai.answer-cache.similarity-threshold:0.95}")
+    private float similarityThreshold;
+
+    public boolean isEnabled() {
+        return maxBytes > 0 && maxEntriesPerUser > 0;
+    }
+
+    /**
+     * Returns the cached answer whose question is most similar to {@code normalizedQuestion},
+     * or null. Entries from older corpus versions are dropped on the way.
+     */
+    public AiResponseDTO find(UUID userId, long corpusVersion, RetrievalMode mode, float[] normalizedQuestion) {
+        return find(userId, corpusVersion, mode, RetrievalFilter.NONE, normalizedQuestion);
+    }
+
+    /**
+     * Like {@link #find(UUID, long, RetrievalMode, float[])}; only answers given under an
+     * equal filter are candidates, since the same question over other documents differs.
+     */
+    public AiResponseDTO find(UUID userId, long corpusVersion, RetrievalMode mode, RetrievalFilter filter,
+                              float[] normalizedQuestion) {
+        synchronized (users) {
+            Deque<Entry> entries = users.get(userId);
+            if (entries != null) {
+                Entry best = null;
+                float bestSimilarity = similarityThreshold;
+                Iterator<Entry> iterator = entries.iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.corpusVersion != corpusVersion) {
+                        iterator.remove();
+                        release(entry);
+                        continue;
+                    }
+                    if (entry.mode != mode || !entry.filter.equals(filter) || entry.question.length != normalizedQuestion.length) {
+                        continue;
+                    }
+                    float similarity = VectorMath.dot(entry.question, normalizedQuestion);
+                    if (similarity >= bestSimilarity) {
+                        best = entry;
+                        bestSimilarity = similarity;
+                    }
+                }
+                if (entries.isEmpty()) {
+                    users.remove(userId);
+                }
+                if (best != null) {
+                    hits.incrementAndGet();
+                    return best.answer;
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void store(UUID userId, long corpusVersion, RetrievalMode mode, float[] normalizedQuestion,
+                      AiResponseDTO answer) {
+        store(userId, corpusVersion, mode, RetrievalFilter.NONE, normalizedQuestion, answer);
+    }
+
+    public void store(UUID userId, long corpusVersion, RetrievalMode mode, RetrievalFilter filter,
+                      float[] normalizedQuestion, AiResponseDTO answer) {
+        Entry entry = new Entry(corpusVersion, mode, filter, normalizedQuestion, answer, sizeOf(normalizedQuestion, answer));
+        if (!isEnabled() || entry.bytes > maxBytes) {
+            return;
+        }
+        synchronized (users) {
+            Deque<Entry> entries = users.computeIfAbsent(userId, id -> new ArrayDeque<>());
+            entries.addLast(entry);
+            totalBytes += entry.bytes;
+            entryCount++;
+            while (entries.size() > maxEntriesPerUser) {
+                release(entries.removeFirst());
+                evictions.incrementAndGet();
+            }
+
+            Iterator<Map.Entry<UUID, Deque<Entry>>> eldest = users.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<UUID, Deque<Entry>> user = eldest.next();
+                Deque<Entry> userEntries = user.getValue();
+                while (totalBytes > maxBytes && userEntries.size() > (user.getKey().equals(userId) ? 1 : 0)) {
+                    release(userEntries.removeFirst());
+                    evictions.incrementAndGet();
+                }
+                if (userEntries.isEmpty()) {
+                    eldest.remove();
+                }
+            }
+        }
+    }
+
+    public Stats stats() {
+        synchronized (users) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), entryCount, totalBytes);
+        }
+    }
+
+    private void release(Entry entry) {
+        totalBytes -= entry.bytes;
+        entryCount--;
+    }
+
+    private static long sizeOf(float[] question, AiResponseDTO answer) {
+        long text = answer.answer() == null ? 0 : answer.answer().length();
+        return (long) question.length * Float.BYTES + text * Character.BYTES + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private record Entry(long corpusVersion, RetrievalMode mode, RetrievalFilter filter, float[] question, AiResponseDTO answer, long bytes) {}
+
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {}
+}
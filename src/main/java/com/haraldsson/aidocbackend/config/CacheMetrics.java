@@ -0,0 +1,69 @@
+package com.haraldsson.aidocbackend.config;
+
+import com.haraldsson.aidocbackend.ai.service.AnswerCache;
+import com.haraldsson.aidocbackend.filemanagement.service.EmbeddingService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the hit, miss and size counters of the query embedding, content embedding and
+ * answer caches through Micrometer, under the usual {@code cache.*} names tagged by cache.
+ * They span all tenants, so they are read through actuator rather than the user API.
+ */
+@Component
+public class CacheMetrics implements MeterBinder {
+
+    private final EmbeddingService embeddingService;
+    private final AnswerCache answerCache;
+
+    public CacheMetrics(EmbeddingService embeddingService, AnswerCache answerCache) {
+        this.embeddingService = embeddingService;
+        this.answerCache = answerCache;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        String queries = "query-embeddings";
+        counter(registry, "cache.gets", queries, "hit", embeddingService, s -> s.queryCacheStats().hits());
+        counter(registry, "cache.gets", queries, "miss", embeddingService, s -> s.queryCacheStats().misses());
+        counter(registry, "cache.evictions", queries, null, embeddingService, s -> s.queryCacheStats().evictions());
+        gauge(registry, "cache.size", queries, embeddingService, s -> s.queryCacheStats().entries());
+        gauge(registry, "cache.bytes", queries, embeddingService, s -> s.queryCacheStats().bytes());
+
+        // Content embeddings are served from memory or, behind it, from embedding_cache
+        String contents = "content-embeddings";
+        counter(registry, "cache.gets", contents, "hit", embeddingService, s -> {
+            var stats = s.contentCacheStats();
+            return stats.memoryHits() + stats.tableHits();
+        });
+        counter(registry, "cache.gets", contents, "miss", embeddingService, s -> s.contentCacheStats().misses());
+        counter(registry, "cache.table.hits", contents, null, embeddingService, s -> s.contentCacheStats().tableHits());
+        gauge(registry, "cache.size", contents, embeddingService, s -> s.contentCacheStats().memoryEntries());
+
+        String answers = "answers";
+        counter(registry, "cache.gets", answers, "hit", answerCache, c -> c.stats().hits());
+        counter(registry, "cache.gets", answers, "miss", answerCache, c -> c.stats().misses());
+        counter(registry, "cache.evictions", answers, null, answerCache, c -> c.stats().evictions());
+        gauge(registry, "cache.size", answers, answerCache, c -> c.stats().entries());
+        gauge(registry, "cache.bytes", answers, answerCache, c -> c.stats().bytes());
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String cache, String result,
+                                    T source, ToDoubleFunction<T> count) {
+        FunctionCounter.Builder<T> builder = FunctionCounter.builder(name, source, count).tag("cache", cache);
+        if (result != null) {
+            builder.tag("result", result);
+        }
+        builder.register(registry);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, String cache, T source,
+                                  ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).tag("cache", cache).register(registry);
+    }
+}
@@ -38,6 +38,7 @@ public class SecurityConfig {
                         .pathMatchers("/api/documents").hasRole("USER")
                         .pathMatchers("/api/textindb").hasRole("USER")
                         .pathMatchers("/api/ask").hasRole("USER")
+                        .pathMatchers("/actuator/health").permitAll()
                         .pathMatchers("/api/debug-all-chunks").permitAll()
                         .pathMatchers("/").permitAll()
                         .anyExchange().authenticated()
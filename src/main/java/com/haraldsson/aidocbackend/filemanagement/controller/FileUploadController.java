@@ -1,8 +1,10 @@
 package com.haraldsson.aidocbackend.filemanagement.controller;
 
+import com.haraldsson.aidocbackend.filemanagement.dto.IngestionJobDTO;
 import com.haraldsson.aidocbackend.filemanagement.dto.UploadResponseDTO;
 import com.haraldsson.aidocbackend.filemanagement.model.Document;
 import com.haraldsson.aidocbackend.filemanagement.service.DocumentService;
+import com.haraldsson.aidocbackend.filemanagement.service.IngestionJobService;
 import com.haraldsson.aidocbackend.filemanagement.utils.FileValidator;
 import com.haraldsson.aidocbackend.user.model.CustomUser;
 import org.slf4j.Logger;
@@ -15,6 +17,7 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
 import java.util.UUID;
 
 @RestController
@@ -24,15 +27,18 @@ public class FileUploadController {
     private static final Logger log = LoggerFactory.getLogger(FileUploadController.class);
 
     private final DocumentService documentService;
+    private final IngestionJobService ingestionJobService;
     private final FileValidator fileValidator;
 
-    public FileUploadController(DocumentService documentService, FileValidator fileValidator) {
+    public FileUploadController(DocumentService documentService, IngestionJobService ingestionJobService,
+                                FileValidator fileValidator) {
         this.documentService = documentService;
+        this.ingestionJobService = ingestionJobService;
         this.fileValidator = fileValidator;
     }
 
     @PostMapping(value = "/upload", consumes = "multipart/form-data")
-    public Mono<ResponseEntity<UploadResponseDTO>> uploadFile(
+    public Mono<ResponseEntity<IngestionJobDTO>> uploadFile(
             @RequestPart("file") FilePart filePart,
             @AuthenticationPrincipal CustomUser user) {
 
@@ -40,18 +46,10 @@ public class FileUploadController {
 
         fileValidator.validateFile(filePart);
 
-        return documentService.processAndSaveFile(filePart, user)
-                .map(savedDoc -> {
-                    String preview = savedDoc.getContent() != null && savedDoc.getContent().length() > 200
-                            ? savedDoc.getContent().substring(0, 200) + "..."
-                            : savedDoc.getContent();
-
-                    return ResponseEntity.ok(new UploadResponseDTO(
-                            "File uploaded successfully",
-                            savedDoc.getFileName(),
-                            preview
-                    ));
-                });
+        return ingestionJobService.submit(filePart, user.getId())
+                .map(job -> ResponseEntity.accepted()
+                        .location(URI.create("/api/jobs/" + job.getId()))
+                        .body(IngestionJobDTO.from(job)));
     }
 
     @DeleteMapping("/deletedocument/{id}")
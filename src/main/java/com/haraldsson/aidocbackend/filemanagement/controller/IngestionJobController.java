@@ -0,0 +1,34 @@
+package com.haraldsson.aidocbackend.filemanagement.controller;
+
+import com.haraldsson.aidocbackend.filemanagement.dto.IngestionJobDTO;
+import com.haraldsson.aidocbackend.filemanagement.service.IngestionJobService;
+import com.haraldsson.aidocbackend.user.model.CustomUser;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/jobs")
+public class IngestionJobController {
+
+    private final IngestionJobService ingestionJobService;
+
+    public IngestionJobController(IngestionJobService ingestionJobService) {
+        this.ingestionJobService = ingestionJobService;
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<IngestionJobDTO>> getJob(
+            @PathVariable("id") UUID id,
+            @AuthenticationPrincipal CustomUser user) {
+
+        return ingestionJobService.findForUser(id, user.getId())
+                .map(job -> ResponseEntity.ok(IngestionJobDTO.from(job)));
+    }
+}
@@ -0,0 +1,25 @@
+package com.haraldsson.aidocbackend.filemanagement.dto;
+
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJob;
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJobStatus;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public record IngestionJobDTO(
+        UUID id,
+        String filename,
+        IngestionJobStatus status,
+        int attempts,
+        UUID documentId,
+        String error,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        LocalDateTime finishedAt
+) {
+
+    public static IngestionJobDTO from(IngestionJob job) {
+        return new IngestionJobDTO(job.getId(), job.getFileName(), job.getStatus(), job.getAttempts(),
+                job.getDocumentId(), job.getError(), job.getCreatedAt(), job.getUpdatedAt(), job.getFinishedAt());
+    }
+}
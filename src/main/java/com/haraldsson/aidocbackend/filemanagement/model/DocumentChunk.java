@@ -1,6 +1,9 @@
 package com.haraldsson.aidocbackend.filemanagement.model;
 
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingQuantizer;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 import java.util.UUID;
@@ -32,9 +35,27 @@ public class DocumentChunk {
     @Column("end_index")
     private int endIndex;
 
+    @Column("page_start")
+    private Integer pageStart;
+
+    @Column("page_end")
+    private Integer pageEnd;
+
+    @Column("content_hash")
+    private String contentHash;
+
     @Column("embedding_json")
     private String embeddingJson;
 
+    @Column("embedding_bin")
+    private byte[] embeddingBin;
+
+    @Column("embedding_int8")
+    private byte[] embeddingInt8;
+
+    @Transient
+    private float[] decodedEmbedding;
+
     public DocumentChunk() {}
 
     public DocumentChunk(UUID documentId, UUID userId, String filename,
@@ -112,45 +133,100 @@ public class DocumentChunk {
         this.endIndex = endIndex;
     }
 
+    public Integer getPageStart() {
+        return pageStart;
+    }
+
+    public void setPageStart(Integer pageStart) {
+        this.pageStart = pageStart;
+    }
+
+    public Integer getPageEnd() {
+        return pageEnd;
+    }
+
+    public void setPageEnd(Integer pageEnd) {
+        this.pageEnd = pageEnd;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String getEmbeddingJson() {
         return embeddingJson;
     }
 
     public void setEmbeddingJson(String embeddingJson) {
         this.embeddingJson = embeddingJson;
+        this.decodedEmbedding = null;
+    }
+
+    public byte[] getEmbeddingBin() {
+        return embeddingBin;
+    }
+
+    public void setEmbeddingBin(byte[] embeddingBin) {
+        this.embeddingBin = embeddingBin;
+        this.decodedEmbedding = null;
+    }
+
+    public byte[] getEmbeddingInt8() {
+        return embeddingInt8;
     }
 
+    public void setEmbeddingInt8(byte[] embeddingInt8) {
+        this.embeddingInt8 = embeddingInt8;
+    }
+
+    public boolean hasEmbedding() {
+        return (embeddingBin != null && embeddingBin.length > 0)
+                || (embeddingJson != null && !embeddingJson.isEmpty());
+    }
+
+    /**
+     * Returns the unit-length embedding, decoded from {@code embedding_bin}. Rows that
+     * have not been backfilled yet fall back to parsing the legacy JSON column.
+     */
     public float[] getEmbedding() {
+        if (decodedEmbedding != null) {
+            return decodedEmbedding;
+        }
+        if (embeddingBin != null && embeddingBin.length > 0) {
+            decodedEmbedding = EmbeddingCodec.decode(embeddingBin);
+            return decodedEmbedding;
+        }
         if (embeddingJson == null || embeddingJson.isEmpty()) {
             return null;
         }
         try {
-            String clean = embeddingJson.replace("[", "").replace("]", "").trim();
-            if (clean.isEmpty()) return null;
-
-            String[] parts = clean.split(",");
-            float[] embedding = new float[parts.length];
-            for (int i = 0; i < parts.length; i++) {
-                embedding[i] = Float.parseFloat(parts[i].trim());
-            }
-            return embedding;
-        } catch (Exception e) {
+            decodedEmbedding = EmbeddingCodec.normalize(EmbeddingCodec.parseJson(embeddingJson));
+            return decodedEmbedding;
+        } catch (NumberFormatException e) {
             System.err.println("Error parsing embedding: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Stores the embedding L2-normalized in the binary column, plus its int8 quantization,
+     * and clears the legacy JSON.
+     */
     public void setEmbedding(float[] embedding) {
         if (embedding == null) {
+            this.embeddingBin = null;
+            this.embeddingInt8 = null;
             this.embeddingJson = null;
+            this.decodedEmbedding = null;
             return;
         }
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < embedding.length; i++) {
-            sb.append(embedding[i]);
-            if (i < embedding.length - 1) sb.append(", ");
-        }
-        sb.append("]");
-        this.embeddingJson = sb.toString();
+        this.decodedEmbedding = EmbeddingCodec.normalize(embedding);
+        this.embeddingBin = EmbeddingCodec.encode(decodedEmbedding);
+        this.embeddingInt8 = EmbeddingQuantizer.quantize(decodedEmbedding);
+        this.embeddingJson = null;
     }
-}
\ No newline at end of file
+}
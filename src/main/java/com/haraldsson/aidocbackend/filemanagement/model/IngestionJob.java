@@ -0,0 +1,136 @@
+package com.haraldsson.aidocbackend.filemanagement.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Table("ingestion_jobs")
+public class IngestionJob {
+
+    @Id
+    private UUID id;
+
+    @Column("user_id")
+    private UUID userId;
+
+    @Column("file_name")
+    private String fileName;
+
+    @Column("payload")
+    private byte[] payload;
+
+    @Column("spool_path")
+    private String spoolPath;
+
+    @Column("status")
+    private IngestionJobStatus status;
+
+    @Column("attempts")
+    private int attempts;
+
+    @Column("max_attempts")
+    private int maxAttempts;
+
+    @Column("document_id")
+    private UUID documentId;
+
+    @Column("error")
+    private String error;
+
+    @Column("locked_by")
+    private String lockedBy;
+
+    @Column("heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column("available_at")
+    private LocalDateTime availableAt;
+
+    @Column("created_at")
+    private LocalDateTime createdAt;
+
+    @Column("updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column("finished_at")
+    private LocalDateTime finishedAt;
+
+    public IngestionJob() {}
+
+    public IngestionJob(UUID userId, String fileName, String spoolPath, int maxAttempts) {
+        this.userId = userId;
+        this.fileName = fileName;
+        this.spoolPath = spoolPath;
+        this.maxAttempts = maxAttempts;
+        this.status = IngestionJobStatus.QUEUED;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getSpoolPath() {
+        return spoolPath;
+    }
+
+    public IngestionJobStatus getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public UUID getDocumentId() {
+        return documentId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getLockedBy() {
+        return lockedBy;
+    }
+
+    public LocalDateTime getHeartbeatAt() {
+        return heartbeatAt;
+    }
+
+    public LocalDateTime getAvailableAt() {
+        return availableAt;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+}
@@ -0,0 +1,8 @@
+package com.haraldsson.aidocbackend.filemanagement.model;
+
+public enum IngestionJobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,41 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Access to {@code corpus_versions}. The bump is a single upsert, so concurrent writers on
+ * different nodes each get their own version number.
+ */
+@Repository
+public class CorpusVersionRepository {
+
+    private final DatabaseClient databaseClient;
+
+    public CorpusVersionRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Returns the user's version, 0 if their corpus never changed.
+     */
+    public Mono<Long> find(UUID userId) {
+        return databaseClient.sql("SELECT version FROM corpus_versions WHERE user_id = :userId")
+                .bind("userId", userId)
+                .map((row, metadata) -> row.get("version", Long.class))
+                .one()
+                .defaultIfEmpty(0L);
+    }
+
+    public Mono<Long> bump(UUID userId) {
+        return databaseClient.sql("INSERT INTO corpus_versions (user_id, version) VALUES (:userId, 1) " +
+                        "ON CONFLICT (user_id) DO UPDATE SET version = corpus_versions.version + 1, " +
+                        "updated_at = CURRENT_TIMESTAMP RETURNING version")
+                .bind("userId", userId)
+                .map((row, metadata) -> row.get("version", Long.class))
+                .one();
+    }
+}
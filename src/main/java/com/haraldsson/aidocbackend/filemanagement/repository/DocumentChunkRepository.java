@@ -1,28 +1,178 @@
 package com.haraldsson.aidocbackend.filemanagement.repository;
 
 import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
 import java.util.UUID;
 
 public interface DocumentChunkRepository extends ReactiveCrudRepository<DocumentChunk, UUID> {
 
-    @Query("SELECT * FROM document_chunks WHERE user_id = :userId ORDER BY filename, chunk_number")
+    // Chunk listings carry text and position only; embeddings are read by the scoring projections below
+    @Query("SELECT id, document_id, user_id, filename, content, content_hash, chunk_number, start_index, end_index, " +
+            "page_start, page_end FROM document_chunks WHERE user_id = :userId ORDER BY filename, chunk_number")
     Flux<DocumentChunk> findByUserId(UUID userId);
 
-    @Query("SELECT * FROM document_chunks WHERE document_id = :documentId ORDER BY chunk_number")
+    @Query("SELECT id, document_id, user_id, filename, content, content_hash, chunk_number, start_index, end_index, " +
+            "page_start, page_end FROM document_chunks WHERE document_id = :documentId ORDER BY chunk_number")
     Flux<DocumentChunk> findByDocumentId(UUID documentId);
 
-    @Query("SELECT * FROM document_chunks WHERE filename = :filename AND user_id = :userId ORDER BY chunk_number")
+    @Query("SELECT id, document_id, user_id, filename, content, content_hash, chunk_number, start_index, end_index, " +
+            "page_start, page_end FROM document_chunks WHERE filename = :filename AND user_id = :userId " +
+            "ORDER BY chunk_number")
     Flux<DocumentChunk> findByFilenameAndUserId(String filename, UUID userId);
 
+    @Query("SELECT count(*) FROM document_chunks WHERE document_id = :documentId")
+    Mono<Long> countByDocumentId(UUID documentId);
+
     @Query("DELETE FROM document_chunks WHERE document_id = :documentId")
     Mono<Void> deleteByDocumentId(UUID documentId);
 
+    // Re-upload diff: everything but the legacy JSON of rows that already have a binary embedding
+    @Query("SELECT id, document_id, user_id, filename, content, content_hash, chunk_number, start_index, end_index, " +
+            "page_start, page_end, embedding_bin, CASE WHEN embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE document_id = :documentId ORDER BY chunk_number")
+    Flux<DocumentChunk> findForReindexByDocumentId(UUID documentId);
+
+    @Modifying
+    @Query("UPDATE document_chunks SET content = :content, content_hash = :contentHash, chunk_number = :chunkNumber, " +
+            "start_index = :startIndex, end_index = :endIndex, page_start = :pageStart, page_end = :pageEnd " +
+            "WHERE id = :id")
+    Mono<Integer> updatePosition(UUID id, String content, String contentHash, int chunkNumber,
+                                 int startIndex, int endIndex, Integer pageStart, Integer pageEnd);
+
 
     @Query("SELECT DISTINCT filename FROM document_chunks WHERE user_id = :userId")
     Flux<String> findDistinctFilenamesByUserId(UUID userId);
-}
\ No newline at end of file
+
+    @Query("SELECT id FROM document_chunks WHERE user_id = :userId")
+    Flux<UUID> findIdsByUserId(UUID userId);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index " +
+            "FROM document_chunks WHERE user_id = :userId ORDER BY filename, chunk_number LIMIT :limit")
+    Flux<DocumentChunk> findFirstByUserId(UUID userId, int limit);
+
+    // Document-scoped variants, served by idx_document_chunks_user_document
+    @Query("SELECT id FROM document_chunks WHERE user_id = :userId AND document_id IN (:documentIds)")
+    Flux<UUID> findIdsByUserIdAndDocumentIds(UUID userId, Collection<UUID> documentIds);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index " +
+            "FROM document_chunks WHERE user_id = :userId AND document_id IN (:documentIds) " +
+            "ORDER BY filename, chunk_number LIMIT :limit")
+    Flux<DocumentChunk> findFirstByUserIdAndDocumentIds(UUID userId, Collection<UUID> documentIds, int limit);
+
+    // Scoring projections: no content, and the legacy JSON only for rows the backfill has not reached
+    @Query("SELECT id, filename, chunk_number, embedding_bin, " +
+            "CASE WHEN embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE user_id = :userId " +
+            "AND (embedding_bin IS NOT NULL OR embedding_json IS NOT NULL)")
+    Flux<DocumentChunk> findEmbeddingsByUserId(UUID userId);
+
+    @Query("SELECT id, filename, chunk_number, embedding_int8, " +
+            "CASE WHEN embedding_int8 IS NULL THEN embedding_bin END AS embedding_bin, " +
+            "CASE WHEN embedding_int8 IS NULL AND embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE user_id = :userId " +
+            "AND (embedding_int8 IS NOT NULL OR embedding_bin IS NOT NULL OR embedding_json IS NOT NULL)")
+    Flux<DocumentChunk> findQuantizedEmbeddingsByUserId(UUID userId);
+
+    @Query("SELECT count(*) FROM (SELECT 1 FROM document_chunks WHERE user_id = :userId " +
+            "AND (embedding_int8 IS NOT NULL OR embedding_bin IS NOT NULL OR embedding_json IS NOT NULL) " +
+            "LIMIT :limit) scoped")
+    Mono<Long> countEmbeddedByUserIdUpTo(UUID userId, int limit);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index " +
+            "FROM document_chunks WHERE id IN (:ids)")
+    Flux<DocumentChunk> findContentByIds(Collection<UUID> ids);
+
+    @Query("SELECT id, embedding_int8, embedding_bin, CASE WHEN embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE id IN (:ids)")
+    Flux<DocumentChunk> findEmbeddingsByIds(Collection<UUID> ids);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin, " +
+            "CASE WHEN embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE id IN (:ids)")
+    Flux<DocumentChunk> findContentWithEmbeddingByIds(Collection<UUID> ids);
+
+    // The tsvector expression must match idx_document_chunks_content_tsv (V13) verbatim for the GIN index to apply
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index " +
+            "FROM document_chunks, to_tsquery('simple', :tsQuery) query, " +
+            "to_tsvector('simple', regexp_replace(coalesce(content, ''), '[^[:alnum:]]+', ' ', 'g')) tsv " +
+            "WHERE user_id = :userId " +
+            "AND to_tsvector('simple', regexp_replace(coalesce(content, ''), '[^[:alnum:]]+', ' ', 'g')) @@ query " +
+            "ORDER BY ts_rank(tsv, query) DESC LIMIT :limit")
+    Flux<DocumentChunk> findTopByFullText(UUID userId, String tsQuery, int limit);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index " +
+            "FROM document_chunks, to_tsquery('simple', :tsQuery) query, " +
+            "to_tsvector('simple', regexp_replace(coalesce(content, ''), '[^[:alnum:]]+', ' ', 'g')) tsv " +
+            "WHERE user_id = :userId AND document_id IN (:documentIds) " +
+            "AND to_tsvector('simple', regexp_replace(coalesce(content, ''), '[^[:alnum:]]+', ' ', 'g')) @@ query " +
+            "ORDER BY ts_rank(tsv, query) DESC LIMIT :limit")
+    Flux<DocumentChunk> findTopByFullTextInDocuments(UUID userId, Collection<UUID> documentIds, String tsQuery, int limit);
+
+    @Query("SELECT id, embedding_json FROM document_chunks WHERE embedding_bin IS NULL AND embedding_json IS NOT NULL AND id > :afterId ORDER BY id LIMIT :limit")
+    Flux<DocumentChunk> findChunksPendingEmbeddingBackfill(UUID afterId, int limit);
+
+    @Modifying
+    @Query("UPDATE document_chunks SET embedding_bin = :embeddingBin, embedding_int8 = :embeddingInt8, embedding_json = NULL WHERE id = :id AND embedding_bin IS NULL")
+    Mono<Integer> updateEmbeddingBin(UUID id, byte[] embeddingBin, byte[] embeddingInt8);
+
+    @Query("SELECT id, embedding_bin FROM document_chunks WHERE embedding_int8 IS NULL AND embedding_bin IS NOT NULL AND id > :afterId ORDER BY id LIMIT :limit")
+    Flux<DocumentChunk> findChunksPendingInt8Backfill(UUID afterId, int limit);
+
+    @Modifying
+    @Query("UPDATE document_chunks SET embedding_int8 = :embeddingInt8 WHERE id = :id")
+    Mono<Integer> updateEmbeddingInt8(UUID id, byte[] embeddingInt8);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin " +
+            "FROM document_chunks WHERE user_id = :userId AND embedding_vector IS NOT NULL " +
+            "ORDER BY embedding_vector <=> CAST(:queryVector AS vector) LIMIT :limit")
+    Flux<DocumentChunk> findNearestByUserIdWithPgVector(UUID userId, String queryVector, int limit);
+
+    @Query("SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin " +
+            "FROM document_chunks WHERE user_id = :userId AND document_id IN (:documentIds) " +
+            "AND embedding_vector IS NOT NULL " +
+            "ORDER BY embedding_vector <=> CAST(:queryVector AS vector) LIMIT :limit")
+    Flux<DocumentChunk> findNearestInDocumentsWithPgVector(UUID userId, Collection<UUID> documentIds,
+                                                           String queryVector, int limit);
+
+    // Exact variants: the materialized CTE keeps the planner off the global ANN index, so the
+    // user's rows are read through the user_id indexes and every one of them is ranked
+    @Query("WITH scoped AS MATERIALIZED (" +
+            "SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin, " +
+            "embedding_vector FROM document_chunks WHERE user_id = :userId AND embedding_vector IS NOT NULL) " +
+            "SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin " +
+            "FROM scoped ORDER BY embedding_vector <=> CAST(:queryVector AS vector) LIMIT :limit")
+    Flux<DocumentChunk> findNearestByUserIdWithPgVectorExact(UUID userId, String queryVector, int limit);
+
+    @Query("WITH scoped AS MATERIALIZED (" +
+            "SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin, " +
+            "embedding_vector FROM document_chunks WHERE user_id = :userId AND document_id IN (:documentIds) " +
+            "AND embedding_vector IS NOT NULL) " +
+            "SELECT id, document_id, user_id, filename, content, chunk_number, start_index, end_index, embedding_bin " +
+            "FROM scoped ORDER BY embedding_vector <=> CAST(:queryVector AS vector) LIMIT :limit")
+    Flux<DocumentChunk> findNearestInDocumentsWithPgVectorExact(UUID userId, Collection<UUID> documentIds,
+                                                                String queryVector, int limit);
+
+    @Query("SELECT count(*) FROM (SELECT 1 FROM document_chunks " +
+            "WHERE user_id = :userId AND embedding_vector IS NOT NULL LIMIT :limit) scoped")
+    Mono<Long> countVectorsByUserIdUpTo(UUID userId, int limit);
+
+    @Query("SELECT count(*) FROM (SELECT 1 FROM document_chunks " +
+            "WHERE user_id = :userId AND document_id IN (:documentIds) AND embedding_vector IS NOT NULL " +
+            "LIMIT :limit) scoped")
+    Mono<Long> countVectorsInDocumentsUpTo(UUID userId, Collection<UUID> documentIds, int limit);
+
+    @Modifying
+    @Query("UPDATE document_chunks SET embedding_vector = CAST(:vector AS vector) WHERE id = :id")
+    Mono<Integer> updateEmbeddingVector(UUID id, String vector);
+
+    @Query("SELECT id, embedding_json, embedding_bin FROM document_chunks " +
+            "WHERE embedding_vector IS NULL AND (embedding_bin IS NOT NULL OR embedding_json IS NOT NULL) " +
+            "AND id > :afterId ORDER BY id LIMIT :limit")
+    Flux<DocumentChunk> findChunksPendingVectorBackfill(UUID afterId, int limit);
+}
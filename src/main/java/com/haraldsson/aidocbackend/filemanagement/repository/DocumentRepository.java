@@ -10,7 +10,7 @@ import reactor.core.publisher.Flux;
 import java.util.UUID;
 
 @Repository
-public interface DocumentRepository extends ReactiveCrudRepository<Document, UUID> {
+public interface DocumentRepository extends ReactiveCrudRepository<Document, UUID>, DocumentRepositoryCustom {
 
     Flux<Document> findByUserId(UUID userId);
 
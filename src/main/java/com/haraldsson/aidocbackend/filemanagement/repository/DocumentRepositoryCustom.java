@@ -0,0 +1,14 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import reactor.core.publisher.Flux;
+
+import java.util.UUID;
+
+public interface DocumentRepositoryCustom {
+
+    /**
+     * Ids of the user's documents that pass every restriction in the filter.
+     */
+    Flux<UUID> findIdsMatching(UUID userId, RetrievalFilter filter);
+}
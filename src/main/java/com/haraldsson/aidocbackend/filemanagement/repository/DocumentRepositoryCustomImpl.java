@@ -0,0 +1,58 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import com.haraldsson.aidocbackend.filemanagement.model.Document;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.relational.core.query.Criteria;
+import org.springframework.data.relational.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.util.UUID;
+
+/**
+ * Builds the filter query from only the restrictions that are set, so an unfiltered
+ * dimension adds nothing to the WHERE clause.
+ */
+class DocumentRepositoryCustomImpl implements DocumentRepositoryCustom {
+
+    private final R2dbcEntityTemplate template;
+
+    DocumentRepositoryCustomImpl(R2dbcEntityTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Flux<UUID> findIdsMatching(UUID userId, RetrievalFilter filter) {
+        Criteria criteria = Criteria.where("userId").is(userId);
+        if (!filter.documentIds().isEmpty()) {
+            criteria = criteria.and("id").in(filter.documentIds());
+        }
+        if (!filter.fileTypes().isEmpty()) {
+            Criteria anyType = null;
+            for (String fileType : filter.fileTypes()) {
+                Criteria byType = Criteria.where("fileName").like(extensionPattern(fileType)).ignoreCase(true);
+                anyType = anyType == null ? byType : anyType.or(byType);
+            }
+            criteria = criteria.and(anyType);
+        }
+        if (filter.uploadedFrom() != null) {
+            criteria = criteria.and("createdAt").greaterThanOrEquals(filter.uploadedFrom().atStartOfDay());
+        }
+        if (filter.uploadedTo() != null) {
+            criteria = criteria.and("createdAt").lessThan(filter.uploadedTo().plusDays(1).atStartOfDay());
+        }
+        return template.select(Document.class)
+                .matching(Query.query(criteria).columns("id"))
+                .all()
+                .map(Document::getId);
+    }
+
+    /**
+     * LIKE pattern for names ending in the extension, with the extension's own wildcard and
+     * escape characters matched literally.
+     */
+    static String extensionPattern(String fileType) {
+        String escaped = fileType.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return "%." + escaped;
+    }
+}
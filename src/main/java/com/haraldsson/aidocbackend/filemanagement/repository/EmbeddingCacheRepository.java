@@ -0,0 +1,89 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to {@code embedding_cache}. The table has a composite key, which Spring Data R2DBC
+ * repositories do not map, so the statements are written against {@link DatabaseClient}.
+ */
+@Repository
+public class EmbeddingCacheRepository {
+
+    private final DatabaseClient databaseClient;
+
+    public EmbeddingCacheRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<Map.Entry<String, byte[]>> findByHashes(String model, Collection<String> hashes) {
+        return databaseClient.sql("SELECT content_hash, embedding FROM embedding_cache " +
+                        "WHERE model = :model AND content_hash IN (:hashes)")
+                .bind("model", model)
+                .bind("hashes", hashes)
+                .map((row, metadata) -> Map.entry(row.get("content_hash", String.class), row.get("embedding", byte[].class)))
+                .all();
+    }
+
+    /**
+     * Marks entries as used. Rows touched within the last hour are skipped, so popular
+     * entries do not cost a write on every lookup.
+     */
+    public Mono<Long> touch(String model, Collection<String> hashes) {
+        return databaseClient.sql("UPDATE embedding_cache SET last_used_at = CURRENT_TIMESTAMP " +
+                        "WHERE model = :model AND content_hash IN (:hashes) " +
+                        "AND last_used_at < CURRENT_TIMESTAMP - INTERVAL '1 hour'")
+                .bind("model", model)
+                .bind("hashes", hashes)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Inserts all entries in one statement; entries another node stored first are only touched.
+     */
+    public Mono<Long> saveAll(String model, List<Map.Entry<String, byte[]>> entries) {
+        if (entries.isEmpty()) {
+            return Mono.just(0L);
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO embedding_cache (content_hash, model, embedding) VALUES ");
+        for (int i = 0; i < entries.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(:hash").append(i).append(", :model, :embedding").append(i).append(')');
+        }
+        sql.append(" ON CONFLICT (content_hash, model) DO UPDATE SET last_used_at = CURRENT_TIMESTAMP");
+
+        DatabaseClient.GenericExecuteSpec statement = databaseClient.sql(sql.toString()).bind("model", model);
+        for (int i = 0; i < entries.size(); i++) {
+            statement = statement.bind("hash" + i, entries.get(i).getKey())
+                    .bind("embedding" + i, entries.get(i).getValue());
+        }
+        return statement.fetch().rowsUpdated();
+    }
+
+    public Mono<Long> deleteUnusedSince(int maxAgeDays) {
+        return databaseClient.sql("DELETE FROM embedding_cache " +
+                        "WHERE last_used_at < CURRENT_TIMESTAMP - :maxAgeDays * INTERVAL '1 day'")
+                .bind("maxAgeDays", maxAgeDays)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Keeps the {@code maxEntries} most recently used rows and deletes the rest.
+     */
+    public Mono<Long> deleteLeastRecentlyUsedBeyond(long maxEntries) {
+        return databaseClient.sql("DELETE FROM embedding_cache c USING (" +
+                        "SELECT content_hash, model FROM embedding_cache " +
+                        "ORDER BY last_used_at DESC OFFSET :maxEntries) old " +
+                        "WHERE c.content_hash = old.content_hash AND c.model = old.model")
+                .bind("maxEntries", maxEntries)
+                .fetch()
+                .rowsUpdated();
+    }
+}
@@ -0,0 +1,93 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJob;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+@Repository
+public interface IngestionJobRepository extends ReactiveCrudRepository<IngestionJob, UUID> {
+
+    // Status polling never needs the spooled file
+    @Query("SELECT id, user_id, file_name, status, attempts, max_attempts, document_id, error, locked_by, " +
+            "heartbeat_at, available_at, created_at, updated_at, finished_at " +
+            "FROM ingestion_jobs WHERE id = :id AND user_id = :userId")
+    Mono<IngestionJob> findStatusByIdAndUserId(UUID id, UUID userId);
+
+    /**
+     * Atomically takes the oldest runnable job; concurrent workers on other nodes skip the
+     * locked row instead of waiting for it.
+     */
+    @Query("UPDATE ingestion_jobs SET status = 'RUNNING', locked_by = :nodeId, attempts = attempts + 1, " +
+            "heartbeat_at = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP " +
+            "WHERE id = (SELECT id FROM ingestion_jobs WHERE status = 'QUEUED' " +
+            "AND (available_at IS NULL OR available_at <= CURRENT_TIMESTAMP) " +
+            "ORDER BY created_at LIMIT 1 FOR UPDATE SKIP LOCKED) " +
+            "RETURNING *")
+    Mono<IngestionJob> claimNext(String nodeId);
+
+    @Modifying
+    @Query("UPDATE ingestion_jobs SET heartbeat_at = CURRENT_TIMESTAMP " +
+            "WHERE locked_by = :nodeId AND status = 'RUNNING'")
+    Mono<Integer> heartbeat(String nodeId);
+
+    @Modifying
+    @Query("UPDATE ingestion_jobs SET status = 'SUCCEEDED', document_id = :documentId, payload = NULL, " +
+            "spool_path = NULL, " +
+            "error = NULL, locked_by = NULL, updated_at = CURRENT_TIMESTAMP, finished_at = CURRENT_TIMESTAMP " +
+            "WHERE id = :id AND locked_by = :nodeId")
+    Mono<Integer> markSucceeded(UUID id, String nodeId, UUID documentId);
+
+    /**
+     * Requeues the job after {@code retryDelaySeconds}, or fails it for good once its attempts
+     * are used up or {@code retryable} is false. Finished jobs drop their payload and spool path;
+     * the worker deletes the spool file itself.
+     */
+    @Modifying
+    @Query("UPDATE ingestion_jobs SET " +
+            "status = CASE WHEN :retryable AND attempts < max_attempts THEN 'QUEUED' ELSE 'FAILED' END, " +
+            "available_at = CURRENT_TIMESTAMP + :retryDelaySeconds * INTERVAL '1 second', " +
+            "payload = CASE WHEN :retryable AND attempts < max_attempts THEN payload END, " +
+            "spool_path = CASE WHEN :retryable AND attempts < max_attempts THEN spool_path END, " +
+            "finished_at = CASE WHEN :retryable AND attempts < max_attempts THEN NULL ELSE CURRENT_TIMESTAMP END, " +
+            "error = :error, locked_by = NULL, updated_at = CURRENT_TIMESTAMP " +
+            "WHERE id = :id AND locked_by = :nodeId")
+    Mono<Integer> markFailed(UUID id, String nodeId, String error, boolean retryable, int retryDelaySeconds);
+
+    /**
+     * Graceful shutdown: hands unfinished jobs back without counting the interrupted attempt.
+     */
+    @Modifying
+    @Query("UPDATE ingestion_jobs SET status = 'QUEUED', attempts = GREATEST(attempts - 1, 0), locked_by = NULL, " +
+            "available_at = NULL, updated_at = CURRENT_TIMESTAMP " +
+            "WHERE locked_by = :nodeId AND status = 'RUNNING'")
+    Mono<Integer> releaseAll(String nodeId);
+
+    /**
+     * Crash recovery: jobs whose worker stopped sending heartbeats are requeued, or failed
+     * once their attempts are used up. Failed jobs keep their spool path for
+     * {@link #takeFinishedSpoolPaths}.
+     */
+    @Modifying
+    @Query("UPDATE ingestion_jobs SET " +
+            "status = CASE WHEN attempts < max_attempts THEN 'QUEUED' ELSE 'FAILED' END, " +
+            "payload = CASE WHEN attempts < max_attempts THEN payload END, " +
+            "finished_at = CASE WHEN attempts < max_attempts THEN NULL ELSE CURRENT_TIMESTAMP END, " +
+            "error = 'Worker stopped responding', locked_by = NULL, available_at = NULL, " +
+            "updated_at = CURRENT_TIMESTAMP " +
+            "WHERE status = 'RUNNING' AND heartbeat_at < CURRENT_TIMESTAMP - :staleSeconds * INTERVAL '1 second'")
+    Mono<Integer> requeueStale(int staleSeconds);
+
+    /**
+     * Clears and returns the spool paths of finished jobs whose worker did not delete the file.
+     */
+    @Query("UPDATE ingestion_jobs SET spool_path = NULL " +
+            "WHERE status IN ('SUCCEEDED', 'FAILED') AND spool_path IS NOT NULL " +
+            "RETURNING spool_path")
+    Flux<String> takeFinishedSpoolPaths();
+}
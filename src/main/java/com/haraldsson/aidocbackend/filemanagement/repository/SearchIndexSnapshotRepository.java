@@ -0,0 +1,28 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import com.haraldsson.aidocbackend.filemanagement.model.SearchIndexSnapshot;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+@Repository
+public interface SearchIndexSnapshotRepository extends ReactiveCrudRepository<SearchIndexSnapshot, UUID> {
+
+    @Query("SELECT * FROM search_index_snapshots WHERE user_id = :userId AND index_type = :indexType")
+    Mono<SearchIndexSnapshot> findByUserIdAndIndexType(UUID userId, String indexType);
+
+    @Modifying
+    @Query("INSERT INTO search_index_snapshots (user_id, index_type, payload, entry_count, updated_at) " +
+            "VALUES (:userId, :indexType, :payload, :entryCount, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (user_id, index_type) DO UPDATE SET payload = EXCLUDED.payload, " +
+            "entry_count = EXCLUDED.entry_count, updated_at = EXCLUDED.updated_at")
+    Mono<Integer> upsert(UUID userId, String indexType, byte[] payload, int entryCount);
+
+    @Modifying
+    @Query("DELETE FROM search_index_snapshots WHERE user_id = :userId AND index_type = :indexType")
+    Mono<Integer> deleteByUserIdAndIndexType(UUID userId, String indexType);
+}
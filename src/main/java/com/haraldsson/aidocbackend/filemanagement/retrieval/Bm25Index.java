@@ -0,0 +1,323 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index of term to postings (chunk, term frequency) scored with Okapi BM25. Chunks
+ * are appended as they are saved; removed chunks are tombstoned and skipped, and the
+ * postings are compacted once tombstones make up a large share of the index.
+ *
+ * <p>The index can be written with {@link #writeTo(DataOutput)} and restored with
+ * {@link #readFrom(DataInput)}, so a restart does not have to re-tokenize every chunk.
+ */
+public class Bm25Index {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final double COMPACT_DELETED_RATIO = 0.3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<UUID, Integer> ordinals = new HashMap<>();
+    private UUID[] ids = new UUID[16];
+    private int[] lengths = new int[16];
+    private BitSet deleted = new BitSet();
+    private int count = 0;
+    private int deletedCount = 0;
+    private long totalLength = 0;
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<UUID> liveIds() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(ordinals.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a chunk's terms, replacing any earlier entry for the same id.
+     */
+    public void add(UUID id, List<String> terms) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) {
+            frequencies.merge(term, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            int ordinal = count++;
+            ids[ordinal] = id;
+            lengths[ordinal] = terms.size();
+            ordinals.put(id, ordinal);
+            totalLength += terms.size();
+            frequencies.forEach((term, frequency) ->
+                    postings.computeIfAbsent(term, t -> new Postings()).add(ordinal, frequency));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(UUID id) {
+        lock.writeLock().lock();
+        try {
+            boolean removed = removeLocked(id);
+            if (removed && deletedCount > count * COMPACT_DELETED_RATIO) {
+                compact();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeLocked(UUID id) {
+        Integer ordinal = ordinals.remove(id);
+        if (ordinal == null) {
+            return false;
+        }
+        deleted.set(ordinal);
+        deletedCount++;
+        totalLength -= lengths[ordinal];
+        return true;
+    }
+
+    /**
+     * Returns up to {@code k} chunks with a positive BM25 score for the query terms, best first.
+     */
+    public List<ScoredChunk> search(List<String> queryTerms, int k) {
+        return search(queryTerms, k, id -> true);
+    }
+
+    /**
+     * Like {@link #search(List, int)}, considering only chunks accepted by {@code include}.
+     * Term statistics still come from the whole index, so scores stay comparable.
+     */
+    public List<ScoredChunk> search(List<String> queryTerms, int k, Predicate<UUID> include) {
+        lock.readLock().lock();
+        try {
+            int live = count - deletedCount;
+            if (live == 0 || queryTerms.isEmpty() || k <= 0) {
+                return List.of();
+            }
+            float averageLength = Math.max((float) totalLength / live, 1f);
+            float[] scores = new float[count];
+            BitSet matched = new BitSet(count);
+
+            for (String term : new LinkedHashSet<>(queryTerms)) {
+                Postings termPostings = postings.get(term);
+                if (termPostings == null) {
+                    continue;
+                }
+                int documentFrequency = 0;
+                for (int i = 0; i < termPostings.size; i++) {
+                    if (!deleted.get(termPostings.ordinals[i])) {
+                        documentFrequency++;
+                    }
+                }
+                if (documentFrequency == 0) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (live - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                for (int i = 0; i < termPostings.size; i++) {
+                    int ordinal = termPostings.ordinals[i];
+                    if (deleted.get(ordinal) || !include.test(ids[ordinal])) {
+                        continue;
+                    }
+                    int frequency = termPostings.frequencies[i];
+                    float lengthNorm = 1 - B + B * lengths[ordinal] / averageLength;
+                    scores[ordinal] += idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+                    matched.set(ordinal);
+                }
+            }
+
+            TopKSelector best = new TopKSelector(k);
+            for (int ordinal = matched.nextSetBit(0); ordinal >= 0; ordinal = matched.nextSetBit(ordinal + 1)) {
+                best.offer(ordinal, scores[ordinal]);
+            }
+            float[] bestScores = new float[best.size()];
+            int[] bestOrdinals = best.drainDescending(bestScores);
+            ScoredChunk[] result = new ScoredChunk[bestOrdinals.length];
+            for (int i = 0; i < bestOrdinals.length; i++) {
+                result[i] = new ScoredChunk(ids[bestOrdinals[i]], bestScores[i]);
+            }
+            return List.of(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops tombstoned chunks from the postings and renumbers the rest. Caller holds the write lock.
+     */
+    private void compact() {
+        int[] remap = new int[count];
+        int live = 0;
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            if (deleted.get(ordinal)) {
+                remap[ordinal] = -1;
+            } else {
+                remap[ordinal] = live;
+                ids[live] = ids[ordinal];
+                lengths[live] = lengths[ordinal];
+                ordinals.put(ids[live], live);
+                live++;
+            }
+        }
+        Arrays.fill(ids, live, count, null);
+
+        Iterator<Postings> iterator = postings.values().iterator();
+        while (iterator.hasNext()) {
+            Postings termPostings = iterator.next();
+            termPostings.remap(remap);
+            if (termPostings.size == 0) {
+                iterator.remove();
+            }
+        }
+        count = live;
+        deletedCount = 0;
+        deleted = new BitSet();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            int[] remap = new int[count];
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count - deletedCount);
+            for (int ordinal = 0, live = 0; ordinal < count; ordinal++) {
+                if (deleted.get(ordinal)) {
+                    remap[ordinal] = -1;
+                    continue;
+                }
+                remap[ordinal] = live++;
+                out.writeLong(ids[ordinal].getMostSignificantBits());
+                out.writeLong(ids[ordinal].getLeastSignificantBits());
+                out.writeInt(lengths[ordinal]);
+            }
+
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings termPostings = entry.getValue();
+                int liveEntries = 0;
+                for (int i = 0; i < termPostings.size; i++) {
+                    if (remap[termPostings.ordinals[i]] >= 0) {
+                        liveEntries++;
+                    }
+                }
+                out.writeUTF(entry.getKey());
+                out.writeInt(liveEntries);
+                for (int i = 0; i < termPostings.size; i++) {
+                    int ordinal = remap[termPostings.ordinals[i]];
+                    if (ordinal >= 0) {
+                        out.writeInt(ordinal);
+                        out.writeInt(termPostings.frequencies[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static Bm25Index readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported BM25 snapshot version " + version);
+        }
+        Bm25Index index = new Bm25Index();
+        int documents = in.readInt();
+        index.ids = new UUID[Math.max(documents, 16)];
+        index.lengths = new int[Math.max(documents, 16)];
+        for (int ordinal = 0; ordinal < documents; ordinal++) {
+            UUID id = new UUID(in.readLong(), in.readLong());
+            index.ids[ordinal] = id;
+            index.lengths[ordinal] = in.readInt();
+            index.ordinals.put(id, ordinal);
+            index.totalLength += index.lengths[ordinal];
+        }
+        index.count = documents;
+
+        int terms = in.readInt();
+        for (int t = 0; t < terms; t++) {
+            String term = in.readUTF();
+            int entries = in.readInt();
+            Postings termPostings = new Postings(entries);
+            for (int i = 0; i < entries; i++) {
+                termPostings.add(in.readInt(), in.readInt());
+            }
+            if (entries > 0) {
+                index.postings.put(term, termPostings);
+            }
+        }
+        return index;
+    }
+
+    private static final class Postings {
+        private int[] ordinals;
+        private int[] frequencies;
+        private int size = 0;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            this.ordinals = new int[Math.max(capacity, 1)];
+            this.frequencies = new int[Math.max(capacity, 1)];
+        }
+
+        void add(int ordinal, int frequency) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        void remap(int[] remap) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int ordinal = remap[ordinals[i]];
+                if (ordinal >= 0) {
+                    ordinals[kept] = ordinal;
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+    }
+}
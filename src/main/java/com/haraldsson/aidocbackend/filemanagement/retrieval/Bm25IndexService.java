@@ -0,0 +1,218 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.repository.SearchIndexSnapshotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a {@link Bm25Index} per user for keyword search. New chunks are added to a loaded
+ * index as they are saved; after uploads and deletes the index is reconciled against the
+ * chunk ids in the database, so only added or removed chunks are touched. Indexes are
+ * persisted to {@code search_index_snapshots} so a restart restores instead of re-tokenizing.
+ *
+ * <p>Changed indexes are only marked dirty and written by a periodic flush, so neither an
+ * upload nor the search that reconciles afterwards pays for serializing the whole index.
+ * Anything not yet flushed at a restart is picked up by reconciliation.
+ */
+@Component
+@ConditionalOnProperty(name = "app.retrieval.keyword.backend", havingValue = "bm25", matchIfMissing = true)
+public class Bm25IndexService implements KeywordRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(Bm25IndexService.class);
+    static final String INDEX_TYPE = "bm25";
+
+    private final SearchIndexSnapshotRepository snapshotRepository;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final Map<UUID, Bm25Index> indexes;
+    private final Map<UUID, Mono<Bm25Index>> loading = new ConcurrentHashMap<>();
+    private final Set<UUID> stale = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Bm25Index> dirty = new ConcurrentHashMap<>();
+
+    public Bm25IndexService(SearchIndexSnapshotRepository snapshotRepository,
+                            DocumentChunkRepository documentChunkRepository,
+                            @Value("${app.retrieval.bm25.max-users:64}") int maxUsers) {
+        this.snapshotRepository = snapshotRepository;
+        this.documentChunkRepository = documentChunkRepository;
+        this.indexes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Bm25Index> eldest) {
+                return size() > maxUsers;
+            }
+        });
+    }
+
+    @Override
+    public Mono<List<DocumentChunk>> search(UUID userId, String question, int k, Collection<UUID> documentIds) {
+        List<String> terms = KeywordTokenizer.tokenize(question);
+        if (terms.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        if (documentIds == null) {
+            return indexFor(userId)
+                    .map(index -> index.search(terms, k))
+                    .flatMap(this::loadInScoreOrder);
+        }
+        // Scoped: score only chunks of the selected documents
+        return Mono.zip(indexFor(userId),
+                        documentChunkRepository.findIdsByUserIdAndDocumentIds(userId, documentIds)
+                                .collect(Collectors.toSet()))
+                .map(scope -> scope.getT1().search(terms, k, scope.getT2()::contains))
+                .flatMap(this::loadInScoreOrder);
+    }
+
+    private Mono<List<DocumentChunk>> loadInScoreOrder(List<ScoredChunk> matches) {
+        if (matches.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return documentChunkRepository.findContentByIds(matches.stream().map(ScoredChunk::chunkId).toList())
+                .collectMap(DocumentChunk::getId, Function.identity())
+                .map(chunksById -> matches.stream()
+                        .map(match -> chunksById.get(match.chunkId()))
+                        .filter(Objects::nonNull)
+                        .toList());
+    }
+
+    /**
+     * Adds freshly saved chunks to the user's index if it is loaded, replacing the postings of
+     * chunks that were rewritten in place. Users without a loaded index pick new chunks up
+     * through reconciliation on their next keyword search.
+     */
+    @Override
+    public void onChunksSaved(UUID userId, List<DocumentChunk> chunks) {
+        Bm25Index index = indexes.get(userId);
+        if (index == null) {
+            return;
+        }
+        Mono.fromRunnable(() -> {
+                    addAll(index, chunks);
+                    dirty.put(userId, index);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(
+                        v -> { },
+                        e -> log.warn("Incremental BM25 update failed for user {}: {}", userId, e.getMessage()));
+    }
+
+    @Override
+    public void onCorpusChanged(UUID userId) {
+        stale.add(userId);
+    }
+
+    private Mono<Bm25Index> indexFor(UUID userId) {
+        Bm25Index loaded = indexes.get(userId);
+        if (loaded != null && !stale.contains(userId)) {
+            return Mono.just(loaded);
+        }
+        return loading.computeIfAbsent(userId, id -> (loaded != null ? reconcile(id, loaded) : restoreOrBuild(id))
+                .doOnNext(index -> indexes.put(id, index))
+                .doFinally(signal -> loading.remove(id))
+                .cache());
+    }
+
+    private Mono<Bm25Index> reconcile(UUID userId, Bm25Index index) {
+        stale.remove(userId);
+        return documentChunkRepository.findIdsByUserId(userId)
+                .collectList()
+                .flatMap(currentIds -> {
+                    Set<UUID> removed = index.liveIds();
+                    List<UUID> added = new ArrayList<>();
+                    for (UUID id : currentIds) {
+                        if (!removed.remove(id)) {
+                            added.add(id);
+                        }
+                    }
+                    if (added.isEmpty() && removed.isEmpty()) {
+                        return Mono.just(index);
+                    }
+                    log.debug("Reconciling BM25 index for user {}: +{} -{}", userId, added.size(), removed.size());
+                    removed.forEach(index::remove);
+                    return (added.isEmpty() ? Flux.<DocumentChunk>empty() : documentChunkRepository.findContentByIds(added))
+                            .collectList()
+                            .publishOn(Schedulers.boundedElastic())
+                            .doOnNext(chunks -> {
+                                addAll(index, chunks);
+                                dirty.put(userId, index);
+                            })
+                            .thenReturn(index);
+                });
+    }
+
+    private Mono<Bm25Index> restoreOrBuild(UUID userId) {
+        return snapshotRepository.findByUserIdAndIndexType(userId, INDEX_TYPE)
+                .flatMap(stored -> Mono.fromCallable(() -> {
+                            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored.getPayload()))) {
+                                return Bm25Index.readFrom(in);
+                            }
+                        })
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .doOnNext(index -> log.info("Restored BM25 index for user {} ({} chunks)", userId, index.size()))
+                        .onErrorResume(e -> {
+                            log.warn("Discarding unreadable BM25 snapshot for user {}: {}", userId, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .defaultIfEmpty(new Bm25Index())
+                .flatMap(index -> reconcile(userId, index));
+    }
+
+    private void addAll(Bm25Index index, List<DocumentChunk> chunks) {
+        for (DocumentChunk chunk : chunks) {
+            if (chunk.getId() != null) {
+                index.add(chunk.getId(), KeywordTokenizer.tokenize(chunk.getContent()));
+            }
+        }
+    }
+
+    /**
+     * Writes every index that changed since the last flush. An index that changes again while
+     * it is being written stays dirty for the next round.
+     */
+    @Scheduled(initialDelayString = "${app.retrieval.bm25.persist-interval-ms:60000}",
+            fixedDelayString = "${app.retrieval.bm25.persist-interval-ms:60000}")
+    public Mono<Void> flushDirty() {
+        return Flux.fromIterable(new ArrayList<>(dirty.entrySet()))
+                .filter(entry -> dirty.remove(entry.getKey(), entry.getValue()))
+                .concatMap(entry -> persist(entry.getKey(), entry.getValue()))
+                .then();
+    }
+
+    private Mono<Void> persist(UUID userId, Bm25Index index) {
+        return Mono.fromCallable(() -> {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (DataOutputStream out = new DataOutputStream(bytes)) {
+                        index.writeTo(out);
+                    }
+                    return bytes.toByteArray();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(payload -> snapshotRepository.upsert(userId, INDEX_TYPE, payload, index.size()))
+                .doOnError(e -> log.warn("Failed to persist BM25 index for user {}: {}", userId, e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+}
@@ -0,0 +1,38 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Embedding-similarity backend used by {@code DocumentService.findRelevantChunksWithEmbeddings}.
+ * The implementation is selected with {@code app.retrieval.backend}.
+ */
+public interface ChunkRetriever {
+
+    /**
+     * Returns the {@code k} chunks most similar to a unit-length query, best first.
+     */
+    default Mono<RetrievalResult> findTopK(UUID userId, float[] normalizedQuery, int k) {
+        return findTopK(userId, normalizedQuery, k, null);
+    }
+
+    /**
+     * Like {@link #findTopK(UUID, float[], int)}, restricted to chunks of the given documents.
+     * A null collection searches the whole corpus.
+     */
+    Mono<RetrievalResult> findTopK(UUID userId, float[] normalizedQuery, int k, Collection<UUID> documentIds);
+
+    /**
+     * Called after chunks with new embeddings have been saved.
+     */
+    Mono<Void> onEmbeddingsSaved(UUID userId, List<DocumentChunk> chunks);
+
+    /**
+     * Called after documents were added, replaced or deleted for the user.
+     */
+    void onCorpusChanged(UUID userId);
+}
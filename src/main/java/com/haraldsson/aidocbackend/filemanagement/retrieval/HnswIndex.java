@@ -0,0 +1,557 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingQuantizer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Hierarchical navigable small world graph over unit-length vectors, scored by dot product
+ * (equal to cosine similarity for normalized input). Nodes are appended as chunks get their
+ * embeddings; removed chunks are tombstoned and skipped in results until the graph is rebuilt.
+ *
+ * <p>The graph structure (ids, levels and neighbour lists) can be written with
+ * {@link #writeTo(DataOutput)} and restored with {@link #readFrom(DataInput, Function)}, which
+ * avoids the expensive insertion phase after a restart. Vectors are not part of the payload;
+ * they are supplied again from the chunk table on restore.
+ *
+ * <p>A quantized graph keeps each node as packed int8 codes (see {@link EmbeddingQuantizer})
+ * instead of a float array, a quarter of the memory. Its scores are approximate, so callers
+ * over-fetch and rerank the results at full precision.
+ */
+public class HnswIndex {
+
+    private static final int FORMAT_VERSION = 2;
+
+    private final int m;
+    private final int maxConnectionsLevel0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+    private final boolean quantized;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<UUID> ids = new ArrayList<>();
+    private final List<float[]> vectors = new ArrayList<>();
+    private final List<byte[]> codes = new ArrayList<>();
+    private float[] scales = new float[0];
+    private final List<int[][]> neighbours = new ArrayList<>();
+    private final List<int[]> neighbourCounts = new ArrayList<>();
+    private final Map<UUID, Integer> ordinals = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount = 0;
+    private int dimensions = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction) {
+        this(m, efConstruction, false);
+    }
+
+    public HnswIndex(int m, int efConstruction, boolean quantized) {
+        this(m, efConstruction, System.nanoTime(), quantized);
+    }
+
+    public HnswIndex(int m, int efConstruction, long seed) {
+        this(m, efConstruction, seed, false);
+    }
+
+    public HnswIndex(int m, int efConstruction, long seed, boolean quantized) {
+        this.m = Math.max(2, m);
+        this.maxConnectionsLevel0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        this.random = new SplittableRandom(seed);
+        this.quantized = quantized;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size() - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(UUID id) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            return ordinal != null && !deleted.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<UUID> liveIds() {
+        lock.readLock().lock();
+        try {
+            Set<UUID> live = new HashSet<>(ids.size() - deletedCount);
+            for (int node = 0; node < ids.size(); node++) {
+                if (!deleted.get(node)) {
+                    live.add(ids.get(node));
+                }
+            }
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a unit-length vector, quantizing it first in a quantized graph. Re-adding a
+     * tombstoned id revives it with the new vector by appending a fresh node; re-adding a
+     * live id is a no-op.
+     */
+    public void add(UUID id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (isLive(id)) {
+                return;
+            }
+            checkDimensions(vector.length);
+            if (quantized) {
+                storeCodes(EmbeddingQuantizer.quantize(vector));
+            } else {
+                vectors.add(vector);
+            }
+            insert(id, vector, randomLevel());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a vector already packed by {@link EmbeddingQuantizer}; only valid on a
+     * quantized graph. The packed array is kept as the node's storage.
+     */
+    public void addQuantized(UUID id, byte[] packed) {
+        if (!quantized) {
+            throw new IllegalStateException("Graph stores float vectors");
+        }
+        lock.writeLock().lock();
+        try {
+            if (isLive(id)) {
+                return;
+            }
+            checkDimensions(EmbeddingQuantizer.dimensions(packed));
+            storeCodes(packed);
+            insert(id, EmbeddingQuantizer.dequantize(packed), randomLevel());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isLive(UUID id) {
+        Integer existing = ordinals.get(id);
+        return existing != null && !deleted.get(existing);
+    }
+
+    private void checkDimensions(int length) {
+        if (dimensions == 0) {
+            dimensions = length;
+        } else if (length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + length);
+        }
+    }
+
+    private void storeCodes(byte[] packed) {
+        int node = codes.size();
+        codes.add(packed);
+        if (node == scales.length) {
+            scales = Arrays.copyOf(scales, Math.max(16, node * 2));
+        }
+        scales[node] = EmbeddingQuantizer.scale(packed);
+    }
+
+    public void markDeleted(UUID id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal != null && !deleted.get(ordinal)) {
+                deleted.set(ordinal);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code k} live nodes closest to the query, best first.
+     */
+    public List<ScoredChunk> search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || query.length != dimensions || k <= 0) {
+                return List.of();
+            }
+
+            int current = entryPoint;
+            float currentScore = dot(query, current);
+            for (int level = maxLevel; level > 0; level--) {
+                boolean improved = true;
+                while (improved) {
+                    improved = false;
+                    int[] links = neighbours.get(current)[level];
+                    int count = neighbourCounts.get(current)[level];
+                    for (int i = 0; i < count; i++) {
+                        float score = dot(query, links[i]);
+                        if (score > currentScore) {
+                            currentScore = score;
+                            current = links[i];
+                            improved = true;
+                        }
+                    }
+                }
+            }
+
+            // Tombstoned nodes still route the search but cannot fill result slots
+            int beam = Math.max(ef, k) + Math.min(deletedCount, Math.max(ef, k));
+            PriorityQueue<Candidate> found = searchLayer(query, current, beam, 0);
+
+            List<Candidate> ordered = new ArrayList<>(found);
+            ordered.sort(Collections.reverseOrder());
+            List<ScoredChunk> result = new ArrayList<>(k);
+            for (Candidate candidate : ordered) {
+                if (deleted.get(candidate.node)) {
+                    continue;
+                }
+                result.add(new ScoredChunk(ids.get(candidate.node), candidate.score));
+                if (result.size() == k) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(quantized);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(dimensions);
+            out.writeInt(ids.size());
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < ids.size(); node++) {
+                UUID id = ids.get(node);
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
+                out.writeBoolean(deleted.get(node));
+                int[][] links = neighbours.get(node);
+                int[] counts = neighbourCounts.get(node);
+                out.writeInt(links.length);
+                for (int level = 0; level < links.length; level++) {
+                    out.writeInt(counts[level]);
+                    for (int i = 0; i < counts[level]; i++) {
+                        out.writeInt(links[level][i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restores a float graph written by {@link #writeTo(DataOutput)}. Nodes whose vector the
+     * lookup no longer returns are restored as tombstones so the graph stays connected.
+     */
+    public static HnswIndex readFrom(DataInput in, Function<UUID, float[]> vectorLookup) throws IOException {
+        return read(in, false, vectorLookup, null);
+    }
+
+    /**
+     * Restores a quantized graph, looking up each node's packed int8 codes.
+     */
+    public static HnswIndex readQuantizedFrom(DataInput in, Function<UUID, byte[]> codeLookup) throws IOException {
+        return read(in, true, null, codeLookup);
+    }
+
+    private static HnswIndex read(DataInput in, boolean quantized, Function<UUID, float[]> vectorLookup,
+                                  Function<UUID, byte[]> codeLookup) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported HNSW snapshot version " + version);
+        }
+        if (in.readBoolean() != quantized) {
+            throw new IOException("HNSW snapshot was written " + (quantized ? "without" : "with") + " quantization");
+        }
+        HnswIndex index = new HnswIndex(in.readInt(), in.readInt(), System.nanoTime(), quantized);
+        index.dimensions = in.readInt();
+        int count = in.readInt();
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        float[] missingVector = new float[quantized ? 0 : index.dimensions];
+        byte[] missingCodes = new byte[quantized ? EmbeddingQuantizer.HEADER_BYTES + index.dimensions : 0];
+
+        for (int node = 0; node < count; node++) {
+            UUID id = new UUID(in.readLong(), in.readLong());
+            boolean wasDeleted = in.readBoolean();
+            int levels = in.readInt();
+            int[][] links = new int[levels][];
+            int[] counts = new int[levels];
+            for (int level = 0; level < levels; level++) {
+                counts[level] = in.readInt();
+                links[level] = new int[index.maxConnections(level) + 1];
+                for (int i = 0; i < counts[level]; i++) {
+                    links[level][i] = in.readInt();
+                }
+            }
+
+            boolean usable;
+            if (quantized) {
+                byte[] packed = codeLookup.apply(id);
+                usable = packed != null && EmbeddingQuantizer.dimensions(packed) == index.dimensions;
+                index.storeCodes(usable ? packed : missingCodes);
+            } else {
+                float[] vector = vectorLookup.apply(id);
+                usable = vector != null && vector.length == index.dimensions;
+                index.vectors.add(usable ? vector : missingVector);
+            }
+            index.ids.add(id);
+            index.neighbours.add(links);
+            index.neighbourCounts.add(counts);
+            if (wasDeleted || !usable) {
+                index.deleted.set(node);
+                index.deletedCount++;
+            } else {
+                index.ordinals.put(id, node);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Links a node whose storage was just appended; {@code vector} is its float form, used
+     * as the query while searching for neighbours.
+     */
+    private void insert(UUID id, float[] vector, int level) {
+        int node = ids.size();
+        ids.add(id);
+        ordinals.put(id, node);
+
+        int[][] links = new int[level + 1][];
+        int[] counts = new int[level + 1];
+        for (int l = 0; l <= level; l++) {
+            links[l] = new int[maxConnections(l) + 1];
+        }
+        neighbours.add(links);
+        neighbourCounts.add(counts);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        float currentScore = dot(vector, current);
+        for (int l = maxLevel; l > level; l--) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                int[] candidates = neighbours.get(current)[l];
+                int count = neighbourCounts.get(current)[l];
+                for (int i = 0; i < count; i++) {
+                    float score = dot(vector, candidates[i]);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = candidates[i];
+                        improved = true;
+                    }
+                }
+            }
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<Candidate> found = searchLayer(vector, current, efConstruction, l);
+            List<Candidate> ordered = new ArrayList<>(found);
+            ordered.sort(Collections.reverseOrder());
+
+            List<Candidate> selected = selectNeighbours(ordered, m);
+            for (Candidate candidate : selected) {
+                connect(node, candidate.node, l);
+                connect(candidate.node, node, l);
+            }
+            current = ordered.get(0).node;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: prefer candidates that are closer
+     * to the new node than to any neighbour already selected, which keeps long-range links.
+     */
+    private List<Candidate> selectNeighbours(List<Candidate> orderedCandidates, int limit) {
+        List<Candidate> selected = new ArrayList<>(limit);
+        for (Candidate candidate : orderedCandidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (dot(nodeVector(candidate.node), chosen.node) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            }
+        }
+        for (Candidate candidate : orderedCandidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            if (!selected.contains(candidate)) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] links = neighbours.get(from)[level];
+        int[] counts = neighbourCounts.get(from);
+        int limit = maxConnections(level);
+
+        links[counts[level]++] = to;
+        if (counts[level] <= limit) {
+            return;
+        }
+
+        // Over capacity: keep the closest neighbours of "from"
+        float[] base = nodeVector(from);
+        Candidate[] scored = new Candidate[counts[level]];
+        for (int i = 0; i < counts[level]; i++) {
+            scored[i] = new Candidate(links[i], dot(base, links[i]));
+        }
+        Arrays.sort(scored, Collections.reverseOrder());
+        List<Candidate> kept = selectNeighbours(Arrays.asList(scored), limit);
+        counts[level] = kept.size();
+        for (int i = 0; i < kept.size(); i++) {
+            links[i] = kept.get(i).node;
+        }
+    }
+
+    private PriorityQueue<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(ids.size());
+        visited.set(entry);
+
+        Candidate start = new Candidate(entry, dot(query, entry));
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>(Collections.reverseOrder());
+        PriorityQueue<Candidate> found = new PriorityQueue<>();
+        toVisit.add(start);
+        found.add(start);
+
+        while (!toVisit.isEmpty()) {
+            Candidate closest = toVisit.poll();
+            if (found.size() >= ef && closest.score < found.peek().score) {
+                break;
+            }
+            int[][] nodeLinks = neighbours.get(closest.node);
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            int[] links = nodeLinks[level];
+            int count = neighbourCounts.get(closest.node)[level];
+            for (int i = 0; i < count; i++) {
+                int neighbour = links[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = dot(query, neighbour);
+                if (found.size() < ef || score > found.peek().score) {
+                    Candidate candidate = new Candidate(neighbour, score);
+                    toVisit.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? maxConnectionsLevel0 : m;
+    }
+
+    private int randomLevel() {
+        double uniform = 1.0 - random.nextDouble();
+        return (int) Math.floor(-Math.log(uniform) * levelMultiplier);
+    }
+
+    private float dot(float[] query, int node) {
+        if (quantized) {
+            return VectorMath.dotInt8(codes.get(node), EmbeddingQuantizer.HEADER_BYTES, query, dimensions)
+                    * scales[node];
+        }
+        return VectorMath.dot(query, vectors.get(node));
+    }
+
+    /**
+     * The node's vector as floats: the stored array, or a dequantized copy in a quantized graph.
+     */
+    private float[] nodeVector(int node) {
+        if (!quantized) {
+            return vectors.get(node);
+        }
+        byte[] packed = codes.get(node);
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = packed[EmbeddingQuantizer.HEADER_BYTES + i] * scales[node];
+        }
+        return vector;
+    }
+
+    private record Candidate(int node, float score) implements Comparable<Candidate> {
+        @Override
+        public int compareTo(Candidate other) {
+            return Float.compare(score, other.score);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.repository.SearchIndexSnapshotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps an {@link HnswIndex} per user whose corpus is large enough that an exact scan of the
+ * {@link UserVectorIndex} gets expensive. Graphs grow incrementally as chunks receive
+ * embeddings, are reconciled against the latest snapshot before each search, and are
+ * persisted to {@code search_index_snapshots} so a restart restores instead of rebuilding.
+ *
+ * <p>Changed graphs are only marked dirty and written by a periodic flush, so a burst of
+ * uploads costs one serialization per user rather than one per upload. Anything not yet
+ * flushed at a restart is picked up by reconciliation against the chunk table.
+ * Snapshots in quantized mode produce quantized graphs.
+ *
+ * <p>Users too large for {@link VectorIndexCache} have no snapshot to reconcile against; their
+ * loaded graph is searched directly and caught up from chunk ids after corpus changes.
+ */
+@Component
+public class HnswIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(HnswIndexService.class);
+    static final String INDEX_TYPE = "hnsw";
+    private static final int ID_BATCH = 1000;
+
+    private final SearchIndexSnapshotRepository snapshotRepository;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final Map<UUID, HnswIndex> indexes;
+    private final Map<UUID, Mono<HnswIndex>> loading = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> reconciledVersions = new ConcurrentHashMap<>();
+    private final Map<UUID, HnswIndex> dirty = new ConcurrentHashMap<>();
+    private final Set<UUID> changedUsers = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.retrieval.hnsw.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.retrieval.hnsw.min-corpus-size:5000}")
+    private int minCorpusSize;
+
+    @Value("${app.retrieval.hnsw.m:16}")
+    private int m;
+
+    @Value("${app.retrieval.hnsw.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${app.retrieval.hnsw.ef-search:64}")
+    private int efSearch;
+
+    @Value("${app.retrieval.hnsw.rebuild-deleted-ratio:0.3}")
+    private double rebuildDeletedRatio;
+
+    public HnswIndexService(SearchIndexSnapshotRepository snapshotRepository,
+                            DocumentChunkRepository documentChunkRepository,
+                            @Value("${app.retrieval.hnsw.max-users:32}") int maxUsers) {
+        this.snapshotRepository = snapshotRepository;
+        this.documentChunkRepository = documentChunkRepository;
+        this.indexes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, HnswIndex> eldest) {
+                return size() > maxUsers;
+            }
+        });
+    }
+
+    /**
+     * Below the configured corpus size an exact scan is both cheaper and perfectly accurate.
+     */
+    public boolean shouldUse(UserVectorIndex snapshot) {
+        return enabled && snapshot.size() >= minCorpusSize;
+    }
+
+    /**
+     * Searches the user's graph once it is loaded. A graph that still has to be restored or
+     * built is loaded in the background and the search completes empty, so the caller can
+     * answer this question with an exact scan instead of waiting for the build.
+     */
+    public Mono<List<ScoredChunk>> search(UUID userId, UserVectorIndex snapshot, float[] normalizedQuery, int k) {
+        HnswIndex loaded = indexes.get(userId);
+        if (loaded == null || loaded.isQuantized() != snapshot.isQuantized()) {
+            indexFor(userId, snapshot).subscribe(
+                    index -> { },
+                    e -> log.warn("Loading HNSW index for user {} failed: {}", userId, e.getMessage()));
+            return Mono.empty();
+        }
+        return indexFor(userId, snapshot)
+                .map(index -> index.search(normalizedQuery, k, Math.max(efSearch, k)));
+    }
+
+    /**
+     * Searches the user's loaded graph without a snapshot, catching it up first if the corpus
+     * changed since the last search. Empty when no graph is loaded.
+     */
+    public Mono<GraphSearch> searchLoaded(UUID userId, float[] normalizedQuery, int k) {
+        HnswIndex loaded = enabled ? indexes.get(userId) : null;
+        if (loaded == null) {
+            return Mono.empty();
+        }
+        Mono<HnswIndex> current = changedUsers.remove(userId) ? catchUp(userId, loaded) : Mono.just(loaded);
+        return current.map(index -> new GraphSearch(index.search(normalizedQuery, k, Math.max(efSearch, k)), index.size()));
+    }
+
+    public void onCorpusChanged(UUID userId) {
+        changedUsers.add(userId);
+    }
+
+    /**
+     * Adds freshly embedded chunks to the user's graph if it is loaded. Users without a loaded
+     * graph pick the chunks up through reconciliation on their next large-corpus search.
+     */
+    public void onEmbeddingsCreated(UUID userId, List<DocumentChunk> chunks) {
+        if (!enabled) {
+            return;
+        }
+        HnswIndex index = indexes.get(userId);
+        if (index == null) {
+            return;
+        }
+        Mono.fromRunnable(() -> {
+                    chunks.forEach(chunk -> addChunk(index, chunk));
+                    dirty.put(userId, index);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(
+                        v -> { },
+                        e -> log.warn("Incremental HNSW update failed for user {}: {}", userId, e.getMessage()));
+    }
+
+    private Mono<HnswIndex> indexFor(UUID userId, UserVectorIndex snapshot) {
+        HnswIndex loaded = indexes.get(userId);
+        if (loaded != null && loaded.isQuantized() != snapshot.isQuantized()) {
+            indexes.remove(userId, loaded);
+            loaded = null;
+        }
+        if (loaded != null) {
+            Long reconciled = reconciledVersions.get(userId);
+            if (reconciled != null && reconciled == snapshot.version()) {
+                return Mono.just(loaded);
+            }
+            return reconcile(userId, loaded, snapshot);
+        }
+        return loading.computeIfAbsent(userId, id -> restoreOrBuild(id, snapshot)
+                .doOnNext(index -> indexes.put(id, index))
+                .doFinally(signal -> loading.remove(id))
+                .cache());
+    }
+
+    /**
+     * Brings the graph in line with the snapshot. Uploads normally reach the graph through
+     * {@link #onEmbeddingsCreated}, so the common case is a membership check per row with
+     * nothing to add; the set of stale ids is only built when the graph holds chunks the
+     * snapshot no longer has.
+     */
+    private Mono<HnswIndex> reconcile(UUID userId, HnswIndex index, UserVectorIndex snapshot) {
+        return Mono.fromCallable(() -> {
+                    List<Integer> missingRows = new ArrayList<>();
+                    int present = 0;
+                    for (int row = 0; row < snapshot.size(); row++) {
+                        if (index.contains(snapshot.chunkId(row))) {
+                            present++;
+                        } else {
+                            missingRows.add(row);
+                        }
+                    }
+                    boolean removed = present < index.size();
+                    if (removed) {
+                        Set<UUID> stale = index.liveIds();
+                        for (int row = 0; row < snapshot.size(); row++) {
+                            stale.remove(snapshot.chunkId(row));
+                        }
+                        stale.forEach(index::markDeleted);
+                    }
+                    for (int row : missingRows) {
+                        addRow(index, snapshot, row);
+                    }
+                    return removed || !missingRows.isEmpty();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(changed -> reconciledVersions.put(userId, snapshot.version()))
+                .flatMap(changed -> {
+                    if (index.deletedCount() > index.size() * rebuildDeletedRatio) {
+                        log.info("Rebuilding HNSW index for user {} ({} tombstones)", userId, index.deletedCount());
+                        return build(snapshot)
+                                .doOnNext(rebuilt -> {
+                                    indexes.put(userId, rebuilt);
+                                    dirty.put(userId, rebuilt);
+                                });
+                    }
+                    if (changed) {
+                        dirty.put(userId, index);
+                    }
+                    return Mono.just(index);
+                });
+    }
+
+    /**
+     * Snapshot-free reconciliation: tombstones ids that are gone and loads vectors only for
+     * chunks the graph does not have yet.
+     */
+    private Mono<HnswIndex> catchUp(UUID userId, HnswIndex index) {
+        return documentChunkRepository.findIdsByUserId(userId)
+                .collectList()
+                .flatMap(currentIds -> {
+                    Set<UUID> removed = index.liveIds();
+                    List<UUID> added = new ArrayList<>();
+                    for (UUID id : currentIds) {
+                        if (!removed.remove(id)) {
+                            added.add(id);
+                        }
+                    }
+                    removed.forEach(index::markDeleted);
+                    if (added.isEmpty()) {
+                        if (!removed.isEmpty()) {
+                            dirty.put(userId, index);
+                        }
+                        return Mono.just(index);
+                    }
+                    log.debug("Catching up HNSW index for user {}: +{} -{}", userId, added.size(), removed.size());
+                    List<List<UUID>> batches = new ArrayList<>();
+                    for (int from = 0; from < added.size(); from += ID_BATCH) {
+                        batches.add(added.subList(from, Math.min(added.size(), from + ID_BATCH)));
+                    }
+                    return Flux.fromIterable(batches)
+                            .concatMap(documentChunkRepository::findEmbeddingsByIds)
+                            .publishOn(Schedulers.boundedElastic())
+                            .doOnNext(chunk -> addChunk(index, chunk))
+                            .then(Mono.fromRunnable(() -> dirty.put(userId, index)))
+                            .thenReturn(index);
+                })
+                .onErrorResume(e -> {
+                    changedUsers.add(userId);
+                    log.warn("Catching up HNSW index for user {} failed: {}", userId, e.getMessage());
+                    return Mono.just(index);
+                });
+    }
+
+    private static void addChunk(HnswIndex index, DocumentChunk chunk) {
+        if (chunk.getId() == null) {
+            return;
+        }
+        if (index.isQuantized() && chunk.getEmbeddingInt8() != null) {
+            index.addQuantized(chunk.getId(), chunk.getEmbeddingInt8());
+        } else if (chunk.getEmbedding() != null) {
+            index.add(chunk.getId(), chunk.getEmbedding());
+        }
+    }
+
+    private Mono<HnswIndex> restoreOrBuild(UUID userId, UserVectorIndex snapshot) {
+        return snapshotRepository.findByUserIdAndIndexType(userId, INDEX_TYPE)
+                .flatMap(stored -> Mono.fromCallable(() -> restore(stored.getPayload(), snapshot))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .doOnNext(index -> log.info("Restored HNSW index for user {} ({} nodes)", userId, index.size()))
+                        .onErrorResume(e -> {
+                            log.warn("Discarding unreadable HNSW snapshot for user {}: {}", userId, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .flatMap(index -> reconcile(userId, index, snapshot))
+                .switchIfEmpty(Mono.defer(() -> build(snapshot)
+                        .doOnNext(index -> {
+                            reconciledVersions.put(userId, snapshot.version());
+                            dirty.put(userId, index);
+                        })));
+    }
+
+    private HnswIndex restore(byte[] payload, UserVectorIndex snapshot) throws IOException {
+        Map<UUID, Integer> rows = new HashMap<>(snapshot.size() * 2);
+        for (int row = 0; row < snapshot.size(); row++) {
+            rows.put(snapshot.chunkId(row), row);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (snapshot.isQuantized()) {
+                return HnswIndex.readQuantizedFrom(in, id -> {
+                    Integer row = rows.get(id);
+                    return row == null ? null : snapshot.quantizedRow(row);
+                });
+            }
+            return HnswIndex.readFrom(in, id -> {
+                Integer row = rows.get(id);
+                return row == null ? null : snapshot.vector(row);
+            });
+        }
+    }
+
+    private Mono<HnswIndex> build(UserVectorIndex snapshot) {
+        return Mono.fromCallable(() -> {
+                    long start = System.currentTimeMillis();
+                    HnswIndex index = new HnswIndex(m, efConstruction, snapshot.isQuantized());
+                    for (int row = 0; row < snapshot.size(); row++) {
+                        addRow(index, snapshot, row);
+                    }
+                    log.info("Built HNSW index with {} nodes in {} ms",
+                            index.size(), System.currentTimeMillis() - start);
+                    return index;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static void addRow(HnswIndex index, UserVectorIndex snapshot, int row) {
+        if (index.isQuantized()) {
+            index.addQuantized(snapshot.chunkId(row), snapshot.quantizedRow(row));
+        } else {
+            index.add(snapshot.chunkId(row), snapshot.vector(row));
+        }
+    }
+
+    /**
+     * Writes every graph that changed since the last flush. A graph that changes again while
+     * it is being written stays dirty for the next round.
+     */
+    @Scheduled(initialDelayString = "${app.retrieval.hnsw.persist-interval-ms:60000}",
+            fixedDelayString = "${app.retrieval.hnsw.persist-interval-ms:60000}")
+    public Mono<Void> flushDirty() {
+        return Flux.fromIterable(new ArrayList<>(dirty.entrySet()))
+                .filter(entry -> dirty.remove(entry.getKey(), entry.getValue()))
+                .concatMap(entry -> persist(entry.getKey(), entry.getValue()))
+                .then();
+    }
+
+    private Mono<Void> persist(UUID userId, HnswIndex index) {
+        return Mono.fromCallable(() -> {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (DataOutputStream out = new DataOutputStream(bytes)) {
+                        index.writeTo(out);
+                    }
+                    return bytes.toByteArray();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(payload -> snapshotRepository.upsert(userId, INDEX_TYPE, payload, index.size()))
+                .doOnError(e -> log.warn("Failed to persist HNSW index for user {}: {}", userId, e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    public record GraphSearch(List<ScoredChunk> matches, int graphSize) {}
+}
@@ -0,0 +1,182 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.dto.ChunkWithSimilarityDTO;
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Default backend: scores in the JVM against the cached {@link UserVectorIndex}, switching to
+ * the user's HNSW graph for large corpora, or a sign-hash prefilter when that is enabled.
+ * Exact scans over very large snapshots, including those that answer while a user's graph is
+ * still being built and all of them when HNSW is disabled, are split across
+ * {@link ParallelVectorScorer}.
+ * Users too large for the cache are searched through their HNSW graph when one is loaded and
+ * otherwise, like questions scoped to specific documents, scored by streaming the relevant
+ * embeddings. Works on any Postgres, no extensions required.
+ */
+@Component
+@ConditionalOnProperty(name = "app.retrieval.backend", havingValue = "jvm", matchIfMissing = true)
+public class InMemoryChunkRetriever implements ChunkRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryChunkRetriever.class);
+
+    private final DocumentChunkRepository documentChunkRepository;
+    private final VectorIndexCache vectorIndexCache;
+    private final HnswIndexService hnswIndexService;
+    private final StreamingChunkScorer streamingChunkScorer;
+    private final ParallelVectorScorer parallelVectorScorer;
+
+    @Value("${app.retrieval.rerank-factor:4}")
+    private int rerankFactor;
+
+    @Value("${app.retrieval.prefilter.candidates:512}")
+    private int prefilterCandidates;
+
+    public InMemoryChunkRetriever(DocumentChunkRepository documentChunkRepository,
+                                  VectorIndexCache vectorIndexCache,
+                                  HnswIndexService hnswIndexService,
+                                  StreamingChunkScorer streamingChunkScorer,
+                                  ParallelVectorScorer parallelVectorScorer) {
+        this.documentChunkRepository = documentChunkRepository;
+        this.vectorIndexCache = vectorIndexCache;
+        this.hnswIndexService = hnswIndexService;
+        this.streamingChunkScorer = streamingChunkScorer;
+        this.parallelVectorScorer = parallelVectorScorer;
+    }
+
+    @Override
+    public Mono<RetrievalResult> findTopK(UUID userId, float[] normalizedQuery, int k, Collection<UUID> documentIds) {
+        if (documentIds != null) {
+            // Scoped questions read only the selected documents' slice through the composite index
+            return findTopKStreamed(userId, normalizedQuery, k, documentIds);
+        }
+        if (vectorIndexCache.isOversized(userId)) {
+            return findTopKPastCache(userId, normalizedQuery, k);
+        }
+        return vectorIndexCache.get(userId)
+                .flatMap(index -> {
+                    if (index.size() == 0) {
+                        return Mono.just(new RetrievalResult(List.of(), 0));
+                    }
+
+                    int candidates = candidates(index.isQuantized(), k);
+                    Mono<List<ScoredChunk>> topMatches;
+                    if (hnswIndexService.shouldUse(index)) {
+                        log.debug("Searching HNSW graph over {} embeddings", index.size());
+                        topMatches = hnswIndexService.search(userId, index, normalizedQuery, candidates)
+                                .switchIfEmpty(Mono.defer(() -> exactScan(userId, index, normalizedQuery, candidates)));
+                    } else if (index.hasSignatures()) {
+                        log.debug("Prefiltering {} embeddings by sign hash", index.size());
+                        topMatches = Mono.just(index.prefilterSearch(normalizedQuery, candidates, prefilterCandidates));
+                    } else {
+                        topMatches = exactScan(userId, index, normalizedQuery, candidates);
+                    }
+                    return topMatches
+                            .flatMap(scored -> rank(scored, index.isQuantized(), normalizedQuery, k, index.size()));
+                })
+                // Empty when the cache found the corpus too large to load
+                .switchIfEmpty(Mono.defer(() -> findTopKPastCache(userId, normalizedQuery, k)));
+    }
+
+    private Mono<RetrievalResult> findTopKPastCache(UUID userId, float[] normalizedQuery, int k) {
+        int candidates = candidates(vectorIndexCache.isQuantized(), k);
+        return hnswIndexService.searchLoaded(userId, normalizedQuery, candidates)
+                .doOnNext(graph -> vectorIndexCache.onStreamed(userId, graph.graphSize()))
+                .flatMap(graph -> rank(graph.matches(), vectorIndexCache.isQuantized(), normalizedQuery, k,
+                        graph.graphSize()))
+                .switchIfEmpty(Mono.defer(() -> findTopKStreamed(userId, normalizedQuery, k, null)));
+    }
+
+    private Mono<List<ScoredChunk>> exactScan(UUID userId, UserVectorIndex index, float[] normalizedQuery,
+                                              int candidates) {
+        if (parallelVectorScorer.shouldUse(index)) {
+            return parallelVectorScorer.search(userId, index, normalizedQuery, candidates);
+        }
+        log.debug("Comparing with {} cached embeddings", index.size());
+        return Mono.just(index.search(normalizedQuery, candidates));
+    }
+
+    /**
+     * Quantized scores are approximate: over-fetch, then rerank at full precision.
+     */
+    private int candidates(boolean quantized, int k) {
+        return quantized ? k * Math.max(rerankFactor, 1) : k;
+    }
+
+    private Mono<RetrievalResult> rank(List<ScoredChunk> scored, boolean quantized, float[] normalizedQuery, int k,
+                                       int searchedChunks) {
+        return loadChunks(scored, quantized)
+                .map(loaded -> {
+                    List<ScoredChunk> ranked = quantized
+                            ? UserVectorIndex.rerank(loaded.scored(), id -> embeddingOf(loaded.chunks().get(id)),
+                                    normalizedQuery, k)
+                            : loaded.scored();
+                    return new RetrievalResult(toMatches(ranked, loaded), searchedChunks);
+                });
+    }
+
+    private Mono<RetrievalResult> findTopKStreamed(UUID userId, float[] normalizedQuery, int k,
+                                                   Collection<UUID> documentIds) {
+        log.debug("Streaming embeddings for user {} ({})", userId, documentIds == null ? "past the cache" : "scoped");
+        return streamingChunkScorer.topK(userId, normalizedQuery, k, documentIds)
+                .doOnNext(streamed -> {
+                    if (documentIds == null) {
+                        vectorIndexCache.onStreamed(userId, streamed.scannedChunks());
+                    }
+                })
+                .flatMap(streamed -> loadChunks(streamed.matches(), false)
+                        .map(loaded -> new RetrievalResult(toMatches(loaded.scored(), loaded), streamed.scannedChunks())));
+    }
+
+    private static List<ChunkWithSimilarityDTO> toMatches(List<ScoredChunk> ranked, LoadedChunks loaded) {
+        return ranked.stream()
+                .filter(match -> loaded.chunks().containsKey(match.chunkId()))
+                .map(match -> new ChunkWithSimilarityDTO(loaded.chunks().get(match.chunkId()), match.similarity()))
+                .toList();
+    }
+
+    @Override
+    public Mono<Void> onEmbeddingsSaved(UUID userId, List<DocumentChunk> chunks) {
+        return Mono.fromRunnable(() -> hnswIndexService.onEmbeddingsCreated(userId, chunks));
+    }
+
+    @Override
+    public void onCorpusChanged(UUID userId) {
+        vectorIndexCache.invalidate(userId);
+        hnswIndexService.onCorpusChanged(userId);
+    }
+
+    /**
+     * Second phase: content for the winners only, plus the full-precision vector when it is
+     * needed for the rerank.
+     */
+    private Mono<LoadedChunks> loadChunks(List<ScoredChunk> scored, boolean withEmbeddings) {
+        if (scored.isEmpty()) {
+            return Mono.just(new LoadedChunks(scored, Map.of()));
+        }
+        List<UUID> ids = scored.stream().map(ScoredChunk::chunkId).toList();
+        return (withEmbeddings
+                        ? documentChunkRepository.findContentWithEmbeddingByIds(ids)
+                        : documentChunkRepository.findContentByIds(ids))
+                .collectMap(DocumentChunk::getId, Function.identity())
+                .map(chunksById -> new LoadedChunks(scored, chunksById));
+    }
+
+    private static float[] embeddingOf(DocumentChunk chunk) {
+        return chunk == null ? null : chunk.getEmbedding();
+    }
+
+    private record LoadedChunks(List<ScoredChunk> scored, Map<UUID, DocumentChunk> chunks) {}
+}
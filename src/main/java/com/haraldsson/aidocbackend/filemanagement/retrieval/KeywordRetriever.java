@@ -0,0 +1,39 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keyword backend used by {@code DocumentService.findRelevantChunks} and hybrid retrieval.
+ * The implementation is selected with {@code app.retrieval.keyword.backend}.
+ */
+public interface KeywordRetriever {
+
+    /**
+     * Returns up to {@code k} chunks matching the question's keywords, best first.
+     */
+    default Mono<List<DocumentChunk>> search(UUID userId, String question, int k) {
+        return search(userId, question, k, null);
+    }
+
+    /**
+     * Like {@link #search(UUID, String, int)}, restricted to chunks of the given documents.
+     * A null collection searches the whole corpus.
+     */
+    Mono<List<DocumentChunk>> search(UUID userId, String question, int k, Collection<UUID> documentIds);
+
+    /**
+     * Called after new chunks have been saved and existing chunks were rewritten in place.
+     * A chunk id that is already indexed replaces its earlier entry.
+     */
+    void onChunksSaved(UUID userId, List<DocumentChunk> chunks);
+
+    /**
+     * Called after documents were added, replaced or deleted for the user.
+     */
+    void onCorpusChanged(UUID userId);
+}
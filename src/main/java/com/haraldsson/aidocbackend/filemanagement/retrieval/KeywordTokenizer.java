@@ -0,0 +1,74 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits text into lower-case terms for keyword search. Any run of letters or digits is a
+ * term, so Swedish letters stay inside words, and common Swedish and English function words
+ * are dropped. Questions and chunk content go through the same tokenizer, and the Postgres
+ * keyword index (V13) splits content on the same runs.
+ */
+public final class KeywordTokenizer {
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private static final Set<String> STOPWORDS = Set.copyOf(List.of(
+            // English
+            "a", "about", "above", "after", "again", "all", "am", "an", "and", "any", "are", "as", "at",
+            "be", "because", "been", "before", "being", "below", "between", "both", "but", "by",
+            "can", "could", "did", "do", "does", "doing", "down", "during", "each", "few", "for", "from",
+            "further", "had", "has", "have", "having", "he", "her", "here", "hers", "him", "his", "how",
+            "i", "if", "in", "into", "is", "it", "its", "itself", "just", "me", "more", "most", "my",
+            "no", "nor", "not", "of", "off", "on", "once", "only", "or", "other", "our", "ours", "out",
+            "over", "own", "same", "she", "should", "so", "some", "such", "than", "that", "the", "their",
+            "them", "then", "there", "these", "they", "this", "those", "through", "to", "too", "under",
+            "until", "up", "very", "was", "we", "were", "what", "when", "where", "which", "while", "who",
+            "whom", "why", "will", "with", "would", "you", "your", "yours",
+            // Swedish
+            "alla", "allt", "att", "av", "blev", "bli", "blir", "blivit", "de", "dem", "den", "denna",
+            "deras", "dess", "dessa", "det", "detta", "dig", "din", "dina", "ditt", "du", "där", "då",
+            "efter", "ej", "eller", "en", "er", "era", "ert", "ett", "från", "för", "ha", "hade", "han",
+            "hans", "har", "henne", "hennes", "hon", "honom", "hur", "här", "icke", "ingen", "inom",
+            "inte", "jag", "ju", "kan", "kunde", "man", "med", "mellan", "men", "mig", "min", "mina",
+            "mitt", "mot", "mycket", "ni", "nu", "när", "någon", "något", "några", "och", "om", "oss",
+            "på", "samma", "sedan", "sig", "sin", "sina", "sitta", "själv", "skulle", "som", "så",
+            "sådan", "till", "under", "upp", "ut", "utan", "vad", "var", "vara", "varför", "varit",
+            "varje", "vars", "vart", "vem", "vi", "vid", "vilka", "vilkas", "vilken", "vilket", "vår",
+            "våra", "vårt", "än", "är", "åt", "över"));
+
+    private KeywordTokenizer() {}
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (!term.isEmpty()) {
+                emit(term, terms);
+            }
+        }
+        emit(term, terms);
+        return terms;
+    }
+
+    private static void emit(StringBuilder term, List<String> terms) {
+        int length = term.length();
+        if (length >= MIN_TERM_LENGTH && length <= MAX_TERM_LENGTH) {
+            String value = term.toString();
+            if (!STOPWORDS.contains(value)) {
+                terms.add(value);
+            }
+        }
+        term.setLength(0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact scoring for very large cached corpora, split into row ranges scored on a dedicated
+ * ForkJoin pool. Each partition keeps its own top k and the partial heaps are merged.
+ *
+ * <p>A single question uses at most {@code max-partitions-per-query} workers, and a user who
+ * already has a parallel scan running gets one partition, so one huge corpus cannot take
+ * every core. Scoring also leaves the thread that delivered the R2DBC results.
+ */
+@Component
+public class ParallelVectorScorer {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelVectorScorer.class);
+
+    private final ForkJoinPool pool;
+    private final Scheduler scheduler;
+    private final Map<UUID, Integer> activeScans = new ConcurrentHashMap<>();
+
+    @Value("${app.retrieval.parallel.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.retrieval.parallel.min-corpus-size:20000}")
+    private int minCorpusSize;
+
+    @Value("${app.retrieval.parallel.min-rows-per-partition:8192}")
+    private int minRowsPerPartition;
+
+    @Value("${app.retrieval.parallel.max-partitions-per-query:4}")
+    private int maxPartitionsPerQuery;
+
+    public ParallelVectorScorer(@Value("${app.retrieval.parallel.threads:0}") int threads) {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger workers = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("vector-scoring-" + workers.incrementAndGet());
+            return thread;
+        }, null, false);
+        this.scheduler = Schedulers.fromExecutorService(pool, "vector-scoring");
+    }
+
+    /**
+     * Only exact full scans over large snapshots are worth the hand-off to the pool.
+     */
+    public boolean shouldUse(UserVectorIndex index) {
+        return enabled && index.size() >= minCorpusSize;
+    }
+
+    public Mono<List<ScoredChunk>> search(UUID userId, UserVectorIndex index, float[] normalizedQuery, int k) {
+        if (normalizedQuery == null || normalizedQuery.length != index.dimensions() || k <= 0) {
+            return Mono.just(List.of());
+        }
+        return Mono.defer(() -> {
+            int partitions = activeScans.merge(userId, 1, Integer::sum) > 1 ? 1 : partitionsFor(index.size());
+            int rowsPerPartition = (index.size() + partitions - 1) / partitions;
+            log.debug("Scoring {} embeddings in {} partitions", index.size(), partitions);
+
+            return Flux.range(0, partitions)
+                    .parallel(partitions)
+                    .runOn(scheduler)
+                    .map(partition -> index.scanRows(normalizedQuery, k,
+                            partition * rowsPerPartition, Math.min(index.size(), (partition + 1) * rowsPerPartition)))
+                    .sequential()
+                    .reduce((merged, partial) -> {
+                        merged.addAll(partial);
+                        return merged;
+                    })
+                    .map(index::toScoredChunks)
+                    .doFinally(signal -> activeScans.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null));
+        });
+    }
+
+    private int partitionsFor(int rows) {
+        int bySize = Math.max(1, rows / Math.max(minRowsPerPartition, 1));
+        return Math.max(1, Math.min(Math.min(maxPartitionsPerQuery, pool.getParallelism()), bySize));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.dispose();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,174 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.dto.ChunkWithSimilarityDTO;
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
+import com.haraldsson.aidocbackend.filemanagement.utils.UuidKeyset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes nearest-neighbour search into Postgres with the pgvector extension: the database
+ * orders by cosine distance on the indexed {@code embedding_vector} column and only the
+ * top-k rows leave it. Requires migration V11 to have found the extension.
+ *
+ * <p>The ANN index spans every user and the user filter is applied to what the index scan
+ * returns, so a user holding a small share of the table can get few or no rows from it.
+ * Scopes of up to {@code exact-max-chunks} vectors are therefore ranked exactly, larger ones
+ * search the index with a raised {@code hnsw.ef_search} and fall back to the exact ranking
+ * when the filtered result still comes up short of k.
+ */
+@Component
+@ConditionalOnProperty(name = "app.retrieval.backend", havingValue = "pgvector")
+public class PgVectorChunkRetriever implements ChunkRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(PgVectorChunkRetriever.class);
+    // pgvector rejects hnsw.ef_search above 1000
+    private static final int MAX_EF_SEARCH = 1000;
+
+    private final DocumentChunkRepository documentChunkRepository;
+    private final DocumentChunkHelper documentChunkHelper;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+
+    @Value("${app.embedding.backfill.batch-size:200}")
+    private int backfillBatchSize;
+
+    @Value("${app.retrieval.pgvector.exact-max-chunks:10000}")
+    private int exactMaxChunks;
+
+    @Value("${app.retrieval.pgvector.ef-search:400}")
+    private int efSearch;
+
+    public PgVectorChunkRetriever(DocumentChunkRepository documentChunkRepository,
+                                  DocumentChunkHelper documentChunkHelper,
+                                  DatabaseClient databaseClient,
+                                  TransactionalOperator transactionalOperator) {
+        this.documentChunkRepository = documentChunkRepository;
+        this.documentChunkHelper = documentChunkHelper;
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    @Override
+    public Mono<RetrievalResult> findTopK(UUID userId, float[] normalizedQuery, int k, Collection<UUID> documentIds) {
+        String queryVector = toVectorLiteral(normalizedQuery);
+        Mono<Long> scopeSize = documentIds == null
+                ? documentChunkRepository.countVectorsByUserIdUpTo(userId, exactMaxChunks)
+                : documentChunkRepository.countVectorsInDocumentsUpTo(userId, documentIds, exactMaxChunks);
+        return scopeSize
+                .flatMap(count -> {
+                    if (count < exactMaxChunks) {
+                        return exact(userId, documentIds, queryVector, k);
+                    }
+                    return approximate(userId, documentIds, queryVector, k)
+                            .flatMap(found -> {
+                                if (found.size() >= k) {
+                                    return Mono.just(found);
+                                }
+                                log.debug("ANN search returned {} of {} rows for user {}, ranking exactly",
+                                        found.size(), k, userId);
+                                return exact(userId, documentIds, queryVector, k);
+                            });
+                })
+                .map(nearest -> nearest.stream()
+                        .map(chunk -> new ChunkWithSimilarityDTO(chunk,
+                                documentChunkHelper.normalizedSimilarity(normalizedQuery, chunk.getEmbedding())))
+                        .toList())
+                .map(matches -> new RetrievalResult(matches, -1));
+    }
+
+    private Mono<List<DocumentChunk>> exact(UUID userId, Collection<UUID> documentIds, String queryVector, int k) {
+        return (documentIds == null
+                        ? documentChunkRepository.findNearestByUserIdWithPgVectorExact(userId, queryVector, k)
+                        : documentChunkRepository.findNearestInDocumentsWithPgVectorExact(userId, documentIds, queryVector, k))
+                .collectList();
+    }
+
+    /**
+     * Index search with a wider candidate list. {@code SET LOCAL} only lasts for the
+     * transaction, so the setting never leaks to other users of the pooled connection.
+     */
+    private Mono<List<DocumentChunk>> approximate(UUID userId, Collection<UUID> documentIds, String queryVector, int k) {
+        int ef = Math.min(MAX_EF_SEARCH, Math.max(efSearch, k));
+        Flux<DocumentChunk> nearest = documentIds == null
+                ? documentChunkRepository.findNearestByUserIdWithPgVector(userId, queryVector, k)
+                : documentChunkRepository.findNearestInDocumentsWithPgVector(userId, documentIds, queryVector, k);
+        return transactionalOperator.transactional(databaseClient.sql("SET LOCAL hnsw.ef_search = " + ef)
+                        .then()
+                        .thenMany(nearest))
+                .collectList();
+    }
+
+    @Override
+    public Mono<Void> onEmbeddingsSaved(UUID userId, List<DocumentChunk> chunks) {
+        return Flux.fromIterable(chunks)
+                .concatMap(chunk -> documentChunkRepository.updateEmbeddingVector(
+                        chunk.getId(), toVectorLiteral(chunk.getEmbedding())))
+                .then();
+    }
+
+    @Override
+    public void onCorpusChanged(UUID userId) {
+        // Nothing cached in the JVM
+    }
+
+    /**
+     * Fills {@code embedding_vector} for chunks embedded before this backend was enabled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillVectorColumn() {
+        AtomicLong converted = new AtomicLong();
+        backfillFrom(UuidKeyset.FIRST_ID, converted)
+                .subscribe(
+                        v -> { },
+                        e -> log.error("pgvector backfill stopped after {} rows: {}", converted.get(), e.getMessage()),
+                        () -> {
+                            if (converted.get() > 0) {
+                                log.info("pgvector backfill finished, updated {} chunks", converted.get());
+                            }
+                        });
+    }
+
+    private Mono<Void> backfillFrom(UUID afterId, AtomicLong converted) {
+        return documentChunkRepository.findChunksPendingVectorBackfill(afterId, backfillBatchSize)
+                .collectList()
+                .flatMap(batch -> {
+                    if (batch.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    UUID lastId = batch.get(batch.size() - 1).getId();
+                    return Flux.fromIterable(batch)
+                            .filter(chunk -> chunk.getEmbedding() != null)
+                            .concatMap(chunk -> documentChunkRepository.updateEmbeddingVector(
+                                    chunk.getId(), toVectorLiteral(chunk.getEmbedding())))
+                            .doOnNext(converted::addAndGet)
+                            .then(Mono.defer(() -> backfillFrom(lastId, converted)));
+                });
+    }
+
+    static String toVectorLiteral(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 12);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
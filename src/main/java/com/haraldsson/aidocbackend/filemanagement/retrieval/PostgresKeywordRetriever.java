@@ -0,0 +1,64 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs keyword search in Postgres against the tsvector expression index on chunk content
+ * (migration V13). The index lookup touches only matching rows, and only the top-k ranked by
+ * {@code ts_rank} leave the database. The index is maintained by Postgres.
+ *
+ * <p>Terms match the BM25 backend's: the indexed text is split on the same letter and digit
+ * runs as {@link KeywordTokenizer}. Ranking does not: {@code ts_rank} weighs term frequency
+ * without BM25's inverse document frequency or length normalization, so the in-JVM
+ * {@link Bm25IndexService} is the reference ranking and this backend trades some ranking
+ * quality for not holding per-user indexes in memory.
+ */
+@Component
+@ConditionalOnProperty(name = "app.retrieval.keyword.backend", havingValue = "postgres")
+public class PostgresKeywordRetriever implements KeywordRetriever {
+
+    private final DocumentChunkRepository documentChunkRepository;
+
+    public PostgresKeywordRetriever(DocumentChunkRepository documentChunkRepository) {
+        this.documentChunkRepository = documentChunkRepository;
+    }
+
+    @Override
+    public Mono<List<DocumentChunk>> search(UUID userId, String question, int k, Collection<UUID> documentIds) {
+        String query = toOrQuery(KeywordTokenizer.tokenize(question));
+        if (query.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return (documentIds == null
+                        ? documentChunkRepository.findTopByFullText(userId, query, k)
+                        : documentChunkRepository.findTopByFullTextInDocuments(userId, documentIds, query, k))
+                .collectList();
+    }
+
+    @Override
+    public void onChunksSaved(UUID userId, List<DocumentChunk> chunks) {
+        // Covered by the expression index
+    }
+
+    @Override
+    public void onCorpusChanged(UUID userId) {
+        // Nothing cached in the JVM
+    }
+
+    /**
+     * Any keyword may match, like the BM25 backend. Tokens are letters and digits only, so
+     * they are safe to join into {@code to_tsquery} syntax.
+     */
+    static String toOrQuery(List<String> terms) {
+        return String.join(" | ", new LinkedHashSet<>(terms));
+    }
+}
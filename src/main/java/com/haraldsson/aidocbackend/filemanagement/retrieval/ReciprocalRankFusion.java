@@ -0,0 +1,36 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Merges several rankings by summing {@code 1 / (K + rank)} per chunk. Only ranks matter, so
+ * cosine similarities and BM25 scores can be combined without normalizing their scales.
+ */
+public final class ReciprocalRankFusion {
+
+    static final int K = 60;
+
+    private ReciprocalRankFusion() {}
+
+    /**
+     * Returns the {@code limit} best fused chunks, best first. Each ranking is ordered
+     * best first; ties keep the order in which chunks first appeared.
+     */
+    public static List<ScoredChunk> fuse(List<List<UUID>> rankings, int limit) {
+        Map<UUID, Float> fused = new LinkedHashMap<>();
+        for (List<UUID> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                fused.merge(ranking.get(rank), 1f / (K + rank + 1), Float::sum);
+            }
+        }
+        List<ScoredChunk> merged = new ArrayList<>(fused.size());
+        fused.forEach((id, score) -> merged.add(new ScoredChunk(id, score)));
+        merged.sort(Comparator.comparingDouble(ScoredChunk::similarity).reversed());
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+}
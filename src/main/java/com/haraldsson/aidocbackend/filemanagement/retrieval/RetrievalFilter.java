@@ -0,0 +1,40 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Optional restrictions on which of a user's documents a question searches. Empty sets and
+ * null dates mean "no restriction"; the date range is inclusive on both ends.
+ *
+ * @param fileTypes file extensions without the dot, e.g. {@code pdf} or {@code xlsx}
+ */
+public record RetrievalFilter(
+        Set<UUID> documentIds,
+        Set<String> fileTypes,
+        LocalDate uploadedFrom,
+        LocalDate uploadedTo
+) {
+
+    public static final RetrievalFilter NONE = new RetrievalFilter(Set.of(), Set.of(), null, null);
+
+    public RetrievalFilter {
+        documentIds = documentIds == null ? Set.of() : documentIds.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toUnmodifiableSet());
+        fileTypes = fileTypes == null ? Set.of() : fileTypes.stream()
+                .filter(Objects::nonNull)
+                .map(type -> type.strip().toLowerCase(Locale.ROOT))
+                .map(type -> type.startsWith(".") ? type.substring(1) : type)
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    public boolean isEmpty() {
+        return documentIds.isEmpty() && fileTypes.isEmpty() && uploadedFrom == null && uploadedTo == null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.util.Locale;
+
+/**
+ * How {@code /api/ask} finds context: embedding similarity, BM25 keywords, or both fused.
+ */
+public enum RetrievalMode {
+    EMBEDDING,
+    KEYWORD,
+    HYBRID;
+
+    /**
+     * Parses a request value case-insensitively; a missing value keeps the embedding default.
+     */
+    public static RetrievalMode from(String value) {
+        if (value == null || value.isBlank()) {
+            return EMBEDDING;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
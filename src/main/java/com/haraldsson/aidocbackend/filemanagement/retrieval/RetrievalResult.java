@@ -0,0 +1,13 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.dto.ChunkWithSimilarityDTO;
+
+import java.util.List;
+
+/**
+ * @param searchedChunks number of chunks that were compared, or -1 when the backend does not know
+ */
+public record RetrievalResult(
+        List<ChunkWithSimilarityDTO> matches,
+        int searchedChunks
+) {}
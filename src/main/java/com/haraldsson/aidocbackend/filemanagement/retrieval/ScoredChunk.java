@@ -0,0 +1,8 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import java.util.UUID;
+
+public record ScoredChunk(
+        UUID chunkId,
+        float similarity
+) {}
@@ -0,0 +1,49 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+/**
+ * One-bit-per-dimension sign signatures for unit vectors. The Hamming distance between two
+ * signatures tracks the angle between the vectors, so a popcount scan over a few hundred
+ * bytes per chunk is a cheap way to pick candidates for exact scoring.
+ */
+public final class SignHash {
+
+    private SignHash() {}
+
+    public static int words(int dimensions) {
+        return (dimensions + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    public static long[] signature(float[] vector) {
+        long[] signature = new long[words(vector.length)];
+        signInto(vector, 0, vector.length, signature, 0);
+        return signature;
+    }
+
+    /**
+     * Writes the sign bits of {@code source[offset..offset+dimensions)} into {@code target}
+     * starting at word {@code targetOffset}. Bit i is set when component i is positive.
+     */
+    public static void signInto(float[] source, int offset, int dimensions, long[] target, int targetOffset) {
+        for (int i = 0; i < dimensions; i++) {
+            if (source[offset + i] > 0f) {
+                target[targetOffset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    public static void signInto(byte[] source, int offset, int dimensions, long[] target, int targetOffset) {
+        for (int i = 0; i < dimensions; i++) {
+            if (source[offset + i] > 0) {
+                target[targetOffset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    public static int hamming(long[] signatures, int offset, long[] query, int words) {
+        int distance = 0;
+        for (int w = 0; w < words; w++) {
+            distance += Long.bitCount(signatures[offset + w] ^ query[w]);
+        }
+        return distance;
+    }
+}
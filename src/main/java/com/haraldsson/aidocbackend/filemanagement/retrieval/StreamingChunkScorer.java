@@ -0,0 +1,135 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Scores a user's chunks straight off the result stream for corpora too large for
+ * {@link VectorIndexCache}. Rows are fetched in batches of {@code fetch-size} with demand
+ * limited to match, each row is scored as it arrives into a {@link TopKSelector}, and only
+ * the ids of the k best rows are retained, so memory per question is O(k) instead of
+ * O(corpus) and nothing is allocated per row beyond its decoded vector. Content is never
+ * read here; the winners are loaded afterwards. A row whose legacy JSON cannot be parsed
+ * is skipped rather than failing the question.
+ */
+@Component
+public class StreamingChunkScorer {
+
+    private static final String EMBEDDINGS_BY_USER =
+            "SELECT id, embedding_bin, CASE WHEN embedding_bin IS NULL THEN embedding_json END AS embedding_json " +
+            "FROM document_chunks WHERE user_id = :userId " +
+            "AND (embedding_bin IS NOT NULL OR embedding_json IS NOT NULL)";
+    private static final String DOCUMENT_SCOPE = " AND document_id IN (:documentIds)";
+
+    private final DatabaseClient databaseClient;
+
+    @Value("${app.retrieval.stream.fetch-size:256}")
+    private int fetchSize;
+
+    public StreamingChunkScorer(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Mono<StreamedTopK> topK(UUID userId, float[] normalizedQuery, int k) {
+        return topK(userId, normalizedQuery, k, null);
+    }
+
+    /**
+     * Scores only chunks of the given documents when {@code documentIds} is not null.
+     */
+    public Mono<StreamedTopK> topK(UUID userId, float[] normalizedQuery, int k, Collection<UUID> documentIds) {
+        int batch = Math.max(fetchSize, 1);
+        DatabaseClient.GenericExecuteSpec query = documentIds == null
+                ? databaseClient.sql(EMBEDDINGS_BY_USER).bind("userId", userId)
+                : databaseClient.sql(EMBEDDINGS_BY_USER + DOCUMENT_SCOPE)
+                        .bind("userId", userId)
+                        .bind("documentIds", documentIds);
+        return Mono.defer(() -> {
+            BestRows best = new BestRows(k);
+            return query
+                    .filter(statement -> statement.fetchSize(batch))
+                    .map((row, metadata) -> best.offer(row.get("id", UUID.class), score(row, normalizedQuery)))
+                    .all()
+                    .limitRate(batch)
+                    .then(Mono.fromSupplier(best::result));
+        });
+    }
+
+    static float score(Row row, float[] normalizedQuery) {
+        byte[] packed = row.get("embedding_bin", byte[].class);
+        float[] embedding;
+        if (packed != null) {
+            embedding = EmbeddingCodec.decode(packed);
+        } else {
+            try {
+                embedding = EmbeddingCodec.normalize(EmbeddingCodec.parseJson(row.get("embedding_json", String.class)));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                return Float.NEGATIVE_INFINITY;
+            }
+        }
+        if (embedding == null || embedding.length != normalizedQuery.length) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        return VectorMath.dot(embedding, normalizedQuery);
+    }
+
+    /**
+     * @param scannedChunks rows compared, including ones that did not make the top k
+     */
+    public record StreamedTopK(List<ScoredChunk> matches, int scannedChunks) {}
+
+    /**
+     * The selector's rows are slots in {@code ids}; a row that displaces the current k-th best
+     * takes over its slot, so ids outside the top k are never kept.
+     */
+    static final class BestRows {
+        private final TopKSelector selector;
+        private final UUID[] ids;
+        private int scanned = 0;
+
+        BestRows(int k) {
+            this.selector = new TopKSelector(k);
+            this.ids = new UUID[Math.max(k, 0)];
+        }
+
+        /**
+         * @return whether the row was kept; a constant, so the row mapping allocates nothing
+         */
+        boolean offer(UUID id, float score) {
+            if (score == Float.NEGATIVE_INFINITY || ids.length == 0) {
+                return false;
+            }
+            scanned++;
+            int slot;
+            if (selector.size() < ids.length) {
+                slot = selector.size();
+            } else if (score > selector.threshold()) {
+                slot = selector.thresholdRow();
+            } else {
+                return false;
+            }
+            ids[slot] = id;
+            selector.offer(slot, score);
+            return true;
+        }
+
+        StreamedTopK result() {
+            float[] scores = new float[selector.size()];
+            int[] slots = selector.drainDescending(scores);
+            List<ScoredChunk> best = new ArrayList<>(slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                best.add(new ScoredChunk(ids[slots[i]], scores[i]));
+            }
+            return new StreamedTopK(best, scanned);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+/**
+ * Fixed-capacity min-heap of (row, score) pairs on primitive arrays. Offering a row costs
+ * one comparison against the current k-th best in the common case and allocates nothing,
+ * so scoring N chunks needs O(k) memory instead of one result object per chunk.
+ */
+public class TopKSelector {
+
+    private final int[] rows;
+    private final float[] scores;
+    private int size = 0;
+
+    public TopKSelector(int k) {
+        this.rows = new int[Math.max(k, 0)];
+        this.scores = new float[Math.max(k, 0)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Lowest score currently kept, or negative infinity while the heap is not full.
+     */
+    public float threshold() {
+        return size < rows.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Row holding the lowest kept score, the one the next accepted offer replaces once the
+     * heap is full. Lets callers reuse that row's slot in their own side tables.
+     */
+    public int thresholdRow() {
+        return rows[0];
+    }
+
+    public void offer(int row, float score) {
+        if (rows.length == 0) {
+            return;
+        }
+        if (size < rows.length) {
+            rows[size] = row;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            rows[0] = row;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Merges another selector's contents into this one.
+     */
+    public void addAll(TopKSelector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * Empties the heap and returns the kept rows ordered best first; the matching
+     * scores are written into {@code scoresOut}, which must hold at least {@link #size()} values.
+     */
+    public int[] drainDescending(float[] scoresOut) {
+        int count = size;
+        int[] ordered = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            ordered[i] = rows[0];
+            scoresOut[i] = scores[0];
+            size--;
+            rows[0] = rows[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return ordered;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if (scores[index] <= scores[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,272 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingQuantizer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Immutable snapshot of one user's normalized chunk embeddings, stored row-major in a
+ * single contiguous array. Scoring a question is a dot-product scan over that array
+ * with {@link VectorMath}; the matrix is one primitive object the GC never has to trace.
+ *
+ * <p>In quantized mode the matrix holds int8 values with one scale per row, a quarter of
+ * the float32 footprint. Scores are then approximate, so callers over-fetch candidates and
+ * {@link #rerank rerank} them with the full-precision vectors.
+ *
+ * <p>Optionally the snapshot also keeps a {@link SignHash} signature per row, letting
+ * {@link #prefilterSearch} score only the rows closest in Hamming distance.
+ */
+public class UserVectorIndex {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final long version = VERSIONS.incrementAndGet();
+    private final UUID[] chunkIds;
+    private final int dimensions;
+    private final float[] vectors;
+    private final byte[] quantized;
+    private final float[] scales;
+    private final long[] signatures;
+    private final int signatureWords;
+
+    private UserVectorIndex(UUID[] chunkIds, int dimensions, float[] vectors, byte[] quantized, float[] scales,
+                            boolean withSignatures) {
+        this.chunkIds = chunkIds;
+        this.dimensions = dimensions;
+        this.vectors = vectors;
+        this.quantized = quantized;
+        this.scales = scales;
+        this.signatureWords = SignHash.words(dimensions);
+        this.signatures = withSignatures ? buildSignatures() : null;
+    }
+
+    public static UserVectorIndex build(List<DocumentChunk> chunks) {
+        return build(chunks, false, false);
+    }
+
+    public static UserVectorIndex build(List<DocumentChunk> chunks, boolean quantize) {
+        return build(chunks, quantize, false);
+    }
+
+    public static UserVectorIndex build(List<DocumentChunk> chunks, boolean quantize, boolean withSignatures) {
+        List<DocumentChunk> embedded = new ArrayList<>(chunks.size());
+        int dimensions = 0;
+        for (DocumentChunk chunk : chunks) {
+            int chunkDimensions = quantize && chunk.getEmbeddingInt8() != null
+                    ? EmbeddingQuantizer.dimensions(chunk.getEmbeddingInt8())
+                    : dimensionsOf(chunk.getEmbedding());
+            if (chunkDimensions == 0) {
+                continue;
+            }
+            if (dimensions == 0) {
+                dimensions = chunkDimensions;
+            }
+            if (chunkDimensions == dimensions) {
+                embedded.add(chunk);
+            }
+        }
+
+        UUID[] ids = new UUID[embedded.size()];
+        if (quantize) {
+            byte[] quantized = new byte[embedded.size() * dimensions];
+            float[] scales = new float[embedded.size()];
+            for (int row = 0; row < embedded.size(); row++) {
+                DocumentChunk chunk = embedded.get(row);
+                byte[] packed = chunk.getEmbeddingInt8() != null
+                        ? chunk.getEmbeddingInt8()
+                        : EmbeddingQuantizer.quantize(chunk.getEmbedding());
+                ids[row] = chunk.getId();
+                scales[row] = EmbeddingQuantizer.scale(packed);
+                System.arraycopy(packed, EmbeddingQuantizer.HEADER_BYTES, quantized, row * dimensions, dimensions);
+            }
+            return new UserVectorIndex(ids, dimensions, null, quantized, scales, withSignatures);
+        }
+
+        float[] vectors = new float[embedded.size() * dimensions];
+        for (int row = 0; row < embedded.size(); row++) {
+            DocumentChunk chunk = embedded.get(row);
+            ids[row] = chunk.getId();
+            System.arraycopy(chunk.getEmbedding(), 0, vectors, row * dimensions, dimensions);
+        }
+        return new UserVectorIndex(ids, dimensions, vectors, null, null, withSignatures);
+    }
+
+    private long[] buildSignatures() {
+        long[] built = new long[chunkIds.length * signatureWords];
+        for (int row = 0; row < chunkIds.length; row++) {
+            if (quantized != null) {
+                SignHash.signInto(quantized, row * dimensions, dimensions, built, row * signatureWords);
+            } else {
+                SignHash.signInto(vectors, row * dimensions, dimensions, built, row * signatureWords);
+            }
+        }
+        return built;
+    }
+
+    private static int dimensionsOf(float[] embedding) {
+        return embedding == null ? 0 : embedding.length;
+    }
+
+    public int size() {
+        return chunkIds.length;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public boolean isQuantized() {
+        return quantized != null;
+    }
+
+    public boolean hasSignatures() {
+        return signatures != null;
+    }
+
+    public long sizeInBytes() {
+        long perRow = rowBytes(dimensions, isQuantized());
+        if (hasSignatures()) {
+            perRow += (long) signatureWords * Long.BYTES;
+        }
+        return chunkIds.length * perRow;
+    }
+
+    /**
+     * Bytes one row of a snapshot without signatures takes, for sizing a corpus before loading it.
+     */
+    public static long rowBytes(int dimensions, boolean quantized) {
+        return (quantized ? dimensions + Float.BYTES : (long) dimensions * Float.BYTES) + 32;
+    }
+
+    /**
+     * Unique per snapshot, so consumers can tell whether they have already seen this data.
+     */
+    public long version() {
+        return version;
+    }
+
+    public UUID chunkId(int row) {
+        return chunkIds[row];
+    }
+
+    /**
+     * Returns a copy of the row, dequantized in quantized mode.
+     */
+    public float[] vector(int row) {
+        float[] vector = new float[dimensions];
+        if (isQuantized()) {
+            int offset = row * dimensions;
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = quantized[offset + i] * scales[row];
+            }
+        } else {
+            System.arraycopy(vectors, row * dimensions, vector, 0, dimensions);
+        }
+        return vector;
+    }
+
+    /**
+     * Returns the row's int8 codes in the {@link EmbeddingQuantizer} layout; quantized mode only.
+     */
+    public byte[] quantizedRow(int row) {
+        if (!isQuantized()) {
+            throw new IllegalStateException("Snapshot holds float vectors");
+        }
+        return EmbeddingQuantizer.pack(scales[row], quantized, row * dimensions, dimensions);
+    }
+
+    public float dot(int row, float[] query) {
+        return isQuantized()
+                ? VectorMath.dotInt8(quantized, row * dimensions, query, dimensions) * scales[row]
+                : VectorMath.dot(vectors, row * dimensions, query, 0, dimensions);
+    }
+
+    /**
+     * Returns the {@code k} best matches for a unit-length query, best first.
+     */
+    public List<ScoredChunk> search(float[] normalizedQuery, int k) {
+        if (normalizedQuery == null || normalizedQuery.length != dimensions || k <= 0) {
+            return List.of();
+        }
+
+        return toScoredChunks(scanRows(normalizedQuery, k, 0, chunkIds.length));
+    }
+
+    /**
+     * Exact top {@code k} over rows {@code [fromRow, toRow)}. Selectors from disjoint ranges
+     * hold global row numbers, so they can be merged with {@link TopKSelector#addAll}.
+     */
+    TopKSelector scanRows(float[] normalizedQuery, int k, int fromRow, int toRow) {
+        TopKSelector best = new TopKSelector(k);
+        if (isQuantized()) {
+            for (int row = fromRow, offset = fromRow * dimensions; row < toRow; row++, offset += dimensions) {
+                best.offer(row, VectorMath.dotInt8(quantized, offset, normalizedQuery, dimensions) * scales[row]);
+            }
+        } else {
+            for (int row = fromRow, offset = fromRow * dimensions; row < toRow; row++, offset += dimensions) {
+                best.offer(row, VectorMath.dot(vectors, offset, normalizedQuery, 0, dimensions));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Two-stage search: ranks every row by Hamming distance between sign signatures, then
+     * scores only the {@code candidates} nearest rows exactly. Falls back to a full scan when
+     * the snapshot has no signatures or the corpus is not larger than the candidate pool.
+     */
+    public List<ScoredChunk> prefilterSearch(float[] normalizedQuery, int k, int candidates) {
+        if (!hasSignatures() || chunkIds.length <= Math.max(candidates, k)) {
+            return search(normalizedQuery, k);
+        }
+        if (normalizedQuery == null || normalizedQuery.length != dimensions || k <= 0) {
+            return List.of();
+        }
+
+        long[] querySignature = SignHash.signature(normalizedQuery);
+        TopKSelector nearest = new TopKSelector(Math.max(candidates, k));
+        for (int row = 0, offset = 0; row < chunkIds.length; row++, offset += signatureWords) {
+            nearest.offer(row, -SignHash.hamming(signatures, offset, querySignature, signatureWords));
+        }
+
+        int[] survivors = nearest.drainDescending(new float[nearest.size()]);
+        TopKSelector best = new TopKSelector(k);
+        for (int row : survivors) {
+            best.offer(row, dot(row, normalizedQuery));
+        }
+        return toScoredChunks(best);
+    }
+
+    /**
+     * Rescores approximate candidates with full-precision vectors and keeps the best {@code k}.
+     * Candidates whose vector is no longer available are dropped.
+     */
+    public static List<ScoredChunk> rerank(List<ScoredChunk> candidates, Function<UUID, float[]> fullPrecision,
+                                           float[] normalizedQuery, int k) {
+        List<ScoredChunk> rescored = new ArrayList<>(candidates.size());
+        for (ScoredChunk candidate : candidates) {
+            float[] vector = fullPrecision.apply(candidate.chunkId());
+            if (vector != null && vector.length == normalizedQuery.length) {
+                rescored.add(new ScoredChunk(candidate.chunkId(), VectorMath.dot(vector, normalizedQuery)));
+            }
+        }
+        rescored.sort(Comparator.comparingDouble(ScoredChunk::similarity).reversed());
+        return rescored.size() > k ? rescored.subList(0, k) : rescored;
+    }
+
+    List<ScoredChunk> toScoredChunks(TopKSelector selector) {
+        float[] scores = new float[selector.size()];
+        int[] rows = selector.drainDescending(scores);
+        List<ScoredChunk> result = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            result.add(new ScoredChunk(chunkIds[rows[i]], scores[i]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,188 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-user cache of {@link UserVectorIndex} snapshots with LRU eviction bounded by the
+ * total size of the cached matrices. A warm question costs a dot-product scan instead of
+ * a full read of the user's chunks. Entries are dropped whenever the user's documents change.
+ *
+ * <p>Users whose matrix alone exceeds the budget are remembered as oversized; their questions
+ * go to the HNSW graph or {@link StreamingChunkScorer} instead of rebuilding the matrix every
+ * time. The rows are counted before loading, so an oversized matrix is not read only to be
+ * thrown away. The mark survives uploads and is cleared once a scan shows the corpus fits again.
+ */
+@Component
+public class VectorIndexCache {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorIndexCache.class);
+
+    private final DocumentChunkRepository documentChunkRepository;
+    private final LinkedHashMap<UUID, UserVectorIndex> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<UUID, Long> generations = new ConcurrentHashMap<>();
+    private final Map<UUID, Mono<UserVectorIndex>> inFlight = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> oversizedRowBytes = new ConcurrentHashMap<>();
+    private volatile long observedRowBytes = 0;
+    private long totalBytes = 0;
+
+    @Value("${app.retrieval.cache.max-bytes:134217728}")
+    private long maxBytes;
+
+    @Value("${app.retrieval.quantization:none}")
+    private String quantization;
+
+    @Value("${app.retrieval.prefilter:none}")
+    private String prefilter;
+
+    // Sizes corpora until a loaded snapshot shows the real row size
+    @Value("${app.retrieval.cache.assumed-dimensions:1536}")
+    private int assumedDimensions;
+
+    public VectorIndexCache(DocumentChunkRepository documentChunkRepository) {
+        this.documentChunkRepository = documentChunkRepository;
+    }
+
+    public Mono<UserVectorIndex> get(UUID userId) {
+        UserVectorIndex cached = lookup(userId);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return inFlight.computeIfAbsent(userId, this::load);
+    }
+
+    public boolean isOversized(UUID userId) {
+        return oversizedRowBytes.containsKey(userId);
+    }
+
+    /**
+     * Called with the number of rows a streamed scan or graph search covered; once the corpus
+     * would fit again the next question rebuilds the cached matrix.
+     */
+    public void onStreamed(UUID userId, int rows) {
+        Long rowBytes = oversizedRowBytes.get(userId);
+        if (rowBytes != null && rows * rowBytes <= maxBytes) {
+            oversizedRowBytes.remove(userId);
+        }
+    }
+
+    public boolean isQuantized() {
+        return "int8".equalsIgnoreCase(quantization);
+    }
+
+    public boolean isSignHashPrefilter() {
+        return "sign-hash".equalsIgnoreCase(prefilter);
+    }
+
+    public void invalidate(UUID userId) {
+        generations.merge(userId, 1L, Long::sum);
+        inFlight.remove(userId);
+        synchronized (entries) {
+            UserVectorIndex removed = entries.remove(userId);
+            if (removed != null) {
+                totalBytes -= removed.sizeInBytes();
+                log.debug("Invalidated vector index for user {}", userId);
+            }
+        }
+    }
+
+    private UserVectorIndex lookup(UUID userId) {
+        synchronized (entries) {
+            return entries.get(userId);
+        }
+    }
+
+    /**
+     * Completes empty when the count already shows the matrix cannot fit; the user is then
+     * marked oversized without reading any vectors.
+     */
+    private Mono<UserVectorIndex> load(UUID userId) {
+        long generation = generations.getOrDefault(userId, 0L);
+        long rowBytes = estimatedRowBytes();
+        int limit = (int) Math.min(Integer.MAX_VALUE, maxBytes / rowBytes + 1);
+        AtomicReference<Mono<UserVectorIndex>> self = new AtomicReference<>();
+        Mono<UserVectorIndex> loading = documentChunkRepository.countEmbeddedByUserIdUpTo(userId, limit)
+                .filter(rows -> {
+                    if (rows * rowBytes <= maxBytes) {
+                        return true;
+                    }
+                    log.info("User {} has at least {} embeddings, over the cache budget; switching to streamed scoring",
+                            userId, rows);
+                    if (generations.getOrDefault(userId, 0L) == generation) {
+                        oversizedRowBytes.put(userId, rowBytes);
+                    }
+                    return false;
+                })
+                .flatMap(rows -> loadVectors(userId))
+                .doOnNext(index -> {
+                    log.debug("Loaded vector index for user {}: {} vectors, {} bytes",
+                            userId, index.size(), index.sizeInBytes());
+                    if (generations.getOrDefault(userId, 0L) == generation) {
+                        store(userId, index);
+                    }
+                })
+                // An invalidation may already have replaced this load with a newer one
+                .doFinally(signal -> inFlight.remove(userId, self.get()))
+                .cache();
+        self.set(loading);
+        return loading;
+    }
+
+    private Mono<UserVectorIndex> loadVectors(UUID userId) {
+        // Scoring needs only ids and vectors; content is fetched for the winners afterwards
+        Flux<DocumentChunk> vectors = isQuantized()
+                ? documentChunkRepository.findQuantizedEmbeddingsByUserId(userId)
+                : documentChunkRepository.findEmbeddingsByUserId(userId);
+        return vectors
+                .collectList()
+                .map(chunks -> UserVectorIndex.build(chunks, isQuantized(), isSignHashPrefilter()));
+    }
+
+    private long estimatedRowBytes() {
+        long observed = observedRowBytes;
+        return observed > 0 ? observed : UserVectorIndex.rowBytes(assumedDimensions, isQuantized());
+    }
+
+    private void store(UUID userId, UserVectorIndex index) {
+        if (index.size() > 0) {
+            observedRowBytes = index.sizeInBytes() / index.size();
+        }
+        if (index.sizeInBytes() > maxBytes) {
+            log.info("Vector index for user {} ({} bytes) exceeds cache budget, switching to streamed scoring",
+                    userId, index.sizeInBytes());
+            oversizedRowBytes.put(userId, index.sizeInBytes() / Math.max(index.size(), 1));
+            return;
+        }
+        synchronized (entries) {
+            UserVectorIndex previous = entries.put(userId, index);
+            if (previous != null) {
+                totalBytes -= previous.sizeInBytes();
+            }
+            totalBytes += index.sizeInBytes();
+
+            Iterator<Map.Entry<UUID, UserVectorIndex>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<UUID, UserVectorIndex> entry = eldest.next();
+                if (entry.getKey().equals(userId)) {
+                    continue;
+                }
+                totalBytes -= entry.getValue().sizeInBytes();
+                eldest.remove();
+                log.debug("Evicted vector index for user {}", entry.getKey());
+            }
+        }
+    }
+}
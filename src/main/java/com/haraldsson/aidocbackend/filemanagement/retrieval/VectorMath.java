@@ -0,0 +1,91 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dot-product kernel shared by all in-JVM scorers. Uses the {@code jdk.incubator.vector} API
+ * when the JVM was started with {@code --add-modules jdk.incubator.vector}, otherwise a scalar
+ * loop with independent accumulators so the JIT can still pipeline the multiplies.
+ *
+ * <p>Embeddings are stored unit-length, so cosine similarity is a single dot product and
+ * norms never need to be recomputed per comparison.
+ */
+public final class VectorMath {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorMath.class);
+    private static final boolean SIMD = detectSimd();
+
+    private VectorMath() {
+    }
+
+    public static boolean simdEnabled() {
+        return SIMD;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Dot product of {@code a[aOffset..aOffset+length)} and {@code b[bOffset..bOffset+length)}.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return SIMD
+                ? SimdKernel.dot(a, aOffset, b, bOffset, length)
+                : scalarDot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Dot product of int8 values {@code a[aOffset..aOffset+length)} with a float query, before
+     * the row's scale is applied. Scalar only: the win of the quantized tier is reading a
+     * quarter of the bytes, and the incubator API has no portable byte-to-float widening load.
+     */
+    public static float dotInt8(byte[] a, int aOffset, float[] b, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[i];
+            s1 += a[aOffset + i + 1] * b[i + 1];
+            s2 += a[aOffset + i + 2] * b[i + 2];
+            s3 += a[aOffset + i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static boolean detectSimd() {
+        if (Boolean.getBoolean("app.retrieval.simd.disabled")
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("Vector API not available, using scalar dot-product kernel");
+            return false;
+        }
+        try {
+            SimdKernel.dot(new float[16], 0, new float[16], 0, 16);
+            log.info("Using Vector API dot-product kernel ({} lanes)", SimdKernel.lanes());
+            return true;
+        } catch (Throwable e) {
+            log.warn("Vector API unusable, using scalar kernel: {}", e.toString());
+            return false;
+        }
+    }
+}
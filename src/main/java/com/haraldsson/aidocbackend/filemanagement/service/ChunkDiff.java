@@ -0,0 +1,89 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.ContentHash;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Difference between a document's stored chunks and a fresh chunking of its new text. A new
+ * chunk whose content hash matches a stored chunk takes over that row and its embedding;
+ * duplicates are matched one to one, in order.
+ *
+ * @param inserted new rows to save and embed
+ * @param moved    reused rows whose text, position or hash must be updated
+ * @param reembed  reused rows that never got an embedding
+ * @param removed  ids of stored rows without a match
+ */
+record ChunkDiff(List<DocumentChunk> inserted, List<DocumentChunk> moved,
+                 List<DocumentChunk> reembed, List<UUID> removed) {
+
+    private static final Pattern SLIDE_HEADER = Pattern.compile("^--- SLIDE \\d+ ---\\s*");
+
+    static ChunkDiff compute(List<DocumentChunk> chunks, List<DocumentChunk> previous) {
+        Map<String, Deque<DocumentChunk>> reusable = new HashMap<>();
+        for (DocumentChunk chunk : previous) {
+            String hash = chunk.getContentHash() != null ? chunk.getContentHash() : hashOf(chunk.getContent());
+            reusable.computeIfAbsent(hash, h -> new ArrayDeque<>()).add(chunk);
+        }
+
+        List<DocumentChunk> inserted = new ArrayList<>();
+        List<DocumentChunk> moved = new ArrayList<>();
+        List<DocumentChunk> reembed = new ArrayList<>();
+        for (DocumentChunk chunk : chunks) {
+            if (chunk.getContentHash() == null) {
+                chunk.setContentHash(hashOf(chunk.getContent()));
+            }
+            Deque<DocumentChunk> matches = reusable.get(chunk.getContentHash());
+            DocumentChunk existing = matches != null ? matches.pollFirst() : null;
+            if (existing == null) {
+                inserted.add(chunk);
+                continue;
+            }
+            if (existing.getChunkNumber() != chunk.getChunkNumber()
+                    || existing.getStartIndex() != chunk.getStartIndex()
+                    || existing.getEndIndex() != chunk.getEndIndex()
+                    || !Objects.equals(existing.getPageStart(), chunk.getPageStart())
+                    || !Objects.equals(existing.getPageEnd(), chunk.getPageEnd())
+                    || !chunk.getContentHash().equals(existing.getContentHash())
+                    || !chunk.getContent().equals(existing.getContent())) {
+                existing.setContent(chunk.getContent());
+                existing.setContentHash(chunk.getContentHash());
+                existing.setChunkNumber(chunk.getChunkNumber());
+                existing.setStartIndex(chunk.getStartIndex());
+                existing.setEndIndex(chunk.getEndIndex());
+                existing.setPageStart(chunk.getPageStart());
+                existing.setPageEnd(chunk.getPageEnd());
+                moved.add(existing);
+            }
+            if (!existing.hasEmbedding()) {
+                reembed.add(existing);
+            }
+        }
+        List<UUID> removed = reusable.values().stream()
+                .flatMap(Deque::stream)
+                .map(DocumentChunk::getId)
+                .toList();
+        return new ChunkDiff(inserted, moved, reembed, removed);
+    }
+
+    /**
+     * Slide numbers are left out of the hash, so inserting or removing a slide does not make
+     * every later slide look new; the stored text still gets the new number.
+     */
+    static String hashOf(String content) {
+        return ContentHash.sha256(SLIDE_HEADER.matcher(content).replaceFirst(""));
+    }
+
+    int unchanged(int total) {
+        return total - inserted.size() - moved.size();
+    }
+}
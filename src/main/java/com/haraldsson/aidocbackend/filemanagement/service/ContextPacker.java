@@ -0,0 +1,157 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.TokenCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Turns ranked chunks into prompt context that fits a token budget. Neighbouring chunks of
+ * the same document whose character ranges overlap (PDF chunks share 200 characters) are
+ * merged so the overlap is sent once. Whole segments are taken in rank order; a segment is
+ * only cut, on a token boundary, when not even the best one fits.
+ */
+@Component
+public class ContextPacker {
+
+    private static final Logger log = LoggerFactory.getLogger(ContextPacker.class);
+
+    @Value("${app.ai.context-tokens:3500}")
+    private int contextTokens;
+
+    public String pack(String header, List<DocumentChunk> ranked) {
+        return pack(header, ranked, Map.of());
+    }
+
+    /**
+     * @param relevance optional similarity per chunk id, shown in the segment label
+     */
+    public String pack(String header, List<DocumentChunk> ranked, Map<UUID, Float> relevance) {
+        StringBuilder context = new StringBuilder(header);
+        int remaining = contextTokens - TokenCounter.count(header);
+        int packed = 0;
+        List<Segment> segments = merge(ranked, relevance);
+        for (Segment segment : segments) {
+            String text = segment.format();
+            int tokens = TokenCounter.count(text);
+            if (tokens <= remaining) {
+                context.append(text);
+                remaining -= tokens;
+                packed++;
+            }
+        }
+        if (packed == 0 && !segments.isEmpty() && remaining > 0) {
+            Segment best = segments.get(0);
+            String label = best.label();
+            context.append(label)
+                    .append(TokenCounter.truncate(best.content, remaining - TokenCounter.count(label)))
+                    .append("\n\n");
+            packed = 1;
+        }
+        log.debug("Packed {} of {} segments ({} chunks) into {} context tokens, {} left",
+                packed, segments.size(), ranked.size(), contextTokens, Math.max(remaining, 0));
+        return context.toString();
+    }
+
+    /**
+     * Groups chunks into runs of consecutive, overlapping chunks per document and orders the
+     * runs by the best rank among their members.
+     */
+    static List<Segment> merge(List<DocumentChunk> ranked, Map<UUID, Float> relevance) {
+        Map<UUID, Integer> rankById = new HashMap<>();
+        Map<UUID, DocumentChunk> unique = new LinkedHashMap<>();
+        for (DocumentChunk chunk : ranked) {
+            if (unique.putIfAbsent(chunk.getId(), chunk) == null) {
+                rankById.put(chunk.getId(), rankById.size());
+            }
+        }
+        List<DocumentChunk> byPosition = new ArrayList<>(unique.values());
+        byPosition.sort(Comparator
+                .comparing((DocumentChunk chunk) -> String.valueOf(chunk.getDocumentId()))
+                .thenComparingInt(DocumentChunk::getChunkNumber));
+
+        List<Segment> segments = new ArrayList<>();
+        Segment current = null;
+        for (DocumentChunk chunk : byPosition) {
+            int rank = rankById.get(chunk.getId());
+            Float similarity = relevance.get(chunk.getId());
+            if (current != null && current.canAppend(chunk)) {
+                current.append(chunk, rank, similarity);
+            } else {
+                current = new Segment(chunk, rank, similarity);
+                segments.add(current);
+            }
+        }
+        segments.sort(Comparator.comparingInt(segment -> segment.rank));
+        return segments;
+    }
+
+    static final class Segment {
+
+        private final UUID documentId;
+        private final String filename;
+        private final int firstChunk;
+        private int lastChunk;
+        private int endIndex;
+        private String content;
+        private int rank;
+        private Float similarity;
+
+        Segment(DocumentChunk chunk, int rank, Float similarity) {
+            this.documentId = chunk.getDocumentId();
+            this.filename = chunk.getFilename();
+            this.firstChunk = chunk.getChunkNumber();
+            this.lastChunk = chunk.getChunkNumber();
+            this.endIndex = chunk.getEndIndex();
+            this.content = chunk.getContent() == null ? "" : chunk.getContent();
+            this.rank = rank;
+            this.similarity = similarity;
+        }
+
+        // Sheet and slide chunks all start at 0, so they never count as overlapping
+        boolean canAppend(DocumentChunk chunk) {
+            return documentId != null
+                    && Objects.equals(documentId, chunk.getDocumentId())
+                    && chunk.getChunkNumber() == lastChunk + 1
+                    && chunk.getStartIndex() > 0
+                    && chunk.getStartIndex() <= endIndex
+                    && chunk.getContent() != null
+                    && chunk.getContent().length() == chunk.getEndIndex() - chunk.getStartIndex()
+                    && endIndex - chunk.getStartIndex() <= chunk.getContent().length();
+        }
+
+        void append(DocumentChunk chunk, int rank, Float similarity) {
+            content = content + chunk.getContent().substring(endIndex - chunk.getStartIndex());
+            lastChunk = chunk.getChunkNumber();
+            endIndex = chunk.getEndIndex();
+            this.rank = Math.min(this.rank, rank);
+            if (similarity != null && (this.similarity == null || similarity > this.similarity)) {
+                this.similarity = similarity;
+            }
+        }
+
+        String label() {
+            StringBuilder label = new StringBuilder("--- ");
+            label.append(firstChunk == lastChunk ? "Chunk " + firstChunk : "Chunks " + firstChunk + "-" + lastChunk);
+            if (similarity != null) {
+                label.append(" (relevance: ").append(String.format("%.3f", similarity)).append(")");
+            }
+            return label.append(" from ").append(filename).append(" ---\n").toString();
+        }
+
+        String format() {
+            return label() + content + "\n\n";
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.repository.CorpusVersionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Per-user counter bumped whenever the user's documents are added, replaced or deleted.
+ * Anything derived from a user's corpus can record the version it was computed at and
+ * treat itself as stale once the version moves on.
+ * <p>
+ * The counter lives in {@code corpus_versions}, so a change made on one node is seen by all.
+ * Each node remembers the last version it saw per user; reading a newer one runs the change
+ * listeners first, so node-local indexes are dropped before they serve the new version.
+ */
+@Component
+public class CorpusVersionTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(CorpusVersionTracker.class);
+
+    private final CorpusVersionRepository repository;
+    private final Map<UUID, Long> seen = new ConcurrentHashMap<>();
+    private final List<Consumer<UUID>> listeners = new CopyOnWriteArrayList<>();
+
+    public CorpusVersionTracker(CorpusVersionRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Registers a callback run with the user id whenever that user's corpus changed, on this
+     * node or another.
+     */
+    public void onChange(Consumer<UUID> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reads the shared version. If the database is unreachable the last version this node
+     * saw is returned, which at worst serves what this node already had.
+     */
+    public Mono<Long> current(UUID userId) {
+        return repository.find(userId)
+                .doOnNext(version -> observe(userId, version, false))
+                .onErrorResume(e -> {
+                    log.warn("Could not read corpus version for user {}: {}", userId, e.getMessage());
+                    return Mono.just(seen.getOrDefault(userId, 0L));
+                });
+    }
+
+    /**
+     * Moves the shared version on and drops this node's derived state. If the bump fails the
+     * local state is still dropped; other nodes then catch up with the next change.
+     */
+    public Mono<Long> bump(UUID userId) {
+        return repository.bump(userId)
+                .doOnNext(version -> observe(userId, version, true))
+                .onErrorResume(e -> {
+                    log.warn("Could not bump corpus version for user {}: {}", userId, e.getMessage());
+                    notifyListeners(userId);
+                    return Mono.empty();
+                });
+    }
+
+    private void observe(UUID userId, long version, boolean changedHere) {
+        Long previous = seen.put(userId, version);
+        // A user this node never saw has nothing derived here yet
+        if (changedHere || (previous != null && previous != version)) {
+            notifyListeners(userId);
+        }
+    }
+
+    private void notifyListeners(UUID userId) {
+        for (Consumer<UUID> listener : listeners) {
+            try {
+                listener.accept(userId);
+            } catch (RuntimeException e) {
+                log.warn("Corpus change listener failed for user {}: {}", userId, e.getMessage());
+            }
+        }
+    }
+}
@@ -7,105 +7,103 @@ import com.haraldsson.aidocbackend.filemanagement.model.Document;
 import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
 import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
 import com.haraldsson.aidocbackend.filemanagement.repository.DocumentRepository;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.ChunkRetriever;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.KeywordRetriever;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.ReciprocalRankFusion;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalResult;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.ScoredChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
 import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
-import com.haraldsson.aidocbackend.user.model.CustomUser;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessResourceFailureException;
-import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
-import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class DocumentService {
 
     private static final Logger log = LoggerFactory.getLogger(DocumentService.class);
+    private static final int HYBRID_CANDIDATES = 20;
 
     private final DocumentRepository documentRepository;
     private final DocumentChunkRepository documentChunkRepository;
     private final EmbeddingService embeddingService;
     private final ExcelProcessorService excelProcessorService;
     private final PowerPointProcessorService powerPointProcessorService;
+    private final PdfProcessorService pdfProcessorService;
     private final DocumentChunkHelper documentChunkHelper;
     private final DatabaseCircuitBreaker circuitBreaker;
+    private final ChunkRetriever chunkRetriever;
+    private final KeywordRetriever keywordRetriever;
+    private final CorpusVersionTracker corpusVersionTracker;
+    private final ContextPacker contextPacker;
 
     public DocumentService(DocumentRepository documentRepository,
                            DocumentChunkRepository documentChunkRepository,
                            EmbeddingService embeddingService,
                            ExcelProcessorService excelProcessorService,
                            PowerPointProcessorService powerPointProcessorService,
-                           DocumentChunkHelper documentChunkHelper, DatabaseCircuitBreaker circuitBreaker) {
+                           PdfProcessorService pdfProcessorService,
+                           DocumentChunkHelper documentChunkHelper, DatabaseCircuitBreaker circuitBreaker,
+                           ChunkRetriever chunkRetriever, KeywordRetriever keywordRetriever,
+                           CorpusVersionTracker corpusVersionTracker, ContextPacker contextPacker) {
         this.documentRepository = documentRepository;
         this.documentChunkRepository = documentChunkRepository;
         this.embeddingService = embeddingService;
         this.excelProcessorService = excelProcessorService;
         this.powerPointProcessorService = powerPointProcessorService;
+        this.pdfProcessorService = pdfProcessorService;
         this.documentChunkHelper = documentChunkHelper;
         this.circuitBreaker = circuitBreaker;
+        this.chunkRetriever = chunkRetriever;
+        this.keywordRetriever = keywordRetriever;
+        this.corpusVersionTracker = corpusVersionTracker;
+        this.contextPacker = contextPacker;
+        corpusVersionTracker.onChange(this::dropDerivedState);
     }
 
 
-    public Mono<Document> processAndSaveFile(FilePart filePart, CustomUser user) {
-        return circuitBreaker.execute(
-                convertFileToText(filePart)
-                        .map(text -> {
-                            String cleanedText = text.replace("\u0000", "")
-                                    .replaceAll("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F\\x7F]", "")
-                                    .replaceAll("\\s+", " ")
-                                    .trim();
-
-                            log.info("Text cleaned: {} -> {} characters", text.length(), cleanedText.length());
-
-                            if (cleanedText.contains("\u0000")) {
-                                log.warn("WARNING: Text still contains null bytes after cleaning!");
-                            }
-
-                            return cleanedText;
-                        })
+    /**
+     * Extracts, chunks and embeds a spooled upload. A file with the same name as an existing
+     * document updates it in place: only chunks whose content changed are inserted and embedded.
+     * Runs inside an ingestion job, so it may be retried after a crash; the diff also picks up
+     * chunks a failed earlier attempt saved without embeddings.
+     */
+    public Mono<Document> ingestFile(UUID userId, String filename, Path file) {
+        return circuitBreaker.execute(changingCorpus(userId,
+                convertFileToText(file, filename)
                         .flatMap(text -> {
-                            return documentRepository.findByUserIdAndFileName(user.getId(), filePart.filename())
+                            return documentRepository.findByUserIdAndFileName(userId, filename)
                                     .collectList()
                                     .flatMap(existingDocs -> {
-                                        if (!existingDocs.isEmpty()) {
-                                            return Flux.fromIterable(existingDocs)
-                                                    .flatMap(oldDoc ->
-                                                            deleteDocumentAndChunks(oldDoc.getId())
-                                                    )
-                                                    .then(
-                                                            saveDocumentWithChunks(filePart, user, text)
-                                                    );
-                                        } else {
-                                            return saveDocumentWithChunks(filePart, user, text);
+                                        if (existingDocs.isEmpty()) {
+                                            return saveDocumentWithChunks(filename, userId, text);
                                         }
+                                        return Flux.fromIterable(existingDocs.subList(1, existingDocs.size()))
+                                                .concatMap(duplicate -> deleteDocumentAndChunks(duplicate.getId()))
+                                                .then(reindexDocument(existingDocs.get(0), text));
                                     });
                         })
-        );
-    }
-
-
-
-    private Mono<Document> processNewFileWithBytes(byte[] fileBytes, FilePart filePart, CustomUser user, String filename) {
-        if (filename.endsWith(".pdf")) {
-            return processPdfBytes(fileBytes, filePart, user);
-        } else if (filename.endsWith(".xlsx") || filename.endsWith(".xls")) {
-            return processExcelBytes(fileBytes, filePart, user);
-        } else if (filename.endsWith(".pptx") || filename.endsWith(".ppt")) {
-            return processPowerPointBytes(fileBytes, filePart, user);
-        } else {
-            return Mono.error(new FileProcessingException(
-                    "Unsupported file type: " + filename));
-        }
+        ));
     }
 
     private Mono<Void> deleteDocumentAndChunks(UUID documentId) {
@@ -115,118 +113,131 @@ public class DocumentService {
                 .doOnError(e -> log.error("Error deleting document {}: {}", documentId, e.getMessage()));
     }
 
+    private Mono<Document> saveDocumentWithChunks(String originalFilename, UUID userId, ExtractedText text) {
+        Document document = new Document(originalFilename, text.text(), userId);
 
-    private Mono<Document> processPdfBytes(byte[] bytes, FilePart filePart, CustomUser user) {
-        return extractTextFromPdf(bytes)
-                .map(documentChunkHelper::cleanTextForDatabase)
-                .flatMap(text -> saveDocumentWithChunks(filePart, user, text));
+        return documentRepository.save(document)
+                .flatMap(savedDoc -> storeChunks(userId,
+                        buildChunks(savedDoc.getId(), userId, originalFilename, text), List.of())
+                        .thenReturn(savedDoc))
+                .doOnSuccess(doc -> log.info("Successfully saved document: {}", doc.getFileName()))
+                .doOnError(e -> log.error("Failed to save document with chunks: {}", e.getMessage(), e));
     }
 
-    private Mono<Document> processExcelBytes(byte[] bytes, FilePart filePart, CustomUser user) {
-        return excelProcessorService.extractTextFromExcel(bytes)
-                .map(documentChunkHelper::cleanTextForDatabase)
-                .flatMap(text -> {
-                    log.info("Excel extracted text: {} characters", text.length());
-                    return saveDocumentWithChunks(filePart, user, text);
-                });
-    }
+    private Mono<Document> reindexDocument(Document document, ExtractedText text) {
+        document.setContent(text.text());
+        document.setCreatedAt(LocalDateTime.now());
 
-    private Mono<Document> processPowerPointBytes(byte[] bytes, FilePart filePart, CustomUser user) {
-        return powerPointProcessorService.extractTextFromPowerPoint(bytes)
-                .map(documentChunkHelper::cleanTextForDatabase)
-                .flatMap(text -> {
-                    log.info("PowerPoint extracted text: {} characters", text.length());
-                    return saveDocumentWithChunks(filePart, user, text);
-                });
+        return documentRepository.save(document)
+                .flatMap(savedDoc -> documentChunkRepository.findForReindexByDocumentId(savedDoc.getId())
+                        .collectList()
+                        .flatMap(previous -> storeChunks(document.getUserId(),
+                                buildChunks(savedDoc.getId(), savedDoc.getUserId(), savedDoc.getFileName(), text),
+                                previous))
+                        .thenReturn(savedDoc))
+                .doOnSuccess(doc -> log.info("Successfully re-indexed document: {}", doc.getFileName()))
+                .doOnError(e -> log.error("Failed to re-index document: {}", e.getMessage(), e));
     }
 
-    private Mono<Document> saveDocumentWithChunks(FilePart filePart, CustomUser user, String text) {
-        Document document = new Document(filePart.filename(), text, user.getId());
+    private List<DocumentChunk> buildChunks(UUID documentId, UUID userId, String originalFilename,
+                                            ExtractedText text) {
+        String filename = originalFilename.toLowerCase();
+        if (filename.endsWith(".pdf")) {
+            return buildPdfChunks(documentId, userId, originalFilename, text);
+        } else if (filename.endsWith(".xlsx") || filename.endsWith(".xls")) {
+            return buildExcelChunks(documentId, userId, originalFilename, text.text());
+        } else if (filename.endsWith(".pptx") || filename.endsWith(".ppt")) {
+            return buildPowerPointChunks(documentId, userId, originalFilename, text.text());
+        }
+        return List.of();
+    }
 
-        return documentRepository.save(document)
-                .flatMap(savedDoc -> {
-                    String filename = filePart.filename().toLowerCase();
-                    if (filename.endsWith(".pdf")) {
-                        return createPdfChunks(savedDoc.getId(), user.getId(),
-                                filePart.filename(), text)
-                                .thenReturn(savedDoc);
-                    } else if (filename.endsWith(".xlsx") || filename.endsWith(".xls")) {
-                        return createExcelChunks(savedDoc.getId(), user.getId(),
-                                filePart.filename(), text)
-                                .thenReturn(savedDoc);
-                    } else if (filename.endsWith(".pptx") || filename.endsWith(".ppt")) {
-                        return createPowerPointChunks(savedDoc.getId(), user.getId(),
-                                filePart.filename(), text)
-                                .thenReturn(savedDoc);
-                    }
-                    return Mono.just(savedDoc);
+    /**
+     * Reconciles a document's chunks with a fresh chunking of its text. New chunks that match
+     * a previous chunk by content hash take over that row and its embedding; the rest are
+     * inserted and embedded, and previous chunks left without a match are deleted.
+     */
+    private Mono<Void> storeChunks(UUID userId, List<DocumentChunk> chunks, List<DocumentChunk> previous) {
+        ChunkDiff diff = ChunkDiff.compute(chunks, previous);
+        List<DocumentChunk> moved = diff.moved();
+        List<DocumentChunk> reembed = diff.reembed();
+        List<UUID> removed = diff.removed();
+
+        log.info("Chunk diff: {} unchanged, {} moved, {} new, {} removed, {} to embed",
+                diff.unchanged(chunks.size()), moved.size(), diff.inserted().size(), removed.size(), diff.inserted().size() + reembed.size());
+
+        Mono<Void> deleteRemoved = removed.isEmpty() ? Mono.empty() : documentChunkRepository.deleteAllById(removed);
+        return deleteRemoved
+                .thenMany(Flux.fromIterable(moved)
+                        .concatMap(chunk -> documentChunkRepository.updatePosition(chunk.getId(), chunk.getContent(),
+                                chunk.getContentHash(), chunk.getChunkNumber(), chunk.getStartIndex(),
+                                chunk.getEndIndex(), chunk.getPageStart(), chunk.getPageEnd())))
+                .thenMany(documentChunkRepository.saveAll(diff.inserted()))
+                .collectList()
+                .doOnNext(savedChunks -> {
+                    // Reused rows may carry new text (slide numbers are not hashed), so they are reindexed too
+                    List<DocumentChunk> changed = new ArrayList<>(savedChunks);
+                    changed.addAll(moved);
+                    keywordRetriever.onChunksSaved(userId, changed);
                 })
-                .doOnSuccess(doc -> log.info("Successfully saved document: {}", doc.getFileName()))
-                .doOnError(e -> log.error("Failed to save document with chunks: {}", e.getMessage(), e));
+                // Embeddings are requested in batches with no DB connection held
+                .flatMap(savedChunks -> {
+                    List<DocumentChunk> toEmbed = new ArrayList<>(savedChunks);
+                    toEmbed.addAll(reembed);
+                    return toEmbed.isEmpty() ? Mono.just(toEmbed) : embedChunks(toEmbed);
+                })
+                .flatMap(chunksWithEmbeddings -> {
+                    List<DocumentChunk> withEmbeddings = chunksWithEmbeddings.stream()
+                            .filter(DocumentChunk::hasEmbedding)
+                            .toList();
+                    if (withEmbeddings.isEmpty()) return Mono.empty();
+                    return documentChunkRepository.saveAll(withEmbeddings)
+                            .then(chunkRetriever.onEmbeddingsSaved(userId, withEmbeddings));
+                })
+                .doOnSuccess(v -> log.info("ALL CHUNKS SAVED WITH EMBEDDINGS"))
+                .doOnError(e -> log.error("CHUNKING FAILED: {}", e.getMessage()));
     }
 
-    private Mono<String> convertFileToText(FilePart filePart) {
-        String filename = filePart.filename().toLowerCase();
+    /**
+     * PDFs are extracted and cleaned page by page; other formats are cleaned as a whole.
+     */
+    private Mono<ExtractedText> convertFileToText(Path file, String originalFilename) {
+        String filename = originalFilename.toLowerCase();
 
         if (filename.endsWith(".pdf")) {
-            return streamAndProcessPdf(filePart);
+            return pdfProcessorService.extractText(file);
         } else if (filename.endsWith(".pptx") || filename.endsWith(".ppt")) {
-            return powerPointProcessorService.streamAndExtractText(filePart);
+            return Mono.fromCallable(() -> Files.readAllBytes(file))
+                    .flatMap(powerPointProcessorService::extractTextFromPowerPoint)
+                    .map(this::cleanText);
 
         } else if (filename.endsWith(".xlsx") || filename.endsWith(".xls")) {
-            return excelProcessorService.streamAndExtractText(filePart);
+            return excelProcessorService.extractText(file)
+                    .map(this::cleanText);
 
         } else {
             return Mono.error(new FileProcessingException("Unsupported file type"));
         }
     }
 
-    private Mono<String> streamAndProcessPdf(FilePart filePart) {
-        return Mono.usingWhen(
-                Mono.fromCallable(() -> Files.createTempFile("upload-", ".pdf")),
-                tempFile -> filePart.transferTo(tempFile)
-                        .then(Mono.fromCallable(() -> {
-                            try (PDDocument doc = PDDocument.load(tempFile.toFile())) {
-                                PDFTextStripper stripper = new PDFTextStripper();
-                                return stripper.getText(doc);
-                            }
-                        })),
-                tempFile -> Mono.fromRunnable(() -> {
-                    try {
-                        Files.deleteIfExists(tempFile);
-                    } catch (IOException e) {
-                        log.warn("Failed to delete temp file: {}", tempFile, e);
-                    }
-                })
-        );
-    }
-
-    private Mono<String> extractTextFromPdf(byte[] pdfBytes) {
-        return Mono.fromCallable(() -> {
-            try (PDDocument document = PDDocument.load(pdfBytes)) {
-                PDFTextStripper stripper = new PDFTextStripper();
-                String rawText = stripper.getText(document);
-
-                return rawText.replace('\0', ' ')
-                        .replaceAll("\\p{Cntrl}", " ")
-                        .replaceAll("\\s+", " ")
-                        .trim();
-            } catch (IOException e) {
-                throw new FileProcessingException("PDF processing error", e);
-            }
-        });
+    private ExtractedText cleanText(String text) {
+        String cleanedText = documentChunkHelper.cleanTextForDatabase(text);
+        log.info("Text cleaned: {} -> {} characters", text.length(), cleanedText.length());
+        return ExtractedText.unpaged(cleanedText);
     }
 
-    private Mono<Void> createPdfChunks(UUID documentId, UUID userId,
-                                       String filename, String fullText) {
-        String cleanedText = documentChunkHelper.cleanTextForDatabase(fullText);
+    /**
+     * Fixed windows over the page-joined text; each chunk records the pages it spans.
+     */
+    private List<DocumentChunk> buildPdfChunks(UUID documentId, UUID userId,
+                                               String filename, ExtractedText pdf) {
+        String cleanedText = pdf.text();
 
         log.info("=== START PDF CHUNKING (WITH EMBEDDINGS) ===");
         int chunkSize = 1000;
         int overlap = 200;
         int numChunks = (int) Math.ceil((double) cleanedText.length() / (chunkSize - overlap));
 
-        // Step 1: Create chunk objects in memory
         List<DocumentChunk> chunkList = new ArrayList<>();
         for (int i = 0; i < numChunks; i++) {
             int start = i * (chunkSize - overlap);
@@ -237,42 +248,37 @@ public class DocumentService {
             DocumentChunk chunk = new DocumentChunk(
                     documentId, userId, filename, chunkText, i + 1, start, end
             );
+            chunk.setPageStart(pdf.pageAt(start));
+            chunk.setPageEnd(pdf.pageAt(end - 1));
             chunkList.add(chunk);
         }
+        return chunkList;
+    }
 
-        // Step 2: Save all chunks (quick DB operation, releases connection)
-        return documentChunkRepository.saveAll(chunkList)
-                .collectList()
-                .flatMap(savedChunks -> {
-                    // Step 3: Create embeddings one by one (no DB connection held)
-                    return Flux.fromIterable(savedChunks)
-                            .concatMap(chunk ->
-                                    embeddingService.createEmbedding(chunk.getContent())
-                                            .timeout(Duration.ofSeconds(15))
-                                            .doOnNext(embedding -> chunk.setEmbedding(embedding))
-                                            .onErrorResume(e -> {
-                                                log.warn("Embedding failed for chunk {}: {}",
-                                                        chunk.getChunkNumber(), e.getMessage());
-                                                return Mono.empty();
-                                            })
-                                            .thenReturn(chunk)
-                            )
-                            .collectList();
-                })
-                .flatMap(chunksWithEmbeddings -> {
-                    // Step 4: Batch-update chunks that got embeddings (quick DB operation)
-                    List<DocumentChunk> withEmbeddings = chunksWithEmbeddings.stream()
-                            .filter(c -> c.getEmbedding() != null)
-                            .toList();
-                    if (withEmbeddings.isEmpty()) return Mono.empty();
-                    return documentChunkRepository.saveAll(withEmbeddings).then();
+    /**
+     * Sets embeddings on the chunks that could be embedded; the rest keep none and are
+     * searched by keyword only.
+     */
+    private Mono<List<DocumentChunk>> embedChunks(List<DocumentChunk> chunks) {
+        return embeddingService.createEmbeddings(chunks.stream().map(DocumentChunk::getContent).toList())
+                .map(embeddings -> {
+                    for (int i = 0; i < chunks.size(); i++) {
+                        if (embeddings.get(i) != null) {
+                            chunks.get(i).setEmbedding(embeddings.get(i));
+                        } else {
+                            log.warn("Embedding failed for chunk {}", chunks.get(i).getChunkNumber());
+                        }
+                    }
+                    return chunks;
                 })
-                .doOnSuccess(v -> log.info("ALL PDF CHUNKS SAVED WITH EMBEDDINGS"))
-                .doOnError(e -> log.error("PDF-CHUNKING FAILED: {}", e.getMessage()));
+                .onErrorResume(e -> {
+                    log.warn("Embedding chunks failed: {}", e.getMessage());
+                    return Mono.just(chunks);
+                });
     }
 
-    private Mono<Void> createExcelChunks(UUID documentId, UUID userId,
-                                         String filename, String excelText) {
+    private List<DocumentChunk> buildExcelChunks(UUID documentId, UUID userId,
+                                                 String filename, String excelText) {
         log.info("=== CREATING EXCEL-CHUNKS (WITH EMBEDDINGS) ===");
         String[] worksheets = excelText.split("--- WORKSHEET: ");
 
@@ -291,36 +297,11 @@ public class DocumentService {
             chunk.setEndIndex(worksheetText.length());
             chunkList.add(chunk);
         }
-
-        return documentChunkRepository.saveAll(chunkList)
-                .collectList()
-                .flatMap(savedChunks ->
-                        Flux.fromIterable(savedChunks)
-                                .concatMap(chunk ->
-                                        embeddingService.createEmbedding(chunk.getContent())
-                                                .timeout(Duration.ofSeconds(15))
-                                                .doOnNext(embedding -> chunk.setEmbedding(embedding))
-                                                .onErrorResume(e -> {
-                                                    log.warn("Embedding failed for chunk {}: {}",
-                                                            chunk.getChunkNumber(), e.getMessage());
-                                                    return Mono.empty();
-                                                })
-                                                .thenReturn(chunk)
-                                )
-                                .collectList()
-                )
-                .flatMap(chunksWithEmbeddings -> {
-                    List<DocumentChunk> withEmbeddings = chunksWithEmbeddings.stream()
-                            .filter(c -> c.getEmbedding() != null)
-                            .toList();
-                    if (withEmbeddings.isEmpty()) return Mono.empty();
-                    return documentChunkRepository.saveAll(withEmbeddings).then();
-                })
-                .doOnSuccess(v -> log.info("ALL EXCEL-CHUNKS SAVED WITH EMBEDDINGS"));
+        return chunkList;
     }
 
-    private Mono<Void> createPowerPointChunks(UUID documentId, UUID userId,
-                                              String filename, String powerpointText) {
+    private List<DocumentChunk> buildPowerPointChunks(UUID documentId, UUID userId,
+                                                      String filename, String powerpointText) {
         log.info("=== CREATING POWERPOINT-CHUNKS (WITH EMBEDDINGS) ===");
         String[] slides = powerpointText.split("--- SLIDE ");
 
@@ -339,33 +320,7 @@ public class DocumentService {
             chunk.setEndIndex(slideText.length());
             chunkList.add(chunk);
         }
-
-        return documentChunkRepository.saveAll(chunkList)
-                .collectList()
-                .flatMap(savedChunks ->
-                        Flux.fromIterable(savedChunks)
-                                .concatMap(chunk ->
-                                        embeddingService.createEmbedding(chunk.getContent())
-                                                .timeout(Duration.ofSeconds(15))
-                                                .doOnNext(embedding -> chunk.setEmbedding(embedding))
-                                                .onErrorResume(e -> {
-                                                    log.warn("Embedding failed for chunk {}: {}",
-                                                            chunk.getChunkNumber(), e.getMessage());
-                                                    return Mono.empty();
-                                                })
-                                                .thenReturn(chunk)
-                                )
-                                .collectList()
-                )
-                .flatMap(chunksWithEmbeddings -> {
-                    List<DocumentChunk> withEmbeddings = chunksWithEmbeddings.stream()
-                            .filter(c -> c.getEmbedding() != null)
-                            .toList();
-                    if (withEmbeddings.isEmpty()) return Mono.empty();
-                    return documentChunkRepository.saveAll(withEmbeddings).then();
-                })
-                .doOnSuccess(v -> log.info("ALL POWERPOINT-CHUNKS SAVED WITH EMBEDDINGS"))
-                .doOnError(e -> log.error("POWERPOINT-CHUNKING FAILED: {}", e.getMessage()));
+        return chunkList;
     }
 
     public Mono<String> getTextByUserId(UUID userId) {
@@ -417,116 +372,95 @@ public class DocumentService {
         return result.toString().trim();
     }
 
-    public Mono<String> findRelevantChunks(String question, UUID userId) {
-        return getAllChunksByUserId(userId)
-                .collectList()
-                .map(allChunks -> {
-                    String[] keywords = question.toLowerCase().split("\\s+");
-                    StringBuilder relevantText = new StringBuilder();
-                    int chunksFound = 0;
-
-                    for (DocumentChunk chunk : allChunks) {
-                        String chunkContent = chunk.getContent().toLowerCase();
-                        boolean hasKeyword = false;
-
-                        for (String keyword : keywords) {
-                            if (keyword.length() > 3 && chunkContent.contains(keyword)) {
-                                hasKeyword = true;
-                                break;
-                            }
-                        }
+    public Mono<String> findRelevantChunks(String question, UUID userId, RetrievalMode mode) {
+        return findRelevantChunks(question, userId, mode, RetrievalFilter.NONE);
+    }
 
-                        if (hasKeyword && chunksFound < 5) {
-                            relevantText.append("--- Chunk ").append(chunk.getChunkNumber())
-                                    .append(" from ").append(chunk.getFilename())
-                                    .append(" ---\n")
-                                    .append(chunk.getContent())
-                                    .append("\n\n");
-                            chunksFound++;
-                        }
-                    }
+    /**
+     * Resolves the filter to document ids first (a small indexed query on {@code documents}),
+     * then lets every backend restrict its search to those documents instead of filtering
+     * the ranked results afterwards.
+     */
+    public Mono<String> findRelevantChunks(String question, UUID userId, RetrievalMode mode, RetrievalFilter filter) {
+        return withCurrentCorpus(userId, () -> findRelevantChunksFiltered(question, userId, mode, filter));
+    }
 
-                    if (chunksFound == 0 && !allChunks.isEmpty()) {
-                        relevantText.append("(No specific matches was found, showing the first parts)\n\n");
-                        for (int i = 0; i < Math.min(3, allChunks.size()); i++) {
-                            DocumentChunk chunk = allChunks.get(i);
-                            relevantText.append("--- Chunk ").append(chunk.getChunkNumber())
-                                    .append(" from ").append(chunk.getFilename())
-                                    .append(" ---\n")
-                                    .append(chunk.getContent())
-                                    .append("\n\n");
-                        }
+    private Mono<String> findRelevantChunksFiltered(String question, UUID userId, RetrievalMode mode,
+                                                    RetrievalFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            return findRelevantChunks(question, userId, mode, (Collection<UUID>) null);
+        }
+        return documentRepository.findIdsMatching(userId, filter)
+                .collect(Collectors.toSet())
+                .flatMap(documentIds -> {
+                    if (documentIds.isEmpty()) {
+                        log.info("No document matched the retrieval filter for user {}", userId);
+                        return Mono.just("No document matched the filters");
                     }
+                    log.debug("Retrieval filter matched {} documents", documentIds.size());
+                    return findRelevantChunks(question, userId, mode, documentIds);
+                });
+    }
+
+    private Mono<String> findRelevantChunks(String question, UUID userId, RetrievalMode mode,
+                                            Collection<UUID> documentIds) {
+        return switch (mode) {
+            case EMBEDDING -> findRelevantChunksWithEmbeddings(question, userId, documentIds);
+            case KEYWORD -> findRelevantChunks(question, userId, documentIds);
+            case HYBRID -> findRelevantChunksHybrid(question, userId, documentIds);
+        };
+    }
+
+    public Mono<String> findRelevantChunks(String question, UUID userId) {
+        return withCurrentCorpus(userId, () -> findRelevantChunks(question, userId, (Collection<UUID>) null));
+    }
 
-                    return relevantText.toString();
+    private Mono<String> findRelevantChunks(String question, UUID userId, Collection<UUID> documentIds) {
+        return keywordRetriever.search(userId, question, 5, documentIds)
+                .flatMap(chunks -> {
+                    if (chunks.isEmpty()) {
+                        return firstChunksFallback(userId, documentIds);
+                    }
+                    log.debug("Keyword search found {} matches", chunks.size());
+                    return Mono.just(contextPacker.pack("", chunks));
                 })
                 .defaultIfEmpty("No document was found for the user");
     }
 
+    private Mono<String> firstChunksFallback(UUID userId, Collection<UUID> documentIds) {
+        return (documentIds == null
+                        ? documentChunkRepository.findFirstByUserId(userId, 3)
+                        : documentChunkRepository.findFirstByUserIdAndDocumentIds(userId, documentIds, 3))
+                .collectList()
+                .filter(chunks -> !chunks.isEmpty())
+                .map(chunks -> contextPacker.pack("(No specific matches was found, showing the first parts)\n\n", chunks));
+    }
+
     public Mono<String> findRelevantChunksWithEmbeddings(String question, UUID userId) {
+        return withCurrentCorpus(userId, () -> findRelevantChunksWithEmbeddings(question, userId, null));
+    }
+
+    private Mono<String> findRelevantChunksWithEmbeddings(String question, UUID userId, Collection<UUID> documentIds) {
         log.info("Searching with embeddings for question: {}", question);
 
-        return embeddingService.createEmbedding(question)
+        return embeddingService.createQueryEmbedding(question)
                 .flatMap(queryEmbedding -> {
                     if (queryEmbedding == null || queryEmbedding.length == 0) {
                         log.warn("No embedding for question, falling back to keyword search");
-                        return findRelevantChunks(question, userId);
+                        return findRelevantChunks(question, userId, documentIds);
                     }
 
                     log.debug("Question embedding created: {} dimensions", queryEmbedding.length);
 
-                    return getAllChunksByUserId(userId)
-                            .collectList()
-                            .map(allChunks -> {
-                                if (allChunks.isEmpty()) {
-                                    log.info("No chunks found for user: {}", userId);
-                                    return "No document was found for the user";
-                                }
-
-                                log.debug("Comparing with {} chunks", allChunks.size());
+                    float[] normalizedQuery = EmbeddingCodec.normalize(queryEmbedding);
 
-                                List<ChunkWithSimilarityDTO> scoredChunks = new ArrayList<>();
-
-                                for (DocumentChunk chunk : allChunks) {
-                                    float[] chunkEmbedding = chunk.getEmbedding();
-                                    if (chunkEmbedding != null && chunkEmbedding.length > 0) {
-                                        float similarity = documentChunkHelper.cosineSimilarity(queryEmbedding, chunkEmbedding);
-                                        scoredChunks.add(new ChunkWithSimilarityDTO(chunk, similarity));
-                                    }
+                    return chunkRetriever.findTopK(userId, normalizedQuery, 5, documentIds)
+                            .map(result -> {
+                                if (result.matches().isEmpty()) {
+                                    log.info("No chunks with embeddings found for user: {}", userId);
+                                    return "No chunks with embeddings was found";
                                 }
-
-                                scoredChunks.sort((a, b) -> Float.compare(b.getSimilarity(), a.getSimilarity()));
-
-                                StringBuilder relevantText = new StringBuilder();
-                                relevantText.append("Searched with embeddings - found ")
-                                        .append(scoredChunks.size())
-                                        .append(" chunks with embeddings\n\n");
-
-                                int chunksToTake = Math.min(5, scoredChunks.size());
-                                for (int i = 0; i < chunksToTake; i++) {
-                                    ChunkWithSimilarityDTO scored = scoredChunks.get(i);
-                                    DocumentChunk chunk = scored.getChunk();
-
-                                    relevantText.append("--- Chunk ").append(chunk.getChunkNumber())
-                                            .append(" (relevance: ").append(String.format("%.3f", scored.getSimilarity()))
-                                            .append(") from ").append(chunk.getFilename())
-                                            .append(" ---\n")
-                                            .append(chunk.getContent())
-                                            .append("\n\n");
-                                }
-
-                                if (!scoredChunks.isEmpty()) {
-                                    log.info("Top 5 matches:");
-                                    for (int i = 0; i < Math.min(5, scoredChunks.size()); i++) {
-                                        ChunkWithSimilarityDTO scored = scoredChunks.get(i);
-                                        log.info("#{}: {} - similarity: {}",
-                                                i+1,
-                                                scored.getChunk().getFilename(),
-                                                scored.getSimilarity());
-                                    }
-                                }
-
-                                return relevantText.toString();
+                                return formatEmbeddingMatches(result);
                             })
                             .defaultIfEmpty("No chunks with embeddings was found");
                 })
@@ -536,6 +470,85 @@ public class DocumentService {
                 });
     }
 
+    /**
+     * Runs embedding and BM25 retrieval concurrently and fuses their rankings, so exact
+     * identifiers and paraphrases are both found. Both sides return their chunks, so nothing
+     * is loaded after fusion. If one side fails the other still answers.
+     */
+    public Mono<String> findRelevantChunksHybrid(String question, UUID userId) {
+        return withCurrentCorpus(userId, () -> findRelevantChunksHybrid(question, userId, null));
+    }
+
+    private Mono<String> findRelevantChunksHybrid(String question, UUID userId, Collection<UUID> documentIds) {
+        log.info("Searching with hybrid retrieval for question: {}", question);
+
+        Mono<List<DocumentChunk>> vectorRanking = embeddingService.createQueryEmbedding(question)
+                .filter(queryEmbedding -> queryEmbedding.length > 0)
+                .flatMap(queryEmbedding -> chunkRetriever.findTopK(
+                        userId, EmbeddingCodec.normalize(queryEmbedding), HYBRID_CANDIDATES, documentIds))
+                .map(result -> result.matches().stream().map(ChunkWithSimilarityDTO::getChunk).toList())
+                .onErrorResume(e -> {
+                    log.warn("Vector side of hybrid search failed: {}", e.getMessage());
+                    return Mono.just(List.of());
+                })
+                .defaultIfEmpty(List.of());
+
+        Mono<List<DocumentChunk>> keywordRanking = keywordRetriever.search(userId, question, HYBRID_CANDIDATES, documentIds)
+                .onErrorResume(e -> {
+                    log.warn("Keyword side of hybrid search failed: {}", e.getMessage());
+                    return Mono.just(List.of());
+                })
+                .defaultIfEmpty(List.of());
+
+        return Mono.zip(vectorRanking, keywordRanking)
+                .flatMap(rankings -> {
+                    List<DocumentChunk> vectorChunks = rankings.getT1();
+                    List<DocumentChunk> keywordChunks = rankings.getT2();
+                    List<ScoredChunk> fused = ReciprocalRankFusion.fuse(List.of(
+                            vectorChunks.stream().map(DocumentChunk::getId).toList(),
+                            keywordChunks.stream().map(DocumentChunk::getId).toList()), 5);
+                    if (fused.isEmpty()) {
+                        return Mono.just("No chunks was found with hybrid search");
+                    }
+                    log.debug("Hybrid search fused {} vector and {} keyword matches",
+                            vectorChunks.size(), keywordChunks.size());
+
+                    Map<UUID, DocumentChunk> known = new HashMap<>();
+                    keywordChunks.forEach(chunk -> known.put(chunk.getId(), chunk));
+                    vectorChunks.forEach(chunk -> known.put(chunk.getId(), chunk));
+                    List<DocumentChunk> ranked = fused.stream()
+                            .map(match -> known.get(match.chunkId()))
+                            .filter(Objects::nonNull)
+                            .toList();
+                    return Mono.just(contextPacker.pack("Searched with hybrid retrieval\n\n", ranked));
+                });
+    }
+
+    private String formatEmbeddingMatches(RetrievalResult result) {
+        List<ChunkWithSimilarityDTO> scoredChunks = result.matches();
+        String header = result.searchedChunks() >= 0
+                ? "Searched with embeddings - found " + result.searchedChunks() + " chunks with embeddings\n\n"
+                : "Searched with embeddings\n\n";
+
+        Map<UUID, Float> relevance = new HashMap<>();
+        scoredChunks.forEach(scored -> relevance.put(scored.getChunk().getId(), scored.getSimilarity()));
+        String relevantText = contextPacker.pack(header,
+                scoredChunks.stream().map(ChunkWithSimilarityDTO::getChunk).toList(), relevance);
+
+        if (!scoredChunks.isEmpty()) {
+            log.info("Top {} matches:", scoredChunks.size());
+            for (int i = 0; i < scoredChunks.size(); i++) {
+                ChunkWithSimilarityDTO scored = scoredChunks.get(i);
+                log.info("#{}: {} - similarity: {}",
+                        i + 1,
+                        scored.getChunk().getFilename(),
+                        scored.getSimilarity());
+            }
+        }
+
+        return relevantText;
+    }
+
     public Flux<Document> getAllDocuments(UUID userID) {
         return documentRepository.findByUserId(userID)
                 .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
@@ -548,8 +561,41 @@ public class DocumentService {
     }
 
     public Mono<Void> deleteDocument(UUID id) {
-        return documentChunkRepository.deleteByDocumentId(id)
-                .then(documentRepository.deleteById(id));
+        return documentRepository.findById(id)
+                .flatMap(document -> changingCorpus(document.getUserId(),
+                        documentChunkRepository.deleteByDocumentId(id)
+                                .then(documentRepository.deleteById(id))
+                                .thenReturn(true)))
+                .hasElement()
+                .flatMap(found -> found
+                        ? Mono.<Void>empty()
+                        // Orphaned chunks of a document row that is already gone
+                        : Mono.defer(() -> documentChunkRepository.deleteByDocumentId(id)));
+    }
+
+    /**
+     * Bumps the user's corpus version once {@code write} has finished, also when it failed
+     * or was cancelled part way, since some of its rows may already be written.
+     */
+    private <T> Mono<T> changingCorpus(UUID userId, Mono<T> write) {
+        return Mono.usingWhen(Mono.just(userId),
+                id -> write,
+                corpusVersionTracker::bump,
+                (id, error) -> corpusVersionTracker.bump(id),
+                corpusVersionTracker::bump);
+    }
+
+    /**
+     * Makes sure this node has dropped indexes built from an older corpus before searching,
+     * including when the change was made on another node.
+     */
+    private Mono<String> withCurrentCorpus(UUID userId, Supplier<Mono<String>> search) {
+        return corpusVersionTracker.current(userId).then(Mono.defer(search));
+    }
+
+    private void dropDerivedState(UUID userId) {
+        chunkRetriever.onCorpusChanged(userId);
+        keywordRetriever.onCorpusChanged(userId);
     }
 
     public Flux<DocumentChunk> getChunksByDocumentId(UUID documentId) {
@@ -561,6 +607,6 @@ public class DocumentService {
     }
 
     public Mono<Long> countChunksByDocumentId(UUID documentId) {
-        return documentChunkRepository.findByDocumentId(documentId).count();
+        return documentChunkRepository.countByDocumentId(documentId);
     }
 }
\ No newline at end of file
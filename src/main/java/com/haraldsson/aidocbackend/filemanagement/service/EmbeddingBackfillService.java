@@ -0,0 +1,116 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingQuantizer;
+import com.haraldsson.aidocbackend.filemanagement.utils.UuidKeyset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Converts legacy {@code embedding_json} rows to the packed {@code embedding_bin} column
+ * in small batches after startup, then fills {@code embedding_int8} for rows that were
+ * packed before the quantized tier existed. Reads keep working during the backfill because
+ * {@link DocumentChunk#getEmbedding()} falls back to the JSON column for unconverted rows.
+ */
+@Service
+public class EmbeddingBackfillService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingBackfillService.class);
+
+    private final DocumentChunkRepository documentChunkRepository;
+
+    @Value("${app.embedding.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.embedding.backfill.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.embedding.backfill.pause-ms:250}")
+    private long pauseMillis;
+
+    public EmbeddingBackfillService(DocumentChunkRepository documentChunkRepository) {
+        this.documentChunkRepository = documentChunkRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackfill() {
+        if (!enabled) {
+            log.info("Embedding backfill disabled");
+            return;
+        }
+        AtomicLong packed = new AtomicLong();
+        AtomicLong quantized = new AtomicLong();
+        backfillFrom(UuidKeyset.FIRST_ID, documentChunkRepository::findChunksPendingEmbeddingBackfill, this::packJson, packed)
+                .then(Mono.defer(() -> backfillFrom(UuidKeyset.FIRST_ID,
+                        documentChunkRepository::findChunksPendingInt8Backfill, this::quantize, quantized)))
+                .subscribe(
+                        v -> { },
+                        e -> log.error("Embedding backfill stopped after {} packed / {} quantized rows: {}",
+                                packed.get(), quantized.get(), e.getMessage()),
+                        () -> {
+                            if (packed.get() > 0 || quantized.get() > 0) {
+                                log.info("Embedding backfill finished, packed {} and quantized {} chunks",
+                                        packed.get(), quantized.get());
+                            }
+                        });
+    }
+
+    Mono<Void> backfillFrom(UUID afterId,
+                            BiFunction<UUID, Integer, Flux<DocumentChunk>> pending,
+                            Function<DocumentChunk, Mono<Integer>> convert,
+                            AtomicLong converted) {
+        return pending.apply(afterId, batchSize)
+                .collectList()
+                .flatMap(batch -> {
+                    if (batch.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    UUID lastId = batch.get(batch.size() - 1).getId();
+                    return Flux.fromIterable(batch)
+                            .concatMap(convert)
+                            .reduce(0L, (sum, updated) -> sum + updated)
+                            .doOnNext(converted::addAndGet)
+                            .doOnNext(count -> log.debug("Embedding backfill converted {} rows (total {})",
+                                    count, converted.get()))
+                            .then(Mono.delay(Duration.ofMillis(pauseMillis)))
+                            .then(Mono.defer(() -> backfillFrom(lastId, pending, convert, converted)));
+                });
+    }
+
+    private Mono<Integer> packJson(DocumentChunk chunk) {
+        float[] normalized;
+        try {
+            normalized = EmbeddingCodec.normalize(EmbeddingCodec.parseJson(chunk.getEmbeddingJson()));
+        } catch (NumberFormatException e) {
+            log.warn("Skipping chunk {} with unreadable embedding: {}", chunk.getId(), e.getMessage());
+            return Mono.just(0);
+        }
+        if (normalized == null) {
+            return Mono.just(0);
+        }
+        return documentChunkRepository.updateEmbeddingBin(chunk.getId(),
+                EmbeddingCodec.encode(normalized), EmbeddingQuantizer.quantize(normalized));
+    }
+
+    private Mono<Integer> quantize(DocumentChunk chunk) {
+        float[] embedding = EmbeddingCodec.decode(chunk.getEmbeddingBin());
+        if (embedding == null) {
+            return Mono.just(0);
+        }
+        return documentChunkRepository.updateEmbeddingInt8(chunk.getId(), EmbeddingQuantizer.quantize(embedding));
+    }
+}
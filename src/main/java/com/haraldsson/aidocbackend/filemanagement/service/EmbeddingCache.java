@@ -0,0 +1,212 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.repository.EmbeddingCacheRepository;
+import com.haraldsson.aidocbackend.filemanagement.utils.ContentHash;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of chunk embeddings shared by all users, so boilerplate that many
+ * users upload (templates, standard clauses, shared decks) is embedded once. Entries are
+ * keyed by SHA-256 of the normalized text plus the model.
+ *
+ * <p>A small in-memory LRU sits in front of the {@code embedding_cache} table. The table is
+ * pruned on a schedule: rows unused for {@code max-age-days} go first, then the least
+ * recently used rows beyond {@code max-entries}.
+ */
+@Component
+public class EmbeddingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+    private static final int LOOKUP_BATCH = 500;
+    private static final int STORE_BATCH = 100;
+
+    private final EmbeddingCacheRepository repository;
+    private final boolean enabled;
+    private final int l1MaxEntries;
+    private final LinkedHashMap<String, float[]> l1 = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong l1Hits = new AtomicLong();
+    private final AtomicLong tableHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Value("${app.embedding.cache.max-entries:200000}")
+    private long maxEntries;
+
+    @Value("${app.embedding.cache.max-age-days:90}")
+    private int maxAgeDays;
+
+    @Autowired
+    public EmbeddingCache(EmbeddingCacheRepository repository,
+                          @Value("${app.embedding.cache.enabled:true}") boolean enabled,
+                          @Value("${app.embedding.cache.l1-max-entries:2048}") int l1MaxEntries) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.l1MaxEntries = l1MaxEntries;
+    }
+
+    /**
+     * Looks up every non-blank text, memory first and then the table in batches.
+     *
+     * @return cached embeddings by position in {@code texts}; a failed lookup counts as a miss
+     */
+    public Mono<Map<Integer, float[]>> lookup(String model, List<String> texts) {
+        Map<Integer, float[]> found = new HashMap<>();
+        if (!enabled) {
+            return Mono.just(found);
+        }
+        Map<String, List<Integer>> pending = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            String hash = hash(text);
+            float[] cached = fromMemory(model, hash);
+            if (cached != null) {
+                l1Hits.incrementAndGet();
+                found.put(i, cached);
+            } else {
+                pending.computeIfAbsent(hash, h -> new ArrayList<>()).add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return Mono.just(found);
+        }
+
+        return Flux.fromIterable(partition(new ArrayList<>(pending.keySet()), LOOKUP_BATCH))
+                .concatMap(hashes -> repository.findByHashes(model, hashes)
+                        .collectList()
+                        .flatMap(rows -> {
+                            List<String> hits = new ArrayList<>(rows.size());
+                            for (Map.Entry<String, byte[]> row : rows) {
+                                float[] embedding = EmbeddingCodec.decode(row.getValue());
+                                if (embedding == null) {
+                                    continue;
+                                }
+                                hits.add(row.getKey());
+                                remember(model, row.getKey(), embedding);
+                                pending.get(row.getKey()).forEach(i -> found.put(i, embedding));
+                            }
+                            tableHits.addAndGet(hits.size());
+                            return hits.isEmpty() ? Mono.empty() : repository.touch(model, hits);
+                        }))
+                .then(Mono.fromSupplier(() -> {
+                    misses.addAndGet(pending.values().stream().flatMap(List::stream)
+                            .filter(i -> !found.containsKey(i)).count());
+                    log.debug("Embedding cache: {} of {} texts found", found.size(), texts.size());
+                    return found;
+                }))
+                .onErrorResume(e -> {
+                    log.warn("Embedding cache lookup failed, using what was found: {}", e.getMessage());
+                    return Mono.just(found);
+                });
+    }
+
+    /**
+     * Stores freshly created embeddings. Failures are logged and ignored; the embeddings
+     * are still returned to the caller.
+     */
+    public Mono<Void> store(String model, List<String> texts, List<float[]> embeddings) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        Map<String, byte[]> unique = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (texts.get(i) == null || texts.get(i).isBlank() || embeddings.get(i) == null) {
+                continue;
+            }
+            String hash = hash(texts.get(i));
+            remember(model, hash, embeddings.get(i));
+            unique.putIfAbsent(hash, EmbeddingCodec.encode(embeddings.get(i)));
+        }
+        if (unique.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(partition(new ArrayList<>(unique.entrySet()), STORE_BATCH))
+                .concatMap(entries -> repository.saveAll(model, entries))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Storing {} embeddings in the cache failed: {}", unique.size(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    @Scheduled(initialDelayString = "${app.embedding.cache.prune-initial-delay-ms:60000}",
+            fixedDelayString = "${app.embedding.cache.prune-interval-ms:3600000}")
+    public Mono<Void> prune() {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return repository.deleteUnusedSince(maxAgeDays)
+                .zipWhen(expired -> repository.deleteLeastRecentlyUsedBeyond(maxEntries))
+                .doOnNext(deleted -> {
+                    if (deleted.getT1() + deleted.getT2() > 0) {
+                        log.info("Pruned embedding cache: {} expired, {} over the size cap",
+                                deleted.getT1(), deleted.getT2());
+                    }
+                })
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Pruning the embedding cache failed: {}", e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    public Stats stats() {
+        synchronized (l1) {
+            return new Stats(l1Hits.get(), tableHits.get(), misses.get(), l1.size());
+        }
+    }
+
+    /**
+     * Whitespace runs and Unicode composition do not change the embedding input in any way
+     * that matters, so they do not get separate entries. Case does, and is kept.
+     */
+    static String hash(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).strip().replaceAll("\\s+", " ");
+        return ContentHash.sha256(normalized);
+    }
+
+    private float[] fromMemory(String model, String hash) {
+        synchronized (l1) {
+            return l1.get(model + '\n' + hash);
+        }
+    }
+
+    private void remember(String model, String hash, float[] embedding) {
+        if (l1MaxEntries <= 0) {
+            return;
+        }
+        synchronized (l1) {
+            l1.put(model + '\n' + hash, embedding);
+            if (l1.size() > l1MaxEntries) {
+                l1.remove(l1.keySet().iterator().next());
+            }
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> items, int size) {
+        List<List<T>> parts = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += size) {
+            parts.add(items.subList(from, Math.min(items.size(), from + size)));
+        }
+        return parts;
+    }
+
+    public record Stats(long memoryHits, long tableHits, long misses, int memoryEntries) {}
+}
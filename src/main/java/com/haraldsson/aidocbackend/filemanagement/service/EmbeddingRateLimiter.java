@@ -0,0 +1,285 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Shared gate for every call to the embeddings endpoint. It caps concurrent requests and
+ * keeps requests and tokens per minute under the account limits with two token buckets.
+ * Waiting callers are queued FIFO without blocking a thread.
+ *
+ * <p>Question embeddings wait in their own queue, which is served first, and may use
+ * {@code app.embedding.query-slots} slots that bulk batches never take, so a question is not
+ * stuck behind a large upload.
+ *
+ * <p>The concurrency limit adapts: a 429 halves it and pauses all calls for the server's
+ * {@code Retry-After}, and every {@code limit} consecutive successes raise it by one again,
+ * up to {@code app.embedding.max-concurrent}. Rate-limited calls are retried through the gate.
+ */
+@Component
+public class EmbeddingRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingRateLimiter.class);
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(2);
+    private static final int MAX_RATE_LIMIT_RETRIES = 5;
+
+    private final int maxConcurrent;
+    private final Duration timeout;
+    private final double requestsPerMinute;
+    private final double tokensPerMinute;
+    private final LongSupplier nanoTime;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Deque<Waiter> queryWaiters = new ArrayDeque<>();
+
+    @Value("${app.embedding.query-slots:1}")
+    private int querySlots = 1;
+
+    private int limit;
+    private int inFlight = 0;
+    private int reservedInFlight = 0;
+    private int successesSinceChange = 0;
+    private long pausedUntil;
+    private double requestBudget;
+    private double tokenBudget;
+    private long lastRefill;
+    private boolean drainScheduled = false;
+
+    @Autowired
+    public EmbeddingRateLimiter(@Value("${app.embedding.max-concurrent:2}") int maxConcurrent,
+                                @Value("${app.embedding.timeout-seconds:30}") long timeoutSeconds,
+                                @Value("${app.embedding.requests-per-minute:3000}") int requestsPerMinute,
+                                @Value("${app.embedding.tokens-per-minute:1000000}") int tokensPerMinute) {
+        this(maxConcurrent, Duration.ofSeconds(timeoutSeconds), requestsPerMinute, tokensPerMinute, System::nanoTime);
+    }
+
+    EmbeddingRateLimiter(int maxConcurrent, Duration timeout, int requestsPerMinute, int tokensPerMinute,
+                         LongSupplier nanoTime) {
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+        this.timeout = timeout;
+        this.requestsPerMinute = Math.max(requestsPerMinute, 1);
+        this.tokensPerMinute = Math.max(tokensPerMinute, 1);
+        this.nanoTime = nanoTime;
+        this.limit = this.maxConcurrent;
+        this.requestBudget = this.requestsPerMinute;
+        this.tokenBudget = this.tokensPerMinute;
+        this.lastRefill = nanoTime.getAsLong();
+        this.pausedUntil = lastRefill;
+    }
+
+    public int maxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Runs {@code call} once a slot and enough request and token budget are free, with the
+     * configured timeout. A 429 response shrinks the limit and the call is retried.
+     */
+    public <T> Mono<T> execute(int tokens, Supplier<Mono<T>> call) {
+        return execute(tokens, false, call);
+    }
+
+    /**
+     * Like {@link #execute}, for a user waiting on the answer: queued ahead of bulk calls and
+     * allowed into the reserved query slots.
+     */
+    public <T> Mono<T> executeQuery(int tokens, Supplier<Mono<T>> call) {
+        return execute(tokens, true, call);
+    }
+
+    private <T> Mono<T> execute(int tokens, boolean query, Supplier<Mono<T>> call) {
+        return Mono.usingWhen(acquire(tokens, query),
+                        permit -> {
+                            permit.used = true;
+                            return Mono.defer(call).timeout(timeout)
+                                    .doOnSuccess(value -> onSuccess())
+                                    .doOnError(this::onError);
+                        },
+                        permit -> Mono.fromRunnable(() -> release(permit)),
+                        (permit, error) -> Mono.fromRunnable(() -> release(permit)),
+                        permit -> Mono.fromRunnable(() -> release(permit)))
+                .retryWhen(Retry.max(MAX_RATE_LIMIT_RETRIES)
+                        .filter(EmbeddingRateLimiter::isRateLimited)
+                        .doBeforeRetry(signal -> log.debug("Retrying rate-limited embedding call, attempt {}",
+                                signal.totalRetries() + 1)));
+    }
+
+    public synchronized int currentLimit() {
+        return limit;
+    }
+
+    Mono<Waiter> acquire(int tokens, boolean query) {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(Math.max(tokens, 0), query, sink);
+            Deque<Waiter> queue = query ? queryWaiters : waiters;
+            sink.onCancel(() -> {
+                synchronized (this) {
+                    queue.remove(waiter);
+                }
+            });
+            synchronized (this) {
+                queue.addLast(waiter);
+            }
+            drain();
+        });
+    }
+
+    synchronized void release(Waiter permit) {
+        if (permit.reserved) {
+            reservedInFlight--;
+        } else {
+            inFlight--;
+        }
+        drainLater(0);
+    }
+
+    private void onSuccess() {
+        synchronized (this) {
+            if (limit < maxConcurrent && ++successesSinceChange >= limit) {
+                limit++;
+                successesSinceChange = 0;
+                log.debug("Embedding concurrency raised to {}", limit);
+            }
+        }
+    }
+
+    private void onError(Throwable error) {
+        if (isRateLimited(error)) {
+            onRateLimited(retryAfter((WebClientResponseException) error));
+        }
+    }
+
+    synchronized void onRateLimited(Duration retryAfter) {
+        limit = Math.max(1, limit / 2);
+        successesSinceChange = 0;
+        pausedUntil = Math.max(pausedUntil, nanoTime.getAsLong() + retryAfter.toNanos());
+        log.warn("Embedding endpoint rate limited us; concurrency now {}, pausing {} ms",
+                limit, retryAfter.toMillis());
+    }
+
+    private void drain() {
+        List<Waiter> granted = new ArrayList<>();
+        long wait = 0;
+        synchronized (this) {
+            drainScheduled = false;
+            long now = nanoTime.getAsLong();
+            refill(now);
+            Waiter next;
+            while ((next = nextGrantable()) != null) {
+                if (now < pausedUntil) {
+                    wait = pausedUntil - now;
+                    break;
+                }
+                // A request larger than a minute's budget waits for a full bucket instead of forever
+                double tokensNeeded = Math.min(next.tokens, tokensPerMinute);
+                if (requestBudget < 1 || tokenBudget < tokensNeeded) {
+                    double requestWait = (1 - requestBudget) / requestsPerMinute * NANOS_PER_MINUTE;
+                    double tokenWait = (tokensNeeded - tokenBudget) / tokensPerMinute * NANOS_PER_MINUTE;
+                    wait = (long) Math.ceil(Math.max(requestWait, tokenWait));
+                    break;
+                }
+                (next.query ? queryWaiters : waiters).removeFirst();
+                requestBudget -= 1;
+                tokenBudget -= tokensNeeded;
+                // Questions take a shared slot while one is free and keep the reserved ones for later
+                next.reserved = inFlight >= limit;
+                if (next.reserved) {
+                    reservedInFlight++;
+                } else {
+                    inFlight++;
+                }
+                granted.add(next);
+            }
+            if (wait > 0) {
+                drainLater(wait);
+            }
+        }
+        for (Waiter waiter : granted) {
+            waiter.sink.success(waiter);
+            if (!waiter.used) {
+                // Cancelled while being granted: the permit was never handed over
+                release(waiter);
+            }
+        }
+    }
+
+    /**
+     * The head of the question queue if it can get a shared or reserved slot, otherwise the
+     * head of the bulk queue if a shared slot is free.
+     */
+    private Waiter nextGrantable() {
+        boolean sharedFree = inFlight < limit;
+        if (!queryWaiters.isEmpty() && (sharedFree || reservedInFlight < querySlots)) {
+            return queryWaiters.peekFirst();
+        }
+        return sharedFree ? waiters.peekFirst() : null;
+    }
+
+    private synchronized void drainLater(long delayNanos) {
+        if (delayNanos <= 0) {
+            Schedulers.parallel().schedule(this::drain);
+            return;
+        }
+        if (!drainScheduled) {
+            drainScheduled = true;
+            Schedulers.parallel().schedule(this::drain, Math.max(delayNanos, 1), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void refill(long now) {
+        double minutes = (double) (now - lastRefill) / NANOS_PER_MINUTE;
+        requestBudget = Math.min(requestsPerMinute, requestBudget + minutes * requestsPerMinute);
+        tokenBudget = Math.min(tokensPerMinute, tokenBudget + minutes * tokensPerMinute);
+        lastRefill = now;
+    }
+
+    static boolean isRateLimited(Throwable error) {
+        return error instanceof WebClientResponseException response
+                && response.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    static Duration retryAfter(WebClientResponseException error) {
+        String header = error.getHeaders().getFirst("Retry-After");
+        if (header != null) {
+            try {
+                return Duration.ofMillis((long) (Double.parseDouble(header.trim()) * 1000));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring non-numeric Retry-After: {}", header);
+            }
+        }
+        return DEFAULT_RETRY_AFTER;
+    }
+
+    static final class Waiter {
+
+        private final int tokens;
+        private final boolean query;
+        private final MonoSink<Waiter> sink;
+        private volatile boolean used;
+        private boolean reserved;
+
+        private Waiter(int tokens, boolean query, MonoSink<Waiter> sink) {
+            this.tokens = tokens;
+            this.query = query;
+            this.sink = sink;
+        }
+    }
+}
@@ -2,30 +2,60 @@ package com.haraldsson.aidocbackend.filemanagement.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.haraldsson.aidocbackend.filemanagement.utils.TokenCounter;
 import io.netty.handler.timeout.ReadTimeoutException;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
 public class EmbeddingService {
 
     private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
+    static final String MODEL = "text-embedding-ada-002";
+
     private final WebClient webClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final QueryEmbeddingCache queryCache;
+    private final EmbeddingRateLimiter rateLimiter;
+    private final EmbeddingCache embeddingCache;
+
+    @Value("${app.embedding.batch.max-inputs:256}")
+    private int batchMaxInputs;
+
+    @Value("${app.embedding.batch.max-tokens:100000}")
+    private int batchMaxTokens;
+
+    @Value("${app.embedding.batch.retries:3}")
+    private int batchRetries;
 
-    public EmbeddingService() {
+    @Value("${app.embedding.batch.retry-backoff-ms:2000}")
+    private long batchRetryBackoffMillis;
+
+    public EmbeddingService(QueryEmbeddingCache queryCache, EmbeddingRateLimiter rateLimiter,
+                            EmbeddingCache embeddingCache) {
+        this.queryCache = queryCache;
+        this.rateLimiter = rateLimiter;
+        this.embeddingCache = embeddingCache;
         String token = System.getenv("OPENAI_API_TOKEN");
 
         if (token == null || token.isEmpty()) {
@@ -48,32 +78,53 @@ public class EmbeddingService {
                 .build();
     }
 
+    /**
+     * Embeds a user question, served from {@link QueryEmbeddingCache} when the same question
+     * was asked recently. Chunk content is cached separately, by content hash in the shared
+     * {@link EmbeddingCache}, through {@link #createEmbeddings}. Misses go through the rate
+     * limiter's question lane, ahead of chunk batches.
+     */
+    public Mono<float[]> createQueryEmbedding(String question) {
+        if (question == null || question.trim().isEmpty()) {
+            return createEmbedding(question, true);
+        }
+        return queryCache.get(MODEL, question, () -> createEmbedding(question, true));
+    }
+
+    public QueryEmbeddingCache.Stats queryCacheStats() {
+        return queryCache.stats();
+    }
+
+    public EmbeddingCache.Stats contentCacheStats() {
+        return embeddingCache.stats();
+    }
+
     public Mono<float[]> createEmbedding(String text) {
+        return createEmbedding(text, false);
+    }
+
+    private Mono<float[]> createEmbedding(String text, boolean query) {
         if (text == null || text.trim().isEmpty()) {
             logger.warn("Cannot create embedding for empty or null text");
             return Mono.empty();
         }
 
-        String truncatedText = text.length() > 8000
-                ? text.substring(0, 8000)
-                : text;
+        String truncatedText = truncateInput(text);
 
         logger.debug("Creating embedding for text ({} chars, truncated from {} chars)",
                 truncatedText.length(), text.length());
 
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", "text-embedding-ada-002");
+        requestBody.put("model", MODEL);
         requestBody.put("input", truncatedText);
 
-        return webClient.post()
-                .uri("/embeddings")
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(String.class)
-                .timeout(Duration.ofSeconds(30))  // Timeout per request
+        int tokens = TokenCounter.count(truncatedText);
+        return (query
+                        ? rateLimiter.executeQuery(tokens, () -> postEmbeddings(requestBody))
+                        : rateLimiter.execute(tokens, () -> postEmbeddings(requestBody)))
                 .flatMap(this::parseEmbeddingResponse)
                 .retryWhen(Retry.backoff(2, Duration.ofSeconds(2))
-                        .filter(e -> e instanceof ReadTimeoutException))
+                        .filter(EmbeddingService::isTransient))
                 .doOnSuccess(embedding -> {
                     logger.info("Embedding created successfully: {} dimensions", embedding.length);
                 })
@@ -82,6 +133,177 @@ public class EmbeddingService {
                 });
     }
 
+    /**
+     * Embeds many texts with as few requests as possible. Texts already in the shared
+     * {@link EmbeddingCache} are not sent. The rest are packed in order into requests of at
+     * most {@code app.embedding.batch.max-inputs} inputs and {@code app.embedding.batch.max-tokens}
+     * tokens, and results are mapped back by the {@code index} of each returned item. A request
+     * that is throttled or fails on the server side is retried whole with backoff. Only items
+     * missing from a successful response, or the items of a request rejected as invalid, are
+     * retried one by one through {@link #createEmbedding}, which isolates the offending input.
+     * New embeddings are added to the cache.
+     *
+     * @return one entry per input, in input order; null where no embedding could be created
+     */
+    public Mono<List<float[]>> createEmbeddings(List<String> texts) {
+        if (texts.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        List<String> inputs = texts.stream().map(text -> text == null ? null : truncateInput(text)).toList();
+        float[][] results = new float[texts.size()][];
+        return embeddingCache.lookup(MODEL, inputs)
+                .flatMap(cached -> {
+                    cached.forEach((i, embedding) -> results[i] = embedding);
+                    List<Batch> batches = packBatches(texts, results);
+                    if (!cached.isEmpty()) {
+                        logger.info("{} of {} embeddings served from cache", cached.size(), texts.size());
+                    }
+                    // Batches run concurrently; the shared rate limiter decides how many are in flight
+                    return Flux.fromIterable(batches)
+                            .flatMap(batch -> embedBatch(texts, batch, results), rateLimiter.maxConcurrent())
+                            .then(Mono.defer(() -> embeddingCache.store(MODEL,
+                                    batches.stream().flatMap(batch -> batch.indexes().stream()).map(inputs::get).toList(),
+                                    batches.stream().flatMap(batch -> batch.indexes().stream()).map(i -> results[i]).toList())));
+                })
+                .then(Mono.fromSupplier(() -> Arrays.asList(results)));
+    }
+
+    List<Batch> packBatches(List<String> texts) {
+        return packBatches(texts, new float[texts.size()][]);
+    }
+
+    /**
+     * Packs the non-blank texts that have no result yet.
+     */
+    List<Batch> packBatches(List<String> texts, float[][] known) {
+        List<Batch> batches = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text == null || text.trim().isEmpty() || known[i] != null) {
+                continue;
+            }
+            int tokens = TokenCounter.count(truncateInput(text));
+            if (!current.isEmpty() && (current.size() >= batchMaxInputs || currentTokens + tokens > batchMaxTokens)) {
+                batches.add(new Batch(current, currentTokens));
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(i);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(new Batch(current, currentTokens));
+        }
+        return batches;
+    }
+
+    private Mono<Void> embedBatch(List<String> texts, Batch packed, float[][] results) {
+        List<Integer> batch = packed.indexes();
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", MODEL);
+        requestBody.put("input", batch.stream().map(i -> truncateInput(texts.get(i))).toList());
+
+        logger.debug("Creating {} embeddings in one request", batch.size());
+        return rateLimiter.execute(packed.tokens(), () -> postEmbeddings(requestBody))
+                .retryWhen(Retry.backoff(batchRetries, Duration.ofMillis(batchRetryBackoffMillis))
+                        .filter(EmbeddingService::isTransient)
+                        .doBeforeRetry(signal -> logger.warn("Embedding batch of {} failed, retry {}: {}",
+                                batch.size(), signal.totalRetries() + 1, signal.failure().getMessage())))
+                .map(this::parseBatchResponse)
+                .onErrorResume(e -> {
+                    Throwable cause = Exceptions.isRetryExhausted(e) ? e.getCause() : e;
+                    if (!isRejectedInput(cause)) {
+                        // One item at a time would only hit the same throttled or failing API harder
+                        logger.error("Embedding batch of {} failed: {}", batch.size(), cause.getMessage());
+                        return Mono.empty();
+                    }
+                    logger.warn("Embedding batch of {} rejected, retrying items individually: {}",
+                            batch.size(), cause.getMessage());
+                    return Mono.just(Map.of());
+                })
+                .flatMap(embeddings -> {
+                    List<Integer> missing = new ArrayList<>();
+                    for (int position = 0; position < batch.size(); position++) {
+                        float[] embedding = embeddings.get(position);
+                        if (embedding != null) {
+                            results[batch.get(position)] = embedding;
+                        } else {
+                            missing.add(batch.get(position));
+                        }
+                    }
+                    if (!missing.isEmpty() && missing.size() < batch.size()) {
+                        logger.warn("{} of {} embeddings missing from batch response, retrying individually",
+                                missing.size(), batch.size());
+                    }
+                    return Flux.fromIterable(missing)
+                            .concatMap(i -> createEmbedding(texts.get(i))
+                                    .doOnNext(embedding -> results[i] = embedding)
+                                    .onErrorResume(e -> Mono.empty()))
+                            .then();
+                });
+    }
+
+    Mono<String> postEmbeddings(Map<String, Object> requestBody) {
+        return webClient.post()
+                .uri("/embeddings")
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+    /**
+     * Timeouts, throttling and server errors say nothing about the input and may pass on retry.
+     * A 429 only gets here once {@link EmbeddingRateLimiter} has used up its own retries.
+     */
+    static boolean isTransient(Throwable e) {
+        if (e instanceof ReadTimeoutException || e instanceof WebClientRequestException) {
+            return true;
+        }
+        return e instanceof WebClientResponseException response
+                && (response.getStatusCode().value() == 429 || response.getStatusCode().is5xxServerError());
+    }
+
+    static boolean isRejectedInput(Throwable e) {
+        return e instanceof WebClientResponseException response && response.getStatusCode().value() == 400;
+    }
+
+    private Map<Integer, float[]> parseBatchResponse(String json) {
+        try {
+            JsonNode data = objectMapper.readTree(json).get("data");
+            Map<Integer, float[]> embeddings = new HashMap<>();
+            if (data == null || !data.isArray()) {
+                logger.error("No data in embedding batch response");
+                return embeddings;
+            }
+            for (JsonNode item : data) {
+                JsonNode embeddingNode = item.get("embedding");
+                if (item.has("index") && embeddingNode != null && embeddingNode.isArray()) {
+                    embeddings.put(item.get("index").asInt(), toFloatArray(embeddingNode));
+                }
+            }
+            return embeddings;
+        } catch (Exception e) {
+            logger.error("Error parsing embedding batch JSON", e);
+            return Map.of();
+        }
+    }
+
+    record Batch(List<Integer> indexes, int tokens) {}
+
+    private static String truncateInput(String text) {
+        return text.length() > 8000 ? text.substring(0, 8000) : text;
+    }
+
+    private static float[] toFloatArray(JsonNode embeddingNode) {
+        float[] embedding = new float[embeddingNode.size()];
+        for (int i = 0; i < embeddingNode.size(); i++) {
+            embedding[i] = embeddingNode.get(i).floatValue();
+        }
+        return embedding;
+    }
+
     private Mono<float[]> parseEmbeddingResponse(String json) {
         try {
             JsonNode root = objectMapper.readTree(json);
@@ -98,10 +320,7 @@ public class EmbeddingService {
                 return Mono.empty();
             }
 
-            float[] embedding = new float[embeddingNode.size()];
-            for (int i = 0; i < embeddingNode.size(); i++) {
-                embedding[i] = embeddingNode.get(i).floatValue();
-            }
+            float[] embedding = toFloatArray(embeddingNode);
 
             logger.debug("Successfully parsed embedding with {} dimensions", embedding.length);
             return Mono.just(embedding);
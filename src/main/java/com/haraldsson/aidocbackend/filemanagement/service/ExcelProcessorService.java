@@ -1,193 +1,302 @@
 package com.haraldsson.aidocbackend.filemanagement.service;
 
 import com.haraldsson.aidocbackend.advice.exceptions.FileProcessingException;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Extracts workbook text with POI's event models, reading straight from the file in one pass:
+ * SAX over the sheet XML for {@code .xlsx} and the HSSF record stream for {@code .xls}. No
+ * cell objects are built; only the output text and, for xlsx, the shared strings are held.
+ */
 @Service
 public class ExcelProcessorService {
 
     private static final Logger log = LoggerFactory.getLogger(ExcelProcessorService.class);
+    private static final int MAX_COLUMNS = 50;
 
-    public Mono<String> extractTextFromExcel(byte[] excelBytes) {
-        return Mono.fromCallable(() -> processExcelBytes(excelBytes));
+    public Mono<String> extractText(Path file) {
+        return Mono.fromCallable(() -> processExcelFile(file))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
-    public Mono<String> streamAndExtractText(FilePart filePart) {
-        return Mono.usingWhen(
-                Mono.fromCallable(() -> Files.createTempFile("excel-", getExtension(filePart.filename()))),
-                tempFile -> filePart.transferTo(tempFile)
-                        .then(Mono.fromCallable(() -> {
-                            byte[] fileBytes = Files.readAllBytes(tempFile);
-                            return processExcelBytes(fileBytes);
-                        })),
-                tempFile -> Mono.fromRunnable(() -> {
-                    try {
-                        Files.deleteIfExists(tempFile);
-                    } catch (IOException e) {
-                        log.warn("Failed to delete temp file: {}", tempFile, e);
-                    }
-                })
-        );
-    }
-
-    private String processExcelBytes(byte[] excelBytes) throws IOException {
-        if (excelBytes == null || excelBytes.length == 0) {
+    private String processExcelFile(Path file) throws IOException {
+        if (Files.size(file) == 0) {
             throw new FileProcessingException("Excel file is empty");
         }
 
-        try (Workbook workbook = createWorkbook(excelBytes)) {
-            StringBuilder result = new StringBuilder();
-            result.append("=== EXCEL DOCUMENT ===\n\n");
-
-            for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
-                Sheet sheet = workbook.getSheetAt(sheetIndex);
-                String sheetName = sheet.getSheetName();
-                result.append("--- WORKSHEET: '").append(sheetName).append("' ---\n\n");
-
-                List<List<String>> tableData = readSheetAsTable(sheet);
-                if (tableData.isEmpty()) {
-                    result.append("(empty sheet)\n\n");
-                    continue;
-                }
-
-                result.append("DATA IN TABULAR FORM:\n");
-                for (List<String> row : tableData) {
-                    result.append(String.join(" | ", row)).append("\n");
-                }
-                result.append("\n");
-
-                result.append("SUMMARY: ")
-                        .append(tableData.size() - 1).append(" data rows, ")
-                        .append(tableData.get(0).size()).append(" columns\n\n");
-            }
+        FileMagic magic;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            magic = FileMagic.valueOf(in);
+        }
 
-            return result.toString();
+        try {
+            return switch (magic) {
+                case OOXML -> extractXlsx(file);
+                case OLE2 -> extractXls(file);
+                default -> throw new FileProcessingException("Invalid Excel file");
+            };
+        } catch (FileProcessingException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Excel processing error: {}", e.getMessage());
             throw new FileProcessingException("Excel processing error: " + e.getMessage(), e);
         }
     }
 
-    private String getExtension(String filename) {
-        if (filename.toLowerCase().endsWith(".xlsx")) return ".xlsx";
-        if (filename.toLowerCase().endsWith(".xls")) return ".xls";
-        return ".tmp";
-    }
+    private String extractXlsx(Path file) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg, false);
+            StylesTable styles = reader.getStylesTable();
+            DataFormatter formatter = new DataFormatter();
+            WorkbookTextWriter writer = new WorkbookTextWriter();
 
-    private Workbook createWorkbook(byte[] bytes) throws IOException {
-        if (bytes == null || bytes.length < 8) {
-            throw new FileProcessingException("Invalid Excel file");
-        }
-
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes)) {
-            if (isXlsxFile(bytes)) {
-                try {
-                    return new XSSFWorkbook(bis);
-                } catch (Exception e) {
-                    log.warn("XSSFWorkbook failed, trying HSSFWorkbook: {}", e.getMessage());
-                    bis.reset();
-                    return new HSSFWorkbook(bis);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    writer.startSheet(sheets.getSheetName());
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                            new XlsxRowHandler(writer), formatter, false));
+                    parser.parse(new InputSource(sheet));
+                    writer.endSheet();
                 }
-            } else {
-                return new HSSFWorkbook(bis);
             }
-        } catch (Exception e) {
-            throw new FileProcessingException("Cannot read Excel file", e);
+            return writer.text();
         }
     }
 
-    private boolean isXlsxFile(byte[] bytes) {
-        return bytes.length > 4 && bytes[0] == 0x50 && bytes[1] == 0x4B;
+    private String extractXls(Path file) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file.toFile(), true)) {
+            WorkbookTextWriter writer = new WorkbookTextWriter();
+            XlsRecordListener listener = new XlsRecordListener(writer);
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(listener.formats);
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+            return writer.text();
+        }
     }
 
-    private List<List<String>> readSheetAsTable(Sheet sheet) {
-        List<List<String>> table = new ArrayList<>();
-        int maxColumns = findMaxColumns(sheet);
+    /**
+     * Formats rows as they arrive. Each sheet's table header needs the widest row, so it is
+     * inserted in front of the sheet's rows once the sheet ends.
+     */
+    private static final class WorkbookTextWriter {
 
-        if (maxColumns > 0) {
-            List<String> headerRow = new ArrayList<>();
-            for (int col = 0; col < maxColumns; col++) {
-                headerRow.add("Col " + (col + 1));
-            }
-            table.add(headerRow);
+        private final StringBuilder result = new StringBuilder("=== EXCEL DOCUMENT ===\n\n");
+        private final List<String> row = new ArrayList<>();
+        private int rowsStart;
+        private int dataRows;
+        private int maxColumns;
+
+        void startSheet(String name) {
+            result.append("--- WORKSHEET: '").append(name).append("' ---\n\n");
+            rowsStart = result.length();
+            dataRows = 0;
+            maxColumns = 0;
+            row.clear();
         }
 
-        for (Row row : sheet) {
-            List<String> rowData = new ArrayList<>();
-            for (int col = 0; col < maxColumns; col++) {
-                Cell cell = row.getCell(col, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
-                rowData.add(getCellValueAsString(cell));
+        void cell(int column, String value) {
+            if (column < 0 || column >= MAX_COLUMNS || value == null || value.isBlank()) {
+                return;
             }
-            if (!isRowEmpty(rowData)) {
-                table.add(rowData);
+            while (row.size() <= column) {
+                row.add("");
             }
+            row.set(column, value.trim());
         }
 
-        return table;
-    }
+        void endRow() {
+            if (row.isEmpty()) {
+                return;
+            }
+            result.append(String.join(" | ", row)).append('\n');
+            dataRows++;
+            maxColumns = Math.max(maxColumns, row.size());
+            row.clear();
+        }
 
-    private int findMaxColumns(Sheet sheet) {
-        int maxCols = 0;
-        for (Row row : sheet) {
-            int lastCellNum = row.getLastCellNum();
-            if (lastCellNum > maxCols) {
-                maxCols = lastCellNum;
+        void endSheet() {
+            endRow();
+            if (dataRows == 0) {
+                result.append("(empty sheet)\n\n");
+                return;
+            }
+            StringBuilder header = new StringBuilder("DATA IN TABULAR FORM:\n");
+            for (int col = 0; col < maxColumns; col++) {
+                header.append(col == 0 ? "" : " | ").append("Col ").append(col + 1);
             }
+            result.insert(rowsStart, header.append('\n'));
+            result.append('\n')
+                    .append("SUMMARY: ").append(dataRows).append(" data rows, ")
+                    .append(maxColumns).append(" columns\n\n");
+        }
+
+        String text() {
+            return result.toString();
         }
-        return Math.min(maxCols, 50);
     }
 
-    private boolean isRowEmpty(List<String> row) {
-        return row.stream().allMatch(cell -> cell == null || cell.trim().isEmpty());
+    private static final class XlsxRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final WorkbookTextWriter writer;
+        private int nextColumn;
+
+        XlsxRowHandler(WorkbookTextWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            writer.endRow();
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // The reference is optional in the file format; without it cells are consecutive
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : nextColumn;
+            writer.cell(column, formattedValue);
+            nextColumn = column + 1;
+        }
     }
 
-    private String getCellValueAsString(Cell cell) {
-        if (cell == null) return "";
-        try {
-            return switch (cell.getCellType()) {
-                case STRING -> cell.getStringCellValue().trim();
-                case NUMERIC -> {
-                    if (DateUtil.isCellDateFormatted(cell)) {
-                        yield cell.getDateCellValue().toString();
-                    } else {
-                        double value = cell.getNumericCellValue();
-                        if (value == Math.floor(value) && !Double.isInfinite(value)) {
-                            yield String.valueOf((long) value);
-                        } else {
-                            yield String.valueOf(value);
+    /**
+     * Record-level listener for the BIFF8 stream. Formula cells use their cached result; a
+     * string result arrives in the {@link StringRecord} that follows the formula.
+     */
+    private static final class XlsRecordListener implements HSSFListener {
+
+        private final WorkbookTextWriter writer;
+        private final FormatTrackingHSSFListener formats;
+        private final List<BoundSheetRecord> boundSheets = new ArrayList<>();
+        private BoundSheetRecord[] orderedSheets;
+        private SSTRecord sst;
+        private int sheetIndex = -1;
+        private int depth = 0;
+        private boolean inWorksheet = false;
+        private int pendingStringColumn = -1;
+
+        XlsRecordListener(WorkbookTextWriter writer) {
+            this.writer = writer;
+            this.formats = new FormatTrackingHSSFListener(new MissingRecordAwareHSSFListener(this));
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record) {
+                case BoundSheetRecord sheet -> boundSheets.add(sheet);
+                case BOFRecord bof -> {
+                    depth++;
+                    if (depth == 1 && bof.getType() == BOFRecord.TYPE_WORKSHEET) {
+                        if (orderedSheets == null) {
+                            orderedSheets = BoundSheetRecord.orderByBofPosition(boundSheets);
                         }
+                        sheetIndex++;
+                        inWorksheet = true;
+                        writer.startSheet(sheetIndex < orderedSheets.length
+                                ? orderedSheets[sheetIndex].getSheetname()
+                                : "Sheet" + (sheetIndex + 1));
                     }
                 }
-                case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-                case FORMULA -> {
-                    try {
-                        yield String.valueOf(cell.getNumericCellValue());
-                    } catch (Exception e) {
-                        try {
-                            yield cell.getStringCellValue();
-                        } catch (Exception e2) {
-                            yield cell.getCellFormula();
-                        }
+                case EOFRecord eof -> {
+                    if (depth == 1 && inWorksheet) {
+                        writer.endSheet();
+                        inWorksheet = false;
                     }
+                    depth--;
                 }
-                default -> "";
-            };
-        } catch (Exception e) {
-            log.warn("Error reading cell value: {}", e.getMessage());
-            return "[ERROR]";
+                case SSTRecord strings -> sst = strings;
+                case LabelSSTRecord label -> {
+                    if (sst != null) {
+                        writer.cell(label.getColumn(), sst.getString(label.getSSTIndex()).getString());
+                    }
+                }
+                case LabelRecord label -> writer.cell(label.getColumn(), label.getValue());
+                case NumberRecord number -> writer.cell(number.getColumn(), formats.formatNumberDateCell(number));
+                case BoolErrRecord boolErr -> {
+                    if (boolErr.isBoolean()) {
+                        writer.cell(boolErr.getColumn(), displayBoolean(boolErr.getBooleanValue()));
+                    }
+                }
+                case FormulaRecord formula -> {
+                    CellType result = formula.getCachedResultTypeEnum();
+                    if (result == CellType.STRING) {
+                        pendingStringColumn = formula.getColumn();
+                    } else if (result == CellType.NUMERIC) {
+                        writer.cell(formula.getColumn(), formats.formatNumberDateCell(formula));
+                    } else if (result == CellType.BOOLEAN) {
+                        writer.cell(formula.getColumn(), displayBoolean(formula.getCachedBooleanValue()));
+                    }
+                }
+                case StringRecord string -> {
+                    if (pendingStringColumn >= 0) {
+                        writer.cell(pendingStringColumn, string.getString());
+                        pendingStringColumn = -1;
+                    }
+                }
+                case LastCellOfRowDummyRecord rowEnd -> {
+                    if (inWorksheet) {
+                        writer.endRow();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        // Same text the xlsx path gets from DataFormatter
+        private static String displayBoolean(boolean value) {
+            return value ? "TRUE" : "FALSE";
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import java.util.Arrays;
+
+/**
+ * Cleaned text of an upload. For paged formats {@code pageStarts[i]} is the offset in
+ * {@code text} where page {@code i + 1} begins; other formats have no pages.
+ */
+record ExtractedText(String text, int[] pageStarts) {
+
+    static ExtractedText unpaged(String text) {
+        return new ExtractedText(text, new int[0]);
+    }
+
+    /**
+     * @return the 1-based page containing {@code offset}, or null without page information
+     */
+    Integer pageAt(int offset) {
+        if (pageStarts.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(pageStarts, offset);
+        // Empty pages share their start with the next page; report the last of them
+        if (index >= 0) {
+            while (index + 1 < pageStarts.length && pageStarts[index + 1] == offset) {
+                index++;
+            }
+            return index + 1;
+        }
+        return Math.max(1, -index - 1);
+    }
+}
@@ -0,0 +1,58 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.ResourceNotFoundException;
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJob;
+import com.haraldsson.aidocbackend.filemanagement.repository.IngestionJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Accepts uploads as durable ingestion jobs. The file is streamed to the {@link IngestionSpool}
+ * and the job row keeps its path, so the request can return as soon as it is stored and any
+ * node's {@link IngestionWorker} can process it.
+ */
+@Service
+public class IngestionJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionJobService.class);
+
+    private final IngestionJobRepository ingestionJobRepository;
+    private final IngestionWorker ingestionWorker;
+    private final IngestionSpool ingestionSpool;
+
+    @Value("${app.ingestion.max-file-bytes:52428800}")
+    private int maxFileBytes;
+
+    @Value("${app.ingestion.max-attempts:3}")
+    private int maxAttempts;
+
+    public IngestionJobService(IngestionJobRepository ingestionJobRepository, IngestionWorker ingestionWorker,
+                               IngestionSpool ingestionSpool) {
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.ingestionWorker = ingestionWorker;
+        this.ingestionSpool = ingestionSpool;
+    }
+
+    public Mono<IngestionJob> submit(FilePart filePart, UUID userId) {
+        return ingestionSpool.write(filePart, maxFileBytes)
+                .flatMap(file -> ingestionJobRepository.save(
+                                new IngestionJob(userId, filePart.filename(), file.toString(), maxAttempts))
+                        .onErrorResume(e -> Mono.fromRunnable(() -> ingestionSpool.delete(file.toString()))
+                                .then(Mono.error(e))))
+                .doOnNext(job -> {
+                    log.info("Queued ingestion job {} for {}", job.getId(), job.getFileName());
+                    ingestionWorker.poll();
+                });
+    }
+
+    public Mono<IngestionJob> findForUser(UUID jobId, UUID userId) {
+        return ingestionJobRepository.findStatusByIdAndUserId(jobId, userId)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Job not found")));
+    }
+}
@@ -0,0 +1,69 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Files of uploads waiting for their ingestion job. An upload is streamed to disk as it
+ * arrives, so neither the request nor the job row holds the whole file. With several nodes,
+ * {@code app.ingestion.spool-dir} has to be storage that every node mounts.
+ */
+@Component
+public class IngestionSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionSpool.class);
+
+    private final Path directory;
+
+    public IngestionSpool(@Value("${app.ingestion.spool-dir:${java.io.tmpdir}/aidoc-ingestion}") String directory) {
+        this.directory = Path.of(directory);
+    }
+
+    /**
+     * Streams the upload into a new spool file. Past {@code maxBytes} the file is removed and
+     * the upload fails with a {@link ValidationException}.
+     */
+    public Mono<Path> write(FilePart filePart, int maxBytes) {
+        return Mono.fromCallable(() -> {
+                    Files.createDirectories(directory);
+                    return Files.createTempFile(directory, "upload-", suffixOf(filePart.filename()));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(file -> DataBufferUtils.write(
+                                // One byte past the limit is enough to know the file is too large
+                                DataBufferUtils.takeUntilByteCount(filePart.content(), maxBytes + 1L), file)
+                        .then(Mono.fromCallable(() -> Files.size(file)).subscribeOn(Schedulers.boundedElastic()))
+                        .flatMap(size -> size > maxBytes
+                                ? Mono.<Path>error(new ValidationException(
+                                        "File is too large, max " + maxBytes / (1024 * 1024) + " MB"))
+                                : Mono.just(file))
+                        .onErrorResume(e -> Mono.fromRunnable(() -> delete(file.toString())).then(Mono.error(e))));
+    }
+
+    public void delete(String spoolPath) {
+        if (spoolPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Path.of(spoolPath));
+        } catch (IOException e) {
+            log.warn("Failed to delete spool file: {}", spoolPath, e);
+        }
+    }
+
+    static String suffixOf(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        return dot >= 0 ? filename.substring(dot) : ".tmp";
+    }
+}
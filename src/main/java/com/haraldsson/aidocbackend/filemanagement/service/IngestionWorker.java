@@ -0,0 +1,266 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.FileProcessingException;
+import com.haraldsson.aidocbackend.advice.exceptions.ValidationException;
+import com.haraldsson.aidocbackend.filemanagement.model.Document;
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJob;
+import com.haraldsson.aidocbackend.filemanagement.repository.IngestionJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs queued ingestion jobs. Jobs are claimed with {@code FOR UPDATE SKIP LOCKED}, so any
+ * number of nodes can share the queue. While a job runs, the node sends heartbeats; jobs
+ * whose node stops sending them (a crash) are requeued by whichever node sweeps next.
+ *
+ * <p>On shutdown the worker stops claiming, waits for running jobs up to
+ * {@code shutdown-timeout-seconds}, and hands anything unfinished back to the queue.
+ */
+@Component
+public class IngestionWorker implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionWorker.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final IngestionJobRepository ingestionJobRepository;
+    private final DocumentService documentService;
+    private final IngestionSpool ingestionSpool;
+    private final String nodeId;
+    private final Map<UUID, Disposable> runningJobs = new ConcurrentHashMap<>();
+    private final AtomicBoolean claiming = new AtomicBoolean();
+    private final Disposable.Composite timers = Disposables.composite();
+    private volatile boolean running = false;
+
+    @Value("${app.ingestion.worker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ingestion.worker.concurrency:2}")
+    private int concurrency;
+
+    @Value("${app.ingestion.worker.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    @Value("${app.ingestion.worker.heartbeat-seconds:15}")
+    private int heartbeatSeconds;
+
+    @Value("${app.ingestion.worker.stale-after-seconds:120}")
+    private int staleAfterSeconds;
+
+    @Value("${app.ingestion.worker.shutdown-timeout-seconds:25}")
+    private int shutdownTimeoutSeconds;
+
+    @Value("${app.ingestion.retry-delay-seconds:30}")
+    private int retryDelaySeconds;
+
+    public IngestionWorker(IngestionJobRepository ingestionJobRepository, DocumentService documentService,
+                           IngestionSpool ingestionSpool, @Value("${app.ingestion.node-id:}") String nodeId) {
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.documentService = documentService;
+        this.ingestionSpool = ingestionSpool;
+        this.nodeId = nodeId == null || nodeId.isBlank()
+                ? hostName() + "-" + UUID.randomUUID().toString().substring(0, 8)
+                : nodeId;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            log.info("Ingestion worker disabled on this node");
+            return;
+        }
+        running = true;
+        timers.add(Flux.interval(Duration.ofMillis(pollIntervalMs))
+                .onBackpressureDrop()
+                .subscribe(tick -> poll()));
+        timers.add(Flux.interval(Duration.ofSeconds(heartbeatSeconds))
+                .onBackpressureDrop()
+                .concatMap(tick -> runningJobs.isEmpty()
+                        ? Mono.empty()
+                        : ingestionJobRepository.heartbeat(nodeId).onErrorResume(e -> {
+                            log.warn("Ingestion heartbeat failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe());
+        timers.add(Flux.interval(Duration.ofSeconds(heartbeatSeconds), Duration.ofSeconds(staleAfterSeconds / 2 + 1))
+                .onBackpressureDrop()
+                .concatMap(tick -> ingestionJobRepository.requeueStale(staleAfterSeconds)
+                        .flatMap(requeued -> reapSpoolFiles().thenReturn(requeued))
+                        .onErrorResume(e -> {
+                            log.warn("Stale ingestion job sweep failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .filter(requeued -> requeued > 0)
+                .subscribe(requeued -> log.warn("Recovered {} ingestion jobs from unresponsive workers", requeued)));
+        log.info("Ingestion worker {} started with concurrency {}", nodeId, concurrency);
+    }
+
+    /**
+     * Claims jobs until the queue is empty or every slot is busy. Safe to call at any time;
+     * overlapping calls collapse into the one already running.
+     */
+    public void poll() {
+        if (!running || !claiming.compareAndSet(false, true)) {
+            return;
+        }
+        claimWhileFree()
+                .doFinally(signal -> claiming.set(false))
+                .subscribe(null, e -> log.warn("Claiming ingestion jobs failed: {}", e.getMessage()));
+    }
+
+    private Mono<Void> claimWhileFree() {
+        if (!running || runningJobs.size() >= concurrency) {
+            return Mono.empty();
+        }
+        return ingestionJobRepository.claimNext(nodeId)
+                .doOnNext(this::launch)
+                .flatMap(job -> claimWhileFree());
+    }
+
+    private void launch(IngestionJob job) {
+        log.info("Running ingestion job {} ({}), attempt {}", job.getId(), job.getFileName(), job.getAttempts());
+        // The slot is taken before the job starts, so a job that finishes at once still frees it
+        Disposable.Swap execution = Disposables.swap();
+        runningJobs.put(job.getId(), execution);
+        execution.update(process(job)
+                .doFinally(signal -> {
+                    runningJobs.remove(job.getId(), execution);
+                    poll();
+                })
+                .subscribe(null, e -> log.error("Ingestion job {} could not be recorded: {}", job.getId(), e.getMessage())));
+    }
+
+    int runningJobCount() {
+        return runningJobs.size();
+    }
+
+    /**
+     * Runs the job and records the outcome. The spool file goes once the job is finished, and
+     * only if this node still held the job; otherwise another node may be reading it.
+     */
+    private Mono<Integer> process(IngestionJob job) {
+        return ingest(job)
+                .flatMap(document -> ingestionJobRepository.markSucceeded(job.getId(), nodeId, document.getId()))
+                .doOnNext(updated -> {
+                    log.info("Ingestion job {} succeeded", job.getId());
+                    if (updated > 0) {
+                        ingestionSpool.delete(job.getSpoolPath());
+                    }
+                })
+                .onErrorResume(e -> {
+                    boolean retryable = !(e instanceof FileProcessingException || e instanceof ValidationException);
+                    log.warn("Ingestion job {} failed on attempt {} ({}): {}", job.getId(), job.getAttempts(),
+                            retryable ? "will retry if attempts remain" : "not retryable", e.getMessage());
+                    return ingestionJobRepository.markFailed(job.getId(), nodeId, truncate(e.getMessage()),
+                                    retryable, retryDelaySeconds * job.getAttempts())
+                            .doOnNext(updated -> {
+                                if (updated > 0 && (!retryable || job.getAttempts() >= job.getMaxAttempts())) {
+                                    ingestionSpool.delete(job.getSpoolPath());
+                                }
+                            });
+                });
+    }
+
+    /**
+     * Jobs queued before uploads were spooled to disk still carry the file in the row.
+     */
+    private Mono<Document> ingest(IngestionJob job) {
+        if (job.getSpoolPath() != null) {
+            return documentService.ingestFile(job.getUserId(), job.getFileName(), Path.of(job.getSpoolPath()));
+        }
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> Files.write(
+                        Files.createTempFile("ingest-", IngestionSpool.suffixOf(job.getFileName())),
+                        job.getPayload())).subscribeOn(Schedulers.boundedElastic()),
+                file -> documentService.ingestFile(job.getUserId(), job.getFileName(), file),
+                file -> Mono.fromRunnable(() -> deleteQuietly(file)));
+    }
+
+    private Mono<Void> reapSpoolFiles() {
+        return ingestionJobRepository.takeFinishedSpoolPaths()
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(ingestionSpool::delete)
+                .count()
+                .filter(reaped -> reaped > 0)
+                .doOnNext(reaped -> log.info("Deleted {} spool files of finished ingestion jobs", reaped))
+                .then();
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        running = false;
+        if (!enabled) {
+            callback.run();
+            return;
+        }
+        log.info("Ingestion worker stopping, waiting for {} running jobs", runningJobs.size());
+        Flux.interval(Duration.ZERO, Duration.ofMillis(200))
+                .takeUntil(tick -> runningJobs.isEmpty())
+                .then()
+                .timeout(Duration.ofSeconds(shutdownTimeoutSeconds), Mono.defer(() -> {
+                    log.warn("Ingestion jobs still running at shutdown, returning {} to the queue", runningJobs.size());
+                    runningJobs.values().forEach(Disposable::dispose);
+                    return ingestionJobRepository.releaseAll(nodeId).then();
+                }))
+                .onErrorResume(e -> {
+                    log.warn("Releasing ingestion jobs failed, they are recovered after the stale timeout: {}",
+                            e.getMessage());
+                    return Mono.empty();
+                })
+                .doFinally(signal -> {
+                    timers.dispose();
+                    callback.run();
+                })
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        stop(() -> {});
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return "Unknown error";
+        }
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete temp file: {}", file, e);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "node";
+        }
+    }
+}
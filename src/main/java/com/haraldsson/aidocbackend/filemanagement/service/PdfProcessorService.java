@@ -0,0 +1,190 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.FileProcessingException;
+import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts PDF text one page at a time. PDFBox buffers the parsed file in a temp-file
+ * scratch area instead of the heap (up to {@code app.pdf.max-main-memory-bytes} stays in
+ * memory), and each page is cleaned as it is extracted, so no full-document raw text or
+ * regex copies of it are ever built.
+ *
+ * <p>Large PDFs are split into page ranges extracted concurrently on a dedicated pool of
+ * {@code app.pdf.parallel.threads} parsers. PDDocument is not thread-safe, so every range
+ * opens its own handle. Ranges are reassembled in page order. A PDF that is a single range
+ * is extracted from the handle opened to count its pages. The pool is shared by all uploads,
+ * so concurrent jobs queue for parsers instead of adding threads.
+ */
+@Service
+public class PdfProcessorService {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfProcessorService.class);
+
+    private final DocumentChunkHelper documentChunkHelper;
+    private final ExecutorService pool;
+    private final Scheduler scheduler;
+    private final int parallelism;
+
+    @Value("${app.pdf.max-main-memory-bytes:4194304}")
+    private long maxMainMemoryBytes;
+
+    @Value("${app.pdf.parallel.min-pages:64}")
+    private int minPagesForParallel;
+
+    @Value("${app.pdf.parallel.min-pages-per-range:16}")
+    private int minPagesPerRange;
+
+    public PdfProcessorService(DocumentChunkHelper documentChunkHelper,
+                               @Value("${app.pdf.parallel.threads:0}") int threads) {
+        this.documentChunkHelper = documentChunkHelper;
+        this.parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger workers = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-extract-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Schedulers.fromExecutorService(pool, "pdf-extract");
+    }
+
+    public Mono<ExtractedText> extractText(Path file) {
+        return Mono.fromCallable(() -> open(file))
+                .subscribeOn(scheduler)
+                .flatMap(opened -> {
+                    if (opened.pages() != null) {
+                        return Mono.just(opened.pages());
+                    }
+                    List<int[]> ranges = opened.ranges();
+                    log.debug("Extracting {} PDF pages in {} ranges", opened.pageCount(), ranges.size());
+                    return Flux.fromIterable(ranges)
+                            .flatMapSequential(range -> Mono.fromCallable(() -> extractPages(file, range[0], range[1]))
+                                    .subscribeOn(scheduler), ranges.size())
+                            .collectList()
+                            .map(parts -> {
+                                List<String> pages = new ArrayList<>(opened.pageCount());
+                                parts.forEach(pages::addAll);
+                                return pages;
+                            });
+                })
+                .map(pages -> {
+                    ExtractedText text = assemble(pages);
+                    log.info("Extracted {} characters from {} PDF pages", text.text().length(), pages.size());
+                    return text;
+                });
+    }
+
+    /**
+     * Contiguous 1-based page ranges, at most one per parser and none smaller than
+     * {@code min-pages-per-range}; a PDF below {@code min-pages} is a single range.
+     */
+    List<int[]> ranges(int pageCount) {
+        int count = pageCount < minPagesForParallel
+                ? 1
+                : Math.max(1, Math.min(parallelism, pageCount / Math.max(minPagesPerRange, 1)));
+        List<int[]> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int first = (int) ((long) pageCount * i / count) + 1;
+            int last = (int) ((long) pageCount * (i + 1) / count);
+            if (first <= last) {
+                ranges.add(new int[]{first, last});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Counts the pages and plans the ranges. A single range is extracted right away from the
+     * same handle; only a parallel split has to open the file again.
+     */
+    private OpenedPdf open(Path file) {
+        try (PDDocument document = PDDocument.load(file.toFile(), memoryUsage())) {
+            int pageCount = document.getNumberOfPages();
+            List<int[]> ranges = ranges(pageCount);
+            List<String> pages = ranges.size() <= 1 ? extractPages(document, 1, pageCount) : null;
+            return new OpenedPdf(pageCount, ranges, pages);
+        } catch (IOException e) {
+            throw new FileProcessingException("PDF processing error", e);
+        }
+    }
+
+    private List<String> extractPages(Path file, int firstPage, int lastPage) {
+        try (PDDocument document = PDDocument.load(file.toFile(), memoryUsage())) {
+            return extractPages(document, firstPage, lastPage);
+        } catch (IOException e) {
+            throw new FileProcessingException("PDF processing error", e);
+        }
+    }
+
+    private List<String> extractPages(PDDocument document, int firstPage, int lastPage) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper();
+        List<String> pages = new ArrayList<>(Math.max(lastPage - firstPage + 1, 0));
+        for (int page = firstPage; page <= lastPage; page++) {
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            pages.add(documentChunkHelper.cleanTextForDatabase(stripper.getText(document)));
+        }
+        return pages;
+    }
+
+    private static ExtractedText assemble(List<String> pages) {
+        StringBuilder text = new StringBuilder();
+        int[] pageStarts = new int[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            String pageText = pages.get(i);
+            if (pageText.isEmpty()) {
+                pageStarts[i] = -1;
+                continue;
+            }
+            if (!text.isEmpty()) {
+                text.append(' ');
+            }
+            pageStarts[i] = text.length();
+            text.append(pageText);
+        }
+        // Empty pages start where the next page with text does
+        for (int i = pages.size() - 1, next = text.length(); i >= 0; i--) {
+            if (pageStarts[i] < 0) {
+                pageStarts[i] = next;
+            }
+            next = pageStarts[i];
+        }
+        return new ExtractedText(text.toString(), pageStarts);
+    }
+
+    private MemoryUsageSetting memoryUsage() {
+        return maxMainMemoryBytes > 0
+                ? MemoryUsageSetting.setupMixed(maxMainMemoryBytes)
+                : MemoryUsageSetting.setupTempFileOnly();
+    }
+
+    /**
+     * {@code pages} is null when the ranges still have to be extracted in parallel.
+     */
+    private record OpenedPdf(int pageCount, List<int[]> ranges, List<String> pages) {}
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.dispose();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,152 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches question embeddings keyed by model and normalized question text, so a repeated
+ * question skips the OpenAI round-trip. Entries expire after a TTL and the cache is LRU
+ * bounded by the bytes of the stored vectors. Concurrent misses for the same key share
+ * one outbound call.
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Mono<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private long totalBytes = 0;
+
+    @Autowired
+    public QueryEmbeddingCache(@Value("${app.embedding.query-cache.max-bytes:16777216}") long maxBytes,
+                               @Value("${app.embedding.query-cache.ttl-seconds:3600}") long ttlSeconds) {
+        this(maxBytes, Duration.ofSeconds(ttlSeconds), System::nanoTime);
+    }
+
+    QueryEmbeddingCache(long maxBytes, Duration ttl, LongSupplier nanoClock) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns the cached embedding or subscribes to {@code loader} once for all concurrent
+     * callers with the same key. Empty or failed loads are not cached. Callers must not
+     * modify the returned array.
+     */
+    public Mono<float[]> get(String model, String text, Supplier<Mono<float[]>> loader) {
+        if (maxBytes <= 0) {
+            return loader.get();
+        }
+        String key = key(model, text);
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return Mono.just(cached);
+        }
+        return inFlight.computeIfAbsent(key, k -> {
+            misses.incrementAndGet();
+            return Mono.defer(loader)
+                    .doOnNext(embedding -> store(k, embedding))
+                    .doFinally(signal -> inFlight.remove(k))
+                    .cache();
+        });
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), totalBytes);
+        }
+    }
+
+    /**
+     * Case, surrounding whitespace, repeated spaces and trailing punctuation do not change
+     * what is being asked, so they do not get separate entries.
+     */
+    static String key(String model, String text) {
+        String normalized = text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        int end = normalized.length();
+        while (end > 0 && ".?!".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return model + '\n' + normalized.substring(0, end);
+    }
+
+    private float[] lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (nanoClock.getAsLong() - entry.storedAt >= ttlNanos) {
+                remove(key, entry);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.embedding;
+        }
+    }
+
+    private void store(String key, float[] embedding) {
+        Entry entry = new Entry(embedding, nanoClock.getAsLong(), sizeOf(key, embedding));
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        long cachedBytes;
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.bytes;
+            }
+            totalBytes += entry.bytes;
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> candidate = eldest.next();
+                if (candidate.getKey().equals(key)) {
+                    continue;
+                }
+                totalBytes -= candidate.getValue().bytes;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+            cachedBytes = totalBytes;
+        }
+        log.debug("Cached query embedding ({} bytes, {} total)", entry.bytes, cachedBytes);
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        totalBytes -= entry.bytes;
+    }
+
+    private static long sizeOf(String key, float[] embedding) {
+        return (long) key.length() * Character.BYTES + (long) embedding.length * Float.BYTES + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private record Entry(float[] embedding, long storedAt, long bytes) {}
+
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {}
+}
@@ -1,5 +1,6 @@
 package com.haraldsson.aidocbackend.filemanagement.utils;
 
+import com.haraldsson.aidocbackend.filemanagement.retrieval.VectorMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -14,21 +15,24 @@ public class DocumentChunkHelper {
             return 0.0f;
         }
 
-        float dotProduct = 0.0f;
-        float normA = 0.0f;
-        float normB = 0.0f;
-
-        for (int i = 0; i < a.length; i++) {
-            dotProduct += a[i] * b[i];
-            normA += a[i] * a[i];
-            normB += b[i] * b[i];
-        }
-
+        float normA = VectorMath.dot(a, a);
+        float normB = VectorMath.dot(b, b);
         if (normA == 0 || normB == 0) {
             return 0.0f;
         }
 
-        return (float) (dotProduct / (Math.sqrt(normA) * Math.sqrt(normB)));
+        return (float) (VectorMath.dot(a, b) / (Math.sqrt(normA) * Math.sqrt(normB)));
+    }
+
+    /**
+     * Cosine similarity for vectors that are already unit length, such as stored chunk
+     * embeddings and normalized queries. Skips both norm computations.
+     */
+    public float normalizedSimilarity(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return 0.0f;
+        }
+        return VectorMath.dot(a, b);
     }
 
     public String cleanTextForDatabase(String text) {
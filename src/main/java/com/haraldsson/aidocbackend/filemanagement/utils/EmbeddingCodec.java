@@ -0,0 +1,114 @@
+package com.haraldsson.aidocbackend.filemanagement.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs embeddings as little-endian float32 for the {@code embedding_bin} BYTEA column.
+ * A 1536-dimensional vector becomes 6 KB of raw bytes instead of ~18 KB of JSON text,
+ * and decoding is a bulk copy rather than a split/parse per value.
+ */
+public final class EmbeddingCodec {
+
+    public static final int BYTES_PER_FLOAT = Float.BYTES;
+
+    private EmbeddingCodec() {
+    }
+
+    public static byte[] encode(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes.length % BYTES_PER_FLOAT != 0) {
+            return null;
+        }
+        float[] embedding = new float[bytes.length / BYTES_PER_FLOAT];
+        asFloatBuffer(bytes).get(embedding);
+        return embedding;
+    }
+
+    /**
+     * Zero-copy view over the packed bytes, for callers that only need to read the values once.
+     */
+    public static FloatBuffer asFloatBuffer(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    public static int dimensions(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length / BYTES_PER_FLOAT;
+    }
+
+    /**
+     * Returns a unit-length copy. Cosine similarity is scale invariant, so storing
+     * normalized vectors lets scoring reduce to a plain dot product.
+     */
+    public static float[] normalize(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        double sum = 0.0;
+        for (float v : embedding) {
+            sum += (double) v * v;
+        }
+        float[] normalized = new float[embedding.length];
+        if (sum == 0.0) {
+            return normalized;
+        }
+        float inverse = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < embedding.length; i++) {
+            normalized[i] = embedding[i] * inverse;
+        }
+        return normalized;
+    }
+
+    /**
+     * Parses the legacy {@code embedding_json} format ("[0.1, 0.2, ...]") without
+     * building intermediate strings. Only used by the backfill and as a read fallback.
+     */
+    public static float[] parseJson(String json) {
+        if (json == null) {
+            return null;
+        }
+        int length = json.length();
+        int count = 0;
+        boolean hasValue = false;
+        for (int i = 0; i < length; i++) {
+            char c = json.charAt(i);
+            if (c == ',') {
+                count++;
+            } else if (!hasValue && c != '[' && c != ']' && !Character.isWhitespace(c)) {
+                hasValue = true;
+            }
+        }
+        if (!hasValue) {
+            return null;
+        }
+
+        float[] embedding = new float[count + 1];
+        int index = 0;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? json.charAt(i) : ',';
+            boolean separator = c == ',' || c == '[' || c == ']' || Character.isWhitespace(c);
+            if (!separator && start < 0) {
+                start = i;
+            } else if (separator && start >= 0) {
+                embedding[index++] = Float.parseFloat(json.substring(start, i));
+                start = -1;
+            }
+        }
+        if (index != embedding.length) {
+            throw new NumberFormatException("Malformed embedding JSON: expected "
+                    + embedding.length + " values, found " + index);
+        }
+        return embedding;
+    }
+}
@@ -0,0 +1,65 @@
+package com.haraldsson.aidocbackend.filemanagement.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-vector scaled int8 quantization for the {@code embedding_int8} column. The layout is a
+ * little-endian float32 scale followed by one signed byte per dimension, where
+ * {@code value ≈ byte * scale}. A 1536-dimensional embedding takes 1540 bytes instead of 6144.
+ */
+public final class EmbeddingQuantizer {
+
+    public static final int HEADER_BYTES = Float.BYTES;
+
+    private EmbeddingQuantizer() {
+    }
+
+    public static byte[] quantize(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        float maxAbs = 0f;
+        for (float v : embedding) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        float scale = maxAbs == 0f ? 1f : maxAbs / 127f;
+
+        byte[] packed = new byte[HEADER_BYTES + embedding.length];
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).putFloat(0, scale);
+        for (int i = 0; i < embedding.length; i++) {
+            packed[HEADER_BYTES + i] = (byte) Math.round(embedding[i] / scale);
+        }
+        return packed;
+    }
+
+    /**
+     * Packs {@code dimensions} codes starting at {@code offset} with their scale into the column layout.
+     */
+    public static byte[] pack(float scale, byte[] codes, int offset, int dimensions) {
+        byte[] packed = new byte[HEADER_BYTES + dimensions];
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).putFloat(0, scale);
+        System.arraycopy(codes, offset, packed, HEADER_BYTES, dimensions);
+        return packed;
+    }
+
+    public static float scale(byte[] packed) {
+        return ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).getFloat(0);
+    }
+
+    public static int dimensions(byte[] packed) {
+        return packed == null ? 0 : packed.length - HEADER_BYTES;
+    }
+
+    public static float[] dequantize(byte[] packed) {
+        if (packed == null || packed.length <= HEADER_BYTES) {
+            return null;
+        }
+        float scale = scale(packed);
+        float[] embedding = new float[packed.length - HEADER_BYTES];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = packed[HEADER_BYTES + i] * scale;
+        }
+        return embedding;
+    }
+}
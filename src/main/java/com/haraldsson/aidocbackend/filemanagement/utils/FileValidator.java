@@ -5,6 +5,7 @@ import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Component;
 
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 @Component
@@ -52,6 +53,13 @@ public class FileValidator {
         }
     }
 
+    /**
+     * True for an extension without the dot, e.g. {@code pdf}, that uploads accept.
+     */
+    public static boolean isSupportedFileType(String fileType) {
+        return fileType != null && ALLOWED_EXTENSIONS.contains("." + fileType.toLowerCase(Locale.ROOT));
+    }
+
     public String getFileExtension(String filename) {
         if (filename == null) {
             throw new ValidationException("Filename cannot be null");
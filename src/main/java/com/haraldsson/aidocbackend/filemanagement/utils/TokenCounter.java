@@ -0,0 +1,52 @@
+package com.haraldsson.aidocbackend.filemanagement.utils;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+/**
+ * Counts tokens locally with the cl100k_base BPE used by the OpenAI chat and embedding
+ * models, so prompts can be sized in the unit the API bills and limits in.
+ */
+public final class TokenCounter {
+
+    // Chat format overhead per message (role and separators) plus the reply primer
+    public static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    public static final int REPLY_PRIMER_TOKENS = 3;
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private TokenCounter() {
+    }
+
+    public static int count(String text) {
+        return text == null || text.isEmpty() ? 0 : ENCODING.countTokensOrdinary(text);
+    }
+
+    /**
+     * Tokens a single user message costs in a chat completion request.
+     */
+    public static int countChatMessage(String content) {
+        return count(content) + MESSAGE_OVERHEAD_TOKENS + REPLY_PRIMER_TOKENS;
+    }
+
+    /**
+     * Returns the longest prefix of {@code text} that fits in {@code maxTokens}, cut on a
+     * token boundary.
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        IntArrayList tokens = ENCODING.encodeOrdinary(text);
+        if (tokens.size() <= maxTokens) {
+            return text;
+        }
+        IntArrayList prefix = new IntArrayList(maxTokens);
+        for (int i = 0; i < maxTokens; i++) {
+            prefix.add(tokens.get(i));
+        }
+        return ENCODING.decode(prefix);
+    }
+}
@@ -0,0 +1,16 @@
+package com.haraldsson.aidocbackend.filemanagement.utils;
+
+import java.util.UUID;
+
+/**
+ * Start of an {@code id > :afterId ORDER BY id} keyset scan over uuid primary keys. Postgres
+ * orders uuids by their unsigned bytes, so the all-zero uuid sorts before every generated id;
+ * {@link UUID#compareTo} compares signed longs and must not be used to pick the start.
+ */
+public final class UuidKeyset {
+
+    public static final UUID FIRST_ID = new UUID(0L, 0L);
+
+    private UuidKeyset() {
+    }
+}
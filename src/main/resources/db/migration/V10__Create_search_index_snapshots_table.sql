@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS search_index_snapshots (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    user_id UUID NOT NULL,
+    index_type VARCHAR(32) NOT NULL,
+    payload BYTEA NOT NULL,
+    entry_count INTEGER NOT NULL,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_search_index_snapshots_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    CONSTRAINT unique_search_index_snapshot UNIQUE (user_id, index_type)
+);
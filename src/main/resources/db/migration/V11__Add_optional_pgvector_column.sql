@@ -0,0 +1,25 @@
+-- Optional: only databases that ship the pgvector extension get the column and index.
+-- Without it the application keeps using the in-JVM retrieval backend.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_available_extensions WHERE name = 'vector') THEN
+        CREATE EXTENSION IF NOT EXISTS vector;
+
+        ALTER TABLE document_chunks
+            ADD COLUMN IF NOT EXISTS embedding_vector vector(1536);
+
+        BEGIN
+            CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_vector
+                ON document_chunks
+                USING hnsw (embedding_vector vector_cosine_ops);
+        EXCEPTION WHEN OTHERS THEN
+            -- pgvector older than 0.5 has no HNSW support
+            CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_vector
+                ON document_chunks
+                USING ivfflat (embedding_vector vector_cosine_ops)
+                WITH (lists = 100);
+        END;
+    ELSE
+        RAISE NOTICE 'pgvector extension not available, skipping embedding_vector column';
+    END IF;
+END $$;
@@ -0,0 +1,6 @@
+ALTER TABLE document_chunks
+    ADD COLUMN IF NOT EXISTS embedding_int8 BYTEA;
+
+CREATE INDEX IF NOT EXISTS idx_document_chunks_int8_backfill
+    ON document_chunks (id)
+    WHERE embedding_int8 IS NULL AND embedding_bin IS NOT NULL;
@@ -0,0 +1,9 @@
+-- Expression index instead of a stored tsvector column: no table rewrite when the migration runs,
+-- and chunk reads do not carry a tsvector they never use.
+-- 'simple' configuration: no stemming or stopword list, so Swedish and English content is
+-- indexed alike; stopwords are removed from the question before it reaches the database.
+-- Non-alphanumeric runs become spaces first, so the terms are the letter and digit runs that
+-- KeywordTokenizer produces for the BM25 backend, not the parser's email, URL or decimal tokens.
+CREATE INDEX IF NOT EXISTS idx_document_chunks_content_tsv
+    ON document_chunks
+    USING GIN (to_tsvector('simple', regexp_replace(coalesce(content, ''), '[^[:alnum:]]+', ' ', 'g')));
@@ -0,0 +1,7 @@
+-- Document-scoped retrieval reads one user's chunks for a handful of documents
+CREATE INDEX IF NOT EXISTS idx_document_chunks_user_document
+    ON document_chunks (user_id, document_id);
+
+-- Date-range filters on a user's documents
+CREATE INDEX IF NOT EXISTS idx_documents_user_created_at
+    ON documents (user_id, created_at);
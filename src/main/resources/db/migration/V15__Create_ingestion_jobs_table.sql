@@ -0,0 +1,30 @@
+-- Durable upload queue: the spooled file lives in payload until the job finishes, so any
+-- node can pick the job up, including after the node that started it has died.
+CREATE TABLE IF NOT EXISTS ingestion_jobs (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    user_id UUID NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    payload BYTEA,
+    status VARCHAR(16) NOT NULL DEFAULT 'QUEUED',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    max_attempts INTEGER NOT NULL DEFAULT 3,
+    document_id UUID,
+    error TEXT,
+    locked_by VARCHAR(128),
+    heartbeat_at TIMESTAMP,
+    available_at TIMESTAMP,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    finished_at TIMESTAMP,
+    CONSTRAINT fk_ingestion_jobs_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Workers claim the oldest queued job with FOR UPDATE SKIP LOCKED
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_queued
+    ON ingestion_jobs (created_at)
+    WHERE status = 'QUEUED';
+
+-- Heartbeat sweeps and stale-job recovery only touch running jobs
+CREATE INDEX IF NOT EXISTS idx_ingestion_jobs_running
+    ON ingestion_jobs (locked_by, heartbeat_at)
+    WHERE status = 'RUNNING';
@@ -0,0 +1,4 @@
+-- SHA-256 of the chunk text, so a re-upload can keep the rows and embeddings of unchanged chunks.
+-- Existing rows are hashed lazily the first time their document is re-uploaded.
+ALTER TABLE document_chunks
+    ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
@@ -0,0 +1,13 @@
+-- Embeddings shared across users, keyed by SHA-256 of the normalized input text and the model
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    content_hash VARCHAR(64) NOT NULL,
+    model VARCHAR(64) NOT NULL,
+    embedding BYTEA NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_used_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT pk_embedding_cache PRIMARY KEY (content_hash, model)
+);
+
+-- Pruning removes the least recently used rows first
+CREATE INDEX IF NOT EXISTS idx_embedding_cache_last_used_at
+    ON embedding_cache (last_used_at);
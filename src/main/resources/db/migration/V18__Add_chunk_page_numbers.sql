@@ -0,0 +1,4 @@
+-- First and last PDF page a chunk's text comes from; NULL for formats without pages
+ALTER TABLE document_chunks
+    ADD COLUMN IF NOT EXISTS page_start INTEGER,
+    ADD COLUMN IF NOT EXISTS page_end INTEGER;
@@ -0,0 +1,4 @@
+-- Uploads are streamed to a spool file and the job keeps only its path. payload is still read
+-- for jobs queued before this change.
+ALTER TABLE ingestion_jobs
+    ADD COLUMN IF NOT EXISTS spool_path VARCHAR(1024);
@@ -0,0 +1,9 @@
+-- Per-user corpus version shared by all nodes. Every upload, reindex and delete bumps it, and
+-- a node that sees a version it has not seen yet drops what it derived from the old corpus.
+CREATE TABLE IF NOT EXISTS corpus_versions (
+    user_id UUID NOT NULL,
+    version BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT pk_corpus_versions PRIMARY KEY (user_id),
+    CONSTRAINT fk_corpus_versions_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
@@ -0,0 +1,7 @@
+ALTER TABLE document_chunks
+    ADD COLUMN IF NOT EXISTS embedding_bin BYTEA;
+
+-- Keeps the background backfill from scanning already converted rows
+CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_backfill
+    ON document_chunks (id)
+    WHERE embedding_bin IS NULL AND embedding_json IS NOT NULL;
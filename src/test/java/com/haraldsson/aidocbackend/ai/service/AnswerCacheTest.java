@@ -0,0 +1,73 @@
+package com.haraldsson.aidocbackend.ai.service;
+
+import com.haraldsson.aidocbackend.ai.dto.AiResponseDTO;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnswerCacheTest {
+
+    private final UUID user = UUID.randomUUID();
+    private final AiResponseDTO answer = new AiResponseDTO("Licensen kostar 100 kr.", "gpt-3.5-turbo", 812);
+    private AnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AnswerCache();
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(cache, "maxEntriesPerUser", 2);
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.95f);
+    }
+
+    @Test
+    void similarQuestionHitsWhileCorpusIsUnchanged() {
+        cache.store(user, 3, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f), answer);
+
+        assertThat(cache.find(user, 3, RetrievalMode.EMBEDDING, vector(1f, 0.1f, 0f))).isEqualTo(answer);
+        assertThat(cache.find(user, 3, RetrievalMode.EMBEDDING, vector(1f, 1f, 0f))).isNull();
+        assertThat(cache.find(user, 3, RetrievalMode.HYBRID, vector(1f, 0f, 0f))).isNull();
+        assertThat(cache.find(UUID.randomUUID(), 3, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f))).isNull();
+    }
+
+    @Test
+    void answersAreKeptApartPerFilter() {
+        RetrievalFilter pdfsOnly = new RetrievalFilter(Set.of(), Set.of("PDF"), null, null);
+        cache.store(user, 3, RetrievalMode.EMBEDDING, pdfsOnly, vector(1f, 0f, 0f), answer);
+
+        assertThat(cache.find(user, 3, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f))).isNull();
+        assertThat(cache.find(user, 3, RetrievalMode.EMBEDDING, new RetrievalFilter(null, Set.of(".pdf"), null, null),
+                vector(1f, 0f, 0f))).isEqualTo(answer);
+    }
+
+    @Test
+    void newCorpusVersionDropsEntries() {
+        cache.store(user, 3, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f), answer);
+
+        assertThat(cache.find(user, 4, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f))).isNull();
+        assertThat(cache.stats().entries()).isZero();
+        assertThat(cache.stats().bytes()).isZero();
+    }
+
+    @Test
+    void perUserLimitEvictsOldestEntry() {
+        cache.store(user, 1, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f), answer);
+        cache.store(user, 1, RetrievalMode.EMBEDDING, vector(0f, 1f, 0f), answer);
+        cache.store(user, 1, RetrievalMode.EMBEDDING, vector(0f, 0f, 1f), answer);
+
+        assertThat(cache.find(user, 1, RetrievalMode.EMBEDDING, vector(1f, 0f, 0f))).isNull();
+        assertThat(cache.find(user, 1, RetrievalMode.EMBEDDING, vector(0f, 0f, 1f))).isEqualTo(answer);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    private static float[] vector(float... values) {
+        return EmbeddingCodec.normalize(values);
+    }
+}
@@ -0,0 +1,51 @@
+package com.haraldsson.aidocbackend.config;
+
+import com.haraldsson.aidocbackend.ai.dto.AiResponseDTO;
+import com.haraldsson.aidocbackend.ai.service.AnswerCache;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalMode;
+import com.haraldsson.aidocbackend.filemanagement.service.EmbeddingCache;
+import com.haraldsson.aidocbackend.filemanagement.service.EmbeddingService;
+import com.haraldsson.aidocbackend.filemanagement.service.QueryEmbeddingCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CacheMetricsTest {
+
+    @Test
+    void cacheStatsArePublishedPerCache() {
+        EmbeddingService embeddingService = mock(EmbeddingService.class);
+        when(embeddingService.queryCacheStats()).thenReturn(new QueryEmbeddingCache.Stats(7, 3, 1, 5, 4096));
+        when(embeddingService.contentCacheStats()).thenReturn(new EmbeddingCache.Stats(10, 4, 6, 12));
+        AnswerCache answerCache = new AnswerCache();
+        ReflectionTestUtils.setField(answerCache, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(answerCache, "maxEntriesPerUser", 2);
+        ReflectionTestUtils.setField(answerCache, "similarityThreshold", 0.95f);
+        UUID user = UUID.randomUUID();
+        answerCache.store(user, 1, RetrievalMode.EMBEDDING, new float[]{1f, 0f},
+                new AiResponseDTO("Ja.", "gpt-3.5-turbo", 10));
+        answerCache.find(user, 1, RetrievalMode.EMBEDDING, new float[]{1f, 0f});
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new CacheMetrics(embeddingService, answerCache).bindTo(registry);
+
+        assertThat(registry.get("cache.gets").tags("cache", "query-embeddings", "result", "hit").functionCounter().count())
+                .isEqualTo(7);
+        assertThat(registry.get("cache.evictions").tags("cache", "query-embeddings").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("cache.bytes").tags("cache", "query-embeddings").gauge().value()).isEqualTo(4096);
+        assertThat(registry.get("cache.gets").tags("cache", "content-embeddings", "result", "hit").functionCounter().count())
+                .isEqualTo(14);
+        assertThat(registry.get("cache.table.hits").tags("cache", "content-embeddings").functionCounter().count())
+                .isEqualTo(4);
+        assertThat(registry.get("cache.gets").tags("cache", "answers", "result", "hit").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("cache.size").tags("cache", "answers").gauge().value()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import com.haraldsson.aidocbackend.filemanagement.model.Document;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.RetrievalFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.core.ReactiveSelectOperation;
+import org.springframework.data.relational.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentRepositoryCustomImplTest {
+
+    private static final UUID USER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private ArgumentCaptor<Query> query;
+    private DocumentRepositoryCustomImpl repository;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        R2dbcEntityTemplate template = mock(R2dbcEntityTemplate.class);
+        ReactiveSelectOperation.ReactiveSelect<Document> select = mock(ReactiveSelectOperation.ReactiveSelect.class);
+        query = ArgumentCaptor.forClass(Query.class);
+        when(template.select(Document.class)).thenReturn(select);
+        when(select.matching(query.capture())).thenReturn(select);
+        when(select.all()).thenReturn(Flux.empty());
+        repository = new DocumentRepositoryCustomImpl(template);
+    }
+
+    @Test
+    void unfilteredQueryOnlyRestrictsTheUser() {
+        repository.findIdsMatching(USER, RetrievalFilter.NONE).blockLast();
+
+        String where = where();
+        assertThat(where).contains("userId = '" + USER + "'");
+        assertThat(where).doesNotContain("fileName", "createdAt", " IN ");
+    }
+
+    @Test
+    void everySetRestrictionIsApplied() {
+        UUID document = UUID.randomUUID();
+        RetrievalFilter filter = new RetrievalFilter(Set.of(document), Set.of("pdf", "xlsx"),
+                LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31));
+
+        repository.findIdsMatching(USER, filter).blockLast();
+
+        String where = where();
+        assertThat(where).contains("userId = '" + USER + "'");
+        assertThat(where).contains(document.toString());
+        assertThat(where).contains("'%.pdf'", "'%.xlsx'");
+        assertThat(where).contains("createdAt >= '2025-03-01T00:00'", "createdAt < '2025-04-01T00:00'");
+        assertThat(query.getValue().getColumns()).extracting(Object::toString).containsExactly("id");
+    }
+
+    @Test
+    void extensionWildcardsAreMatchedLiterally() {
+        assertThat(DocumentRepositoryCustomImpl.extensionPattern("pdf")).isEqualTo("%.pdf");
+        assertThat(DocumentRepositoryCustomImpl.extensionPattern("%")).isEqualTo("%.\\%");
+        assertThat(DocumentRepositoryCustomImpl.extensionPattern("x_s")).isEqualTo("%.x\\_s");
+        assertThat(DocumentRepositoryCustomImpl.extensionPattern("a\\b")).isEqualTo("%.a\\\\b");
+    }
+
+    private String where() {
+        return query.getValue().getCriteria().orElseThrow().toString();
+    }
+}
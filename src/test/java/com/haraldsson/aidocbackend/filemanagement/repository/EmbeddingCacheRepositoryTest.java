@@ -0,0 +1,82 @@
+package com.haraldsson.aidocbackend.filemanagement.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.FetchSpec;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingCacheRepositoryTest {
+
+    private static final String MODEL = "text-embedding-3-small";
+
+    private DatabaseClient databaseClient;
+    private DatabaseClient.GenericExecuteSpec statement;
+    private ArgumentCaptor<String> sql;
+    private EmbeddingCacheRepository repository;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        databaseClient = mock(DatabaseClient.class);
+        statement = mock(DatabaseClient.GenericExecuteSpec.class, RETURNS_SELF);
+        FetchSpec<Map<String, Object>> fetch = mock(FetchSpec.class);
+        sql = ArgumentCaptor.forClass(String.class);
+        when(databaseClient.sql(sql.capture())).thenReturn(statement);
+        when(statement.fetch()).thenReturn(fetch);
+        when(fetch.rowsUpdated()).thenReturn(Mono.just(2L));
+        repository = new EmbeddingCacheRepository(databaseClient);
+    }
+
+    @Test
+    void saveAllInsertsEveryEntryInOneStatementAndOnlyTouchesExistingRows() {
+        byte[] first = {1, 2, 3, 4};
+        byte[] second = {5, 6, 7, 8};
+
+        Long saved = repository.saveAll(MODEL, List.of(Map.entry("hash-a", first), Map.entry("hash-b", second))).block();
+
+        assertThat(saved).isEqualTo(2L);
+        assertThat(sql.getValue())
+                .startsWith("INSERT INTO embedding_cache (content_hash, model, embedding) VALUES ")
+                .contains("(:hash0, :model, :embedding0), (:hash1, :model, :embedding1)")
+                .endsWith("ON CONFLICT (content_hash, model) DO UPDATE SET last_used_at = CURRENT_TIMESTAMP");
+        verify(statement).bind("model", MODEL);
+        verify(statement).bind("hash0", "hash-a");
+        verify(statement).bind("embedding0", first);
+        verify(statement).bind("hash1", "hash-b");
+        verify(statement).bind("embedding1", second);
+    }
+
+    @Test
+    void saveAllWithoutEntriesRunsNoStatement() {
+        assertThat(repository.saveAll(MODEL, List.of()).block()).isZero();
+
+        verify(databaseClient, never()).sql(anyString());
+    }
+
+    @Test
+    void deleteLeastRecentlyUsedBeyondKeepsTheMostRecentlyUsedRows() {
+        Long deleted = repository.deleteLeastRecentlyUsedBeyond(1000L).block();
+
+        assertThat(deleted).isEqualTo(2L);
+        assertThat(sql.getValue())
+                .startsWith("DELETE FROM embedding_cache c USING (")
+                .contains("ORDER BY last_used_at DESC OFFSET :maxEntries")
+                .contains("c.content_hash = old.content_hash AND c.model = old.model");
+        verify(statement).bind("maxEntries", 1000L);
+        verify(statement, never()).bind(anyString(), any(byte[].class));
+    }
+}
@@ -0,0 +1,69 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.repository.SearchIndexSnapshotRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class Bm25IndexServiceTest {
+
+    private final UUID user = UUID.randomUUID();
+    private final DocumentChunk invoice = chunk("Fakturan förfaller den 30 juni");
+    private SearchIndexSnapshotRepository snapshots;
+    private DocumentChunkRepository chunks;
+    private Bm25IndexService service;
+
+    @BeforeEach
+    void setUp() {
+        snapshots = mock(SearchIndexSnapshotRepository.class);
+        chunks = mock(DocumentChunkRepository.class);
+        when(snapshots.findByUserIdAndIndexType(user, Bm25IndexService.INDEX_TYPE)).thenReturn(Mono.empty());
+        when(snapshots.upsert(any(), any(), any(), anyInt())).thenReturn(Mono.just(1));
+        when(chunks.findIdsByUserId(user)).thenReturn(Flux.just(invoice.getId()));
+        when(chunks.findContentByIds(any())).thenReturn(Flux.just(invoice));
+        service = new Bm25IndexService(snapshots, chunks, 8);
+    }
+
+    @Test
+    void updatesAreWrittenByTheFlushNotOnTheRequestPath() {
+        // The first search builds the index from the chunk table
+        service.search(user, "fakturan", 5, null).block();
+        service.onChunksSaved(user, List.of(chunk("Avtalet löper i tolv månader")));
+        verify(snapshots, after(200).never()).upsert(any(), any(), any(), anyInt());
+
+        service.flushDirty().block();
+        service.flushDirty().block();
+
+        verify(snapshots, times(1)).upsert(eq(user), eq(Bm25IndexService.INDEX_TYPE), any(), eq(2));
+    }
+
+    @Test
+    void nothingIsWrittenWhenNothingChanged() {
+        service.flushDirty().block();
+
+        verify(snapshots, never()).upsert(any(), any(), any(), anyInt());
+    }
+
+    private static DocumentChunk chunk(String content) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(UUID.randomUUID());
+        chunk.setContent(content);
+        return chunk;
+    }
+}
@@ -0,0 +1,79 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    private final UUID invoice = UUID.randomUUID();
+    private final UUID contract = UUID.randomUUID();
+    private final UUID minutes = UUID.randomUUID();
+
+    @Test
+    void tokenizerDropsSwedishAndEnglishStopwords() {
+        assertThat(KeywordTokenizer.tokenize("Vad är förfallodatum för the invoice?"))
+                .containsExactly("förfallodatum", "invoice");
+    }
+
+    @Test
+    void ranksRareTermsAboveCommonOnes() {
+        Bm25Index index = sampleIndex();
+
+        List<ScoredChunk> matches = index.search(KeywordTokenizer.tokenize("När förfaller fakturan?"), 5);
+
+        assertThat(matches).extracting(ScoredChunk::chunkId).containsExactly(invoice);
+        assertThat(index.search(KeywordTokenizer.tokenize("avtal uppsägningstid"), 5))
+                .extracting(ScoredChunk::chunkId).first().isEqualTo(contract);
+    }
+
+    @Test
+    void removedChunksAreNotReturned() {
+        Bm25Index index = sampleIndex();
+
+        index.remove(invoice);
+
+        assertThat(index.search(List.of("fakturan"), 5)).isEmpty();
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    void scopedSearchOnlyReturnsIncludedChunks() {
+        Bm25Index index = sampleIndex();
+        List<String> query = KeywordTokenizer.tokenize("avtal faktura");
+
+        assertThat(index.search(query, 5, contract::equals))
+                .extracting(ScoredChunk::chunkId).containsExactly(contract);
+        assertThat(index.search(query, 5, id -> false)).isEmpty();
+    }
+
+    @Test
+    void snapshotRoundTripKeepsScores() throws IOException {
+        Bm25Index index = sampleIndex();
+        index.remove(minutes);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        Bm25Index restored = Bm25Index.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        List<String> query = KeywordTokenizer.tokenize("avtal faktura");
+        assertThat(restored.liveIds()).containsExactlyInAnyOrder(invoice, contract);
+        assertThat(restored.search(query, 5)).isEqualTo(index.search(query, 5));
+    }
+
+    private Bm25Index sampleIndex() {
+        Bm25Index index = new Bm25Index();
+        index.add(invoice, KeywordTokenizer.tokenize("Fakturan förfaller den 30 juni. Faktura nummer 1042 avser avtal 7."));
+        index.add(contract, KeywordTokenizer.tokenize("Avtal om konsulttjänster. Avtal löper tolv månader, uppsägningstid tre månader."));
+        index.add(minutes, KeywordTokenizer.tokenize("Protokoll från styrelsemötet. Avtal diskuterades kort."));
+        return index;
+    }
+}
@@ -0,0 +1,164 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingQuantizer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 256;
+    private static final int CORPUS_SIZE = 4000;
+    private static final int QUERIES = 100;
+    private static final int K = 5;
+
+    @Test
+    void recallAtKAgainstExactSearch() {
+        Random random = new Random(42);
+        Map<UUID, float[]> corpus = clusteredCorpus(random);
+        HnswIndex index = new HnswIndex(16, 100, 7);
+        corpus.forEach(index::add);
+
+        double recall = averageRecall(index, corpus, random, 64);
+        assertThat(recall).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void quantizedGraphRecallAfterFullPrecisionRerank() {
+        Random random = new Random(42);
+        Map<UUID, float[]> corpus = clusteredCorpus(random);
+        HnswIndex index = new HnswIndex(16, 100, 7, true);
+        corpus.forEach((id, vector) -> index.addQuantized(id, EmbeddingQuantizer.quantize(vector)));
+
+        List<float[]> vectors = new ArrayList<>(corpus.values());
+        double total = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = VectorFixtures.perturb(vectors.get(random.nextInt(vectors.size())), random, 0.05f);
+            List<ScoredChunk> candidates = index.search(query, K * 4, 64);
+            Set<UUID> actual = new HashSet<>();
+            UserVectorIndex.rerank(candidates, corpus::get, query, K).forEach(match -> actual.add(match.chunkId()));
+            actual.retainAll(exactTopK(corpus, query));
+            total += (double) actual.size() / K;
+        }
+        assertThat(total / QUERIES).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void restoredQuantizedGraphReturnsSameResults() throws Exception {
+        Random random = new Random(13);
+        Map<UUID, byte[]> corpus = new HashMap<>();
+        clusteredCorpus(random).forEach((id, vector) -> corpus.put(id, EmbeddingQuantizer.quantize(vector)));
+        HnswIndex index = new HnswIndex(16, 100, 3, true);
+        corpus.forEach(index::addQuantized);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeTo(out);
+        }
+        HnswIndex restored;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = HnswIndex.readQuantizedFrom(in, corpus::get);
+        }
+
+        assertThat(restored.isQuantized()).isTrue();
+        for (int q = 0; q < 20; q++) {
+            float[] query = VectorFixtures.randomUnitVector(random, DIMENSIONS);
+            assertThat(restored.search(query, K, 64)).isEqualTo(index.search(query, K, 64));
+        }
+    }
+
+    @Test
+    void restoredGraphReturnsSameResults() throws Exception {
+        Random random = new Random(11);
+        Map<UUID, float[]> corpus = clusteredCorpus(random);
+        HnswIndex index = new HnswIndex(16, 100, 3);
+        corpus.forEach(index::add);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeTo(out);
+        }
+        HnswIndex restored;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = HnswIndex.readFrom(in, corpus::get);
+        }
+
+        assertThat(restored.size()).isEqualTo(index.size());
+        for (int q = 0; q < 20; q++) {
+            float[] query = VectorFixtures.randomUnitVector(random, DIMENSIONS);
+            assertThat(restored.search(query, K, 64)).isEqualTo(index.search(query, K, 64));
+        }
+    }
+
+    @Test
+    void deletedNodesAreExcludedFromResults() {
+        Random random = new Random(5);
+        Map<UUID, float[]> corpus = clusteredCorpus(random);
+        HnswIndex index = new HnswIndex(16, 100, 5);
+        corpus.forEach(index::add);
+
+        float[] query = VectorFixtures.randomUnitVector(random, DIMENSIONS);
+        List<ScoredChunk> before = index.search(query, K, 64);
+        index.markDeleted(before.get(0).chunkId());
+
+        List<ScoredChunk> after = index.search(query, K, 64);
+        assertThat(after).hasSize(K);
+        assertThat(after).extracting(ScoredChunk::chunkId).doesNotContain(before.get(0).chunkId());
+        assertThat(index.size()).isEqualTo(CORPUS_SIZE - 1);
+    }
+
+    private double averageRecall(HnswIndex index, Map<UUID, float[]> corpus, Random random, int ef) {
+        List<float[]> vectors = new ArrayList<>(corpus.values());
+        double total = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            // Questions land near the documents they are about, not at random directions
+            float[] query = VectorFixtures.perturb(vectors.get(random.nextInt(vectors.size())), random, 0.05f);
+            Set<UUID> expected = exactTopK(corpus, query);
+            Set<UUID> actual = new HashSet<>();
+            index.search(query, K, ef).forEach(match -> actual.add(match.chunkId()));
+            actual.retainAll(expected);
+            total += (double) actual.size() / K;
+        }
+        return total / QUERIES;
+    }
+
+    private Set<UUID> exactTopK(Map<UUID, float[]> corpus, float[] query) {
+        List<Map.Entry<UUID, float[]>> entries = new ArrayList<>(corpus.entrySet());
+        entries.sort(Comparator.comparingDouble((Map.Entry<UUID, float[]> e) -> dot(query, e.getValue())).reversed());
+        Set<UUID> top = new HashSet<>();
+        for (int i = 0; i < K; i++) {
+            top.add(entries.get(i).getKey());
+        }
+        return top;
+    }
+
+    private Map<UUID, float[]> clusteredCorpus(Random random) {
+        Map<UUID, float[]> corpus = new LinkedHashMap<>();
+        VectorFixtures.clusteredChunks(random, CORPUS_SIZE, DIMENSIONS, 40, 0.05f, true)
+                .forEach(chunk -> corpus.put(chunk.getId(), chunk.getEmbedding()));
+        return corpus;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
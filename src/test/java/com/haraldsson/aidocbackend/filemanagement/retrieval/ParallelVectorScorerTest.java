@@ -0,0 +1,60 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelVectorScorerTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int CORPUS_SIZE = 10_001;
+
+    private ParallelVectorScorer scorer;
+
+    @BeforeEach
+    void setUp() {
+        scorer = new ParallelVectorScorer(4);
+        ReflectionTestUtils.setField(scorer, "enabled", true);
+        ReflectionTestUtils.setField(scorer, "minCorpusSize", 1000);
+        ReflectionTestUtils.setField(scorer, "minRowsPerPartition", 1000);
+        ReflectionTestUtils.setField(scorer, "maxPartitionsPerQuery", 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scorer.shutdown();
+    }
+
+    @Test
+    void mergedPartitionsMatchSequentialScan() {
+        Random random = new Random(17);
+        UserVectorIndex index = UserVectorIndex.build(corpus(random));
+        UserVectorIndex quantized = UserVectorIndex.build(corpus(random), true);
+        UUID user = UUID.randomUUID();
+
+        for (int q = 0; q < 20; q++) {
+            float[] query = VectorFixtures.randomUnitVector(random, DIMENSIONS);
+            assertThat(scorer.search(user, index, query, 7).block()).isEqualTo(index.search(query, 7));
+            assertThat(scorer.search(user, quantized, query, 7).block()).isEqualTo(quantized.search(query, 7));
+        }
+    }
+
+    @Test
+    void onlyLargeSnapshotsUseThePool() {
+        Random random = new Random(5);
+        assertThat(scorer.shouldUse(UserVectorIndex.build(corpus(random)))).isTrue();
+        assertThat(scorer.shouldUse(UserVectorIndex.build(corpus(random).subList(0, 999)))).isFalse();
+    }
+
+    private static List<DocumentChunk> corpus(Random random) {
+        return VectorFixtures.randomChunks(random, CORPUS_SIZE, DIMENSIONS, true);
+    }
+}
@@ -0,0 +1,153 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.dto.ChunkWithSimilarityDTO;
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Simulates the shared ANN index the way Postgres applies it: the index yields the
+ * {@code ef_search} nearest rows of the whole table and the user filter runs afterwards.
+ */
+class PgVectorChunkRetrieverTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int K = 5;
+    private static final int DEFAULT_EF_SEARCH = 40;
+    private static final UUID CROWD = UUID.randomUUID();
+    private static final UUID ALICE = UUID.randomUUID();
+
+    private final List<DocumentChunk> table = new ArrayList<>();
+    private final List<String> statements = new ArrayList<>();
+    private DocumentChunkRepository repository;
+    private PgVectorChunkRetriever retriever;
+    private float[] query;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(3);
+        float[] topic = VectorFixtures.randomUnitVector(random, DIMENSIONS);
+        // The crowd's chunks all sit near the question, so they fill the global index result
+        for (int i = 0; i < 4000; i++) {
+            table.add(chunk(CROWD, VectorFixtures.perturb(topic, random, 0.1f)));
+        }
+        for (int i = 0; i < 300; i++) {
+            table.add(chunk(ALICE, VectorFixtures.randomUnitVector(random, DIMENSIONS)));
+        }
+        query = VectorFixtures.perturb(topic, random, 0.1f);
+
+        repository = mock(DocumentChunkRepository.class);
+        when(repository.countVectorsByUserIdUpTo(any(), anyInt())).thenAnswer(inv ->
+                Mono.just(Math.min(rowsOf(inv.getArgument(0)).count(), (long) inv.<Integer>getArgument(1))));
+        when(repository.findNearestByUserIdWithPgVectorExact(any(), anyString(), anyInt())).thenAnswer(inv ->
+                Flux.fromStream(rowsOf(inv.getArgument(0))
+                        .sorted(byDistance())
+                        .limit(inv.<Integer>getArgument(2))));
+        when(repository.findNearestByUserIdWithPgVector(any(), anyString(), anyInt())).thenAnswer(inv ->
+                Flux.fromStream(table.stream()
+                        .sorted(byDistance())
+                        .limit(currentEfSearch())
+                        .filter(chunk -> chunk.getUserId().equals(inv.getArgument(0)))
+                        .limit(inv.<Integer>getArgument(2))));
+
+        DatabaseClient databaseClient = mock(DatabaseClient.class);
+        DatabaseClient.GenericExecuteSpec statement = mock(DatabaseClient.GenericExecuteSpec.class);
+        when(databaseClient.sql(anyString())).thenAnswer(inv -> {
+            statements.add(inv.getArgument(0));
+            return statement;
+        });
+        when(statement.then()).thenReturn(Mono.empty());
+        TransactionalOperator transactionalOperator = mock(TransactionalOperator.class);
+        when(transactionalOperator.transactional(any(Flux.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        retriever = new PgVectorChunkRetriever(repository, new DocumentChunkHelper(), databaseClient,
+                transactionalOperator);
+        ReflectionTestUtils.setField(retriever, "exactMaxChunks", 10_000);
+        ReflectionTestUtils.setField(retriever, "efSearch", 400);
+    }
+
+    @Test
+    void smallTenantIsRankedExactlyInsteadOfThroughTheSharedIndex() {
+        List<UUID> found = topK(ALICE);
+
+        assertThat(found).containsExactlyElementsOf(exactTopK(ALICE));
+        verify(repository, never()).findNearestByUserIdWithPgVector(any(), anyString(), anyInt());
+    }
+
+    @Test
+    void filteredIndexResultThatComesUpShortFallsBackToTheExactRanking() {
+        ReflectionTestUtils.setField(retriever, "exactMaxChunks", 100);
+
+        List<UUID> found = topK(ALICE);
+
+        assertThat(statements).containsExactly("SET LOCAL hnsw.ef_search = 400");
+        assertThat(found).containsExactlyElementsOf(exactTopK(ALICE));
+        verify(repository).findNearestByUserIdWithPgVectorExact(any(), anyString(), anyInt());
+    }
+
+    @Test
+    void tenantWithEnoughIndexHitsIsServedByTheIndex() {
+        ReflectionTestUtils.setField(retriever, "exactMaxChunks", 100);
+
+        List<UUID> found = topK(CROWD);
+
+        assertThat(found).containsExactlyElementsOf(exactTopK(CROWD));
+        verify(repository, never()).findNearestByUserIdWithPgVectorExact(any(), anyString(), anyInt());
+    }
+
+    private List<UUID> topK(UUID userId) {
+        return retriever.findTopK(userId, query, K, null).block().matches().stream()
+                .map(ChunkWithSimilarityDTO::getChunk)
+                .map(DocumentChunk::getId)
+                .toList();
+    }
+
+    private List<UUID> exactTopK(UUID userId) {
+        return rowsOf(userId).sorted(byDistance()).limit(K).map(DocumentChunk::getId).toList();
+    }
+
+    private Stream<DocumentChunk> rowsOf(UUID userId) {
+        return table.stream().filter(chunk -> chunk.getUserId().equals(userId));
+    }
+
+    private Comparator<DocumentChunk> byDistance() {
+        return Comparator.comparingDouble((DocumentChunk chunk) -> VectorMath.dot(chunk.getEmbedding(), query))
+                .reversed();
+    }
+
+    private int currentEfSearch() {
+        return statements.isEmpty()
+                ? DEFAULT_EF_SEARCH
+                : Integer.parseInt(statements.get(statements.size() - 1).replaceAll("\\D+", ""));
+    }
+
+    private static DocumentChunk chunk(UUID userId, float[] embedding) {
+        DocumentChunk chunk = new DocumentChunk(UUID.randomUUID(), userId, "doc.pdf", "content", 0, 0, 7);
+        chunk.setId(UUID.randomUUID());
+        chunk.setEmbedding(embedding);
+        return chunk;
+    }
+}
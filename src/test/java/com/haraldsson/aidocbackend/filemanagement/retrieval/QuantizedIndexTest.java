@@ -0,0 +1,65 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuantizedIndexTest {
+
+    private static final int DIMENSIONS = 384;
+    private static final int CORPUS_SIZE = 3000;
+    private static final int QUERIES = 100;
+    private static final int K = 5;
+    private static final int RERANK_FACTOR = 4;
+
+    @Test
+    void rerankedInt8SearchMatchesExactSearch() {
+        Random random = new Random(11);
+        List<DocumentChunk> chunks = corpus(random);
+        Map<UUID, float[]> fullPrecision = new HashMap<>();
+        chunks.forEach(chunk -> fullPrecision.put(chunk.getId(), chunk.getEmbedding()));
+
+        UserVectorIndex exact = UserVectorIndex.build(chunks, false);
+        UserVectorIndex quantized = UserVectorIndex.build(chunks, true);
+
+        double overlap = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = VectorFixtures.perturb(chunks.get(random.nextInt(CORPUS_SIZE)).getEmbedding(), random, 0.05f);
+            Set<UUID> expected = ids(exact.search(query, K));
+            List<ScoredChunk> reranked = UserVectorIndex.rerank(
+                    quantized.search(query, K * RERANK_FACTOR), fullPrecision::get, query, K);
+            Set<UUID> actual = ids(reranked);
+            actual.retainAll(expected);
+            overlap += (double) actual.size() / K;
+        }
+
+        assertThat(overlap / QUERIES).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void quantizedMatrixIsAboutFourTimesSmaller() {
+        List<DocumentChunk> chunks = corpus(new Random(5));
+        long full = UserVectorIndex.build(chunks, false).sizeInBytes();
+        long int8 = UserVectorIndex.build(chunks, true).sizeInBytes();
+        assertThat((double) full / int8).isGreaterThan(3.5);
+    }
+
+    private List<DocumentChunk> corpus(Random random) {
+        return VectorFixtures.randomChunks(random, CORPUS_SIZE, DIMENSIONS, false);
+    }
+
+    private Set<UUID> ids(List<ScoredChunk> matches) {
+        Set<UUID> ids = new HashSet<>();
+        matches.forEach(match -> ids.add(match.chunkId()));
+        return ids;
+    }
+}
@@ -0,0 +1,32 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReciprocalRankFusionTest {
+
+    @Test
+    void chunksFoundByBothRankingsComeFirst() {
+        UUID paraphrase = UUID.randomUUID();
+        UUID shared = UUID.randomUUID();
+        UUID partNumber = UUID.randomUUID();
+
+        List<ScoredChunk> fused = ReciprocalRankFusion.fuse(List.of(
+                List.of(paraphrase, shared),
+                List.of(partNumber, shared)), 5);
+
+        assertThat(fused).extracting(ScoredChunk::chunkId).containsExactly(shared, paraphrase, partNumber);
+    }
+
+    @Test
+    void keepsOnlyTheRequestedNumberOfChunks() {
+        List<UUID> ranking = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+        assertThat(ReciprocalRankFusion.fuse(List.of(ranking, List.of()), 2))
+                .extracting(ScoredChunk::chunkId).containsExactly(ranking.get(0), ranking.get(1));
+    }
+}
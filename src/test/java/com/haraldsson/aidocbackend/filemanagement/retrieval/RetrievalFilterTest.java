@@ -0,0 +1,44 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetrievalFilterTest {
+
+    @Test
+    void fileTypesAreTrimmedLowercasedAndStrippedOfTheDot() {
+        Set<String> types = new HashSet<>(Arrays.asList(" .PDF ", "xlsx", "", "  ", null));
+
+        RetrievalFilter filter = new RetrievalFilter(null, types, null, null);
+
+        assertThat(filter.fileTypes()).containsExactlyInAnyOrder("pdf", "xlsx");
+    }
+
+    @Test
+    void nullDocumentIdsAreDropped() {
+        UUID id = UUID.randomUUID();
+        Set<UUID> ids = new HashSet<>(Arrays.asList(id, null));
+
+        RetrievalFilter filter = new RetrievalFilter(ids, null, null, null);
+
+        assertThat(filter.documentIds()).containsExactly(id);
+        assertThat(filter.fileTypes()).isEmpty();
+    }
+
+    @Test
+    void emptyOnlyWhenNoRestrictionIsSet() {
+        assertThat(RetrievalFilter.NONE.isEmpty()).isTrue();
+        assertThat(new RetrievalFilter(null, Set.of(" "), null, null).isEmpty()).isTrue();
+        assertThat(new RetrievalFilter(null, Set.of("pdf"), null, null).isEmpty()).isFalse();
+        assertThat(new RetrievalFilter(Set.of(UUID.randomUUID()), null, null, null).isEmpty()).isFalse();
+        assertThat(new RetrievalFilter(null, null, LocalDate.of(2025, 1, 1), null).isEmpty()).isFalse();
+        assertThat(new RetrievalFilter(null, null, null, LocalDate.of(2025, 1, 1)).isEmpty()).isFalse();
+    }
+}
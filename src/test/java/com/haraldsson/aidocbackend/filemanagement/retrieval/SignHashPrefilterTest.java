@@ -0,0 +1,62 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignHashPrefilterTest {
+
+    private static final int DIMENSIONS = 1536;
+    private static final int CORPUS_SIZE = 5000;
+    private static final int QUERIES = 50;
+    private static final int K = 5;
+
+    @Test
+    void signatureHasOneBitPerDimension() {
+        float[] vector = new float[130];
+        vector[0] = 1f;
+        vector[64] = 0.5f;
+        vector[129] = 0.1f;
+        vector[1] = -1f;
+
+        long[] signature = SignHash.signature(vector);
+
+        assertThat(signature).containsExactly(1L, 1L, 2L);
+        assertThat(SignHash.hamming(signature, 0, new long[3], 3)).isEqualTo(3);
+    }
+
+    @Test
+    void prefilteredSearchFindsExactTopK() {
+        Random random = new Random(17);
+        List<DocumentChunk> chunks = corpus(random);
+        UserVectorIndex index = UserVectorIndex.build(chunks, false, true);
+
+        double recall = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = VectorFixtures.perturb(chunks.get(random.nextInt(CORPUS_SIZE)).getEmbedding(), random, 0.01f);
+            Set<UUID> expected = ids(index.search(query, K));
+            Set<UUID> actual = ids(index.prefilterSearch(query, K, 512));
+            actual.retainAll(expected);
+            recall += (double) actual.size() / K;
+        }
+
+        assertThat(recall / QUERIES).isGreaterThanOrEqualTo(0.95);
+    }
+
+    private List<DocumentChunk> corpus(Random random) {
+        return VectorFixtures.clusteredChunks(random, CORPUS_SIZE, DIMENSIONS, 40, 0.02f, false);
+    }
+
+    private Set<UUID> ids(List<ScoredChunk> matches) {
+        Set<UUID> ids = new HashSet<>();
+        matches.forEach(match -> ids.add(match.chunkId()));
+        return ids;
+    }
+}
@@ -0,0 +1,55 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import io.r2dbc.spi.Row;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StreamingChunkScorerTest {
+
+    private final float[] query = {1f, 0f};
+
+    @Test
+    void malformedLegacyRowScoresNegativeInfinityInsteadOfFailing() {
+        assertThat(StreamingChunkScorer.score(legacyRow("[0.5, 0.5x]"), query)).isEqualTo(Float.NEGATIVE_INFINITY);
+        assertThat(StreamingChunkScorer.score(legacyRow("[0.5 0.5]"), query)).isEqualTo(Float.NEGATIVE_INFINITY);
+        assertThat(StreamingChunkScorer.score(legacyRow("[3, 4]"), query)).isCloseTo(0.6f, within(1e-6f));
+    }
+
+    @Test
+    void packedRowOfAnotherDimensionScoresNegativeInfinity() {
+        Row row = mock(Row.class);
+        when(row.get("embedding_bin", byte[].class)).thenReturn(EmbeddingCodec.encode(new float[]{1f, 0f, 0f}));
+
+        assertThat(StreamingChunkScorer.score(row, query)).isEqualTo(Float.NEGATIVE_INFINITY);
+    }
+
+    @Test
+    void bestRowsKeepsTheTopKIdsBestFirstAndSkipsUnscoredRows() {
+        UUID low = UUID.randomUUID();
+        UUID mid = UUID.randomUUID();
+        UUID high = UUID.randomUUID();
+        StreamingChunkScorer.BestRows best = new StreamingChunkScorer.BestRows(2);
+
+        best.offer(low, 0.1f);
+        best.offer(UUID.randomUUID(), Float.NEGATIVE_INFINITY);
+        best.offer(high, 0.9f);
+        best.offer(mid, 0.5f);
+
+        StreamingChunkScorer.StreamedTopK result = best.result();
+        assertThat(result.matches()).extracting(ScoredChunk::chunkId).containsExactly(high, mid);
+        assertThat(result.scannedChunks()).isEqualTo(3);
+    }
+
+    private static Row legacyRow(String json) {
+        Row row = mock(Row.class);
+        when(row.get("embedding_json", String.class)).thenReturn(json);
+        return row;
+    }
+}
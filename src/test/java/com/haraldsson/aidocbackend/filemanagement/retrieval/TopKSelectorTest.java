@@ -0,0 +1,47 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TopKSelectorTest {
+
+    @Test
+    void keepsBestScoresInDescendingOrder() {
+        Random random = new Random(3);
+        float[] all = new float[1000];
+        TopKSelector selector = new TopKSelector(5);
+        for (int row = 0; row < all.length; row++) {
+            all[row] = random.nextFloat();
+            selector.offer(row, all[row]);
+        }
+
+        float[] scores = new float[selector.size()];
+        int[] rows = selector.drainDescending(scores);
+
+        float[] sorted = all.clone();
+        Arrays.sort(sorted);
+        assertThat(rows).hasSize(5);
+        for (int i = 0; i < 5; i++) {
+            assertThat(scores[i]).isEqualTo(sorted[sorted.length - 1 - i]);
+            assertThat(all[rows[i]]).isEqualTo(scores[i]);
+        }
+    }
+
+    @Test
+    void simdAndScalarKernelsAgree() {
+        Random random = new Random(9);
+        float[] a = new float[1539];
+        float[] b = new float[1539];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = (float) random.nextGaussian();
+        }
+        assertThat(VectorMath.dot(a, b))
+                .isCloseTo(VectorMath.scalarDot(a, 0, b, 0, a.length), within(1e-2f));
+    }
+}
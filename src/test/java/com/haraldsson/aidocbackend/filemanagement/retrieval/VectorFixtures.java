@@ -0,0 +1,83 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Synthetic embeddings for the retrieval tests. Ids are drawn from the same {@link Random} as
+ * the vectors, so a seeded corpus is identical on every run.
+ */
+final class VectorFixtures {
+
+    private VectorFixtures() {
+    }
+
+    /**
+     * Independent gaussian embeddings, optionally normalized.
+     */
+    static List<DocumentChunk> randomChunks(Random random, int count, int dimensions, boolean normalized) {
+        List<DocumentChunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = gaussian(random, dimensions, 1f);
+            chunks.add(chunk(random, normalized ? EmbeddingCodec.normalize(vector) : vector));
+        }
+        return chunks;
+    }
+
+    /**
+     * Embeddings bunched around {@code clusters} random centroids, the way passages about the
+     * same topic land close together.
+     */
+    static List<DocumentChunk> clusteredChunks(Random random, int count, int dimensions, int clusters,
+                                               float noise, boolean normalized) {
+        float[][] centroids = new float[clusters][];
+        for (int c = 0; c < clusters; c++) {
+            centroids[c] = randomUnitVector(random, dimensions);
+        }
+        List<DocumentChunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = gaussian(random, dimensions, noise);
+            float[] centroid = centroids[random.nextInt(clusters)];
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] += centroid[d];
+            }
+            chunks.add(chunk(random, normalized ? EmbeddingCodec.normalize(vector) : vector));
+        }
+        return chunks;
+    }
+
+    static float[] gaussian(Random random, int dimensions, float sigma) {
+        float[] vector = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] = (float) random.nextGaussian() * sigma;
+        }
+        return vector;
+    }
+
+    static float[] randomUnitVector(Random random, int dimensions) {
+        return EmbeddingCodec.normalize(gaussian(random, dimensions, 1f));
+    }
+
+    /**
+     * A normalized query near {@code vector}, like a question about the passage it came from.
+     */
+    static float[] perturb(float[] vector, Random random, float noise) {
+        float[] perturbed = gaussian(random, vector.length, noise);
+        for (int d = 0; d < vector.length; d++) {
+            perturbed[d] += vector[d];
+        }
+        return EmbeddingCodec.normalize(perturbed);
+    }
+
+    private static DocumentChunk chunk(Random random, float[] embedding) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(new UUID(random.nextLong(), random.nextLong()));
+        chunk.setEmbedding(embedding);
+        return chunk;
+    }
+}
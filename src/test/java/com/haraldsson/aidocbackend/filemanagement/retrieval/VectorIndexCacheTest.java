@@ -0,0 +1,88 @@
+package com.haraldsson.aidocbackend.filemanagement.retrieval;
+
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VectorIndexCacheTest {
+
+    private static final int DIMENSIONS = 8;
+    // 10 rows of 8 floats plus per-row overhead
+    private static final long MAX_BYTES = 10 * UserVectorIndex.rowBytes(DIMENSIONS, false);
+
+    private final UUID user = UUID.randomUUID();
+    private DocumentChunkRepository repository;
+    private VectorIndexCache cache;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(DocumentChunkRepository.class);
+        cache = new VectorIndexCache(repository);
+        ReflectionTestUtils.setField(cache, "maxBytes", MAX_BYTES);
+        ReflectionTestUtils.setField(cache, "quantization", "none");
+        ReflectionTestUtils.setField(cache, "prefilter", "none");
+        ReflectionTestUtils.setField(cache, "assumedDimensions", DIMENSIONS);
+    }
+
+    @Test
+    void oversizedCorpusIsDetectedFromTheCountWithoutReadingVectors() {
+        when(repository.countEmbeddedByUserIdUpTo(user, 11)).thenReturn(Mono.just(11L));
+
+        assertThat(cache.get(user).block()).isNull();
+
+        assertThat(cache.isOversized(user)).isTrue();
+        verify(repository, never()).findEmbeddingsByUserId(any());
+    }
+
+    @Test
+    void supersededLoadDoesNotDropTheNewerLoad() {
+        Sinks.One<Long> firstCount = Sinks.one();
+        Sinks.One<Long> secondCount = Sinks.one();
+        when(repository.countEmbeddedByUserIdUpTo(any(), anyInt()))
+                .thenReturn(firstCount.asMono(), secondCount.asMono());
+        cache.get(user).subscribe();
+        cache.invalidate(user);
+        Mono<UserVectorIndex> newer = cache.get(user);
+        newer.subscribe();
+
+        firstCount.tryEmitValue(11L);
+
+        assertThat(cache.get(user)).isSameAs(newer);
+        verify(repository, times(2)).countEmbeddedByUserIdUpTo(any(), anyInt());
+    }
+
+    @Test
+    void oversizedMarkSurvivesUploadsAndClearsOnceTheCorpusFits() {
+        when(repository.countEmbeddedByUserIdUpTo(any(), anyInt())).thenReturn(Mono.just(11L));
+        cache.get(user).block();
+
+        cache.invalidate(user);
+        assertThat(cache.isOversized(user)).isTrue();
+        cache.onStreamed(user, 11);
+        assertThat(cache.isOversized(user)).isTrue();
+
+        cache.onStreamed(user, 4);
+        assertThat(cache.isOversized(user)).isFalse();
+        when(repository.countEmbeddedByUserIdUpTo(any(), anyInt())).thenReturn(Mono.just(4L));
+        when(repository.findEmbeddingsByUserId(user))
+                .thenReturn(Flux.fromIterable(VectorFixtures.randomChunks(new Random(3), 4, DIMENSIONS, true)));
+
+        assertThat(cache.get(user).block().size()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,94 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkDiffTest {
+
+    private static final UUID DOCUMENT = UUID.randomUUID();
+
+    @Test
+    void unchangedSlidesKeepTheirRowsAndEmbeddings() {
+        DocumentChunk intro = stored("--- SLIDE 1 --- Intro", 1);
+        DocumentChunk agenda = stored("--- SLIDE 2 --- Agenda", 2);
+        DocumentChunk summary = stored("--- SLIDE 3 --- Summary", 3);
+
+        ChunkDiff diff = ChunkDiff.compute(List.of(
+                fresh("--- SLIDE 1 --- Intro", 1),
+                fresh("--- SLIDE 2 --- Agenda, revised", 2),
+                fresh("--- SLIDE 3 --- Summary", 3)
+        ), List.of(intro, agenda, summary));
+
+        assertThat(diff.inserted()).extracting(DocumentChunk::getContent)
+                .containsExactly("--- SLIDE 2 --- Agenda, revised");
+        assertThat(diff.removed()).containsExactly(agenda.getId());
+        assertThat(diff.moved()).isEmpty();
+        assertThat(diff.reembed()).isEmpty();
+        assertThat(diff.unchanged(3)).isEqualTo(2);
+    }
+
+    @Test
+    void insertedSlideRenumbersLaterSlidesWithoutReembedding() {
+        DocumentChunk intro = stored("--- SLIDE 1 --- Intro", 1);
+        DocumentChunk summary = stored("--- SLIDE 2 --- Summary", 2);
+
+        ChunkDiff diff = ChunkDiff.compute(List.of(
+                fresh("--- SLIDE 1 --- Intro", 1),
+                fresh("--- SLIDE 2 --- New slide", 2),
+                fresh("--- SLIDE 3 --- Summary", 3)
+        ), List.of(intro, summary));
+
+        assertThat(diff.inserted()).hasSize(1);
+        assertThat(diff.removed()).isEmpty();
+        assertThat(diff.moved()).containsExactly(summary);
+        assertThat(summary.getChunkNumber()).isEqualTo(3);
+        assertThat(summary.getContent()).isEqualTo("--- SLIDE 3 --- Summary");
+        assertThat(summary.hasEmbedding()).isTrue();
+    }
+
+    @Test
+    void duplicatesAreMatchedOneToOneAndMissingEmbeddingsAreRetried() {
+        DocumentChunk first = stored("--- WORKSHEET: 'A' --- same", 1);
+        DocumentChunk unembedded = stored("--- WORKSHEET: 'B' --- other", 2);
+        unembedded.setEmbedding(null);
+
+        ChunkDiff diff = ChunkDiff.compute(List.of(
+                fresh("--- WORKSHEET: 'A' --- same", 1),
+                fresh("--- WORKSHEET: 'A' --- same", 2),
+                fresh("--- WORKSHEET: 'B' --- other", 3)
+        ), List.of(first, unembedded));
+
+        assertThat(diff.inserted()).extracting(DocumentChunk::getChunkNumber).containsExactly(2);
+        assertThat(diff.reembed()).containsExactly(unembedded);
+        assertThat(diff.removed()).isEmpty();
+    }
+
+    @Test
+    void legacyRowsWithoutHashAreMatchedAndBackfilled() {
+        DocumentChunk legacy = stored("--- SLIDE 1 --- Intro", 1);
+        legacy.setContentHash(null);
+
+        ChunkDiff diff = ChunkDiff.compute(List.of(fresh("--- SLIDE 1 --- Intro", 1)), List.of(legacy));
+
+        assertThat(diff.inserted()).isEmpty();
+        assertThat(diff.moved()).containsExactly(legacy);
+        assertThat(legacy.getContentHash()).isEqualTo(ChunkDiff.hashOf("--- SLIDE 1 --- Intro"));
+    }
+
+    private static DocumentChunk stored(String content, int number) {
+        DocumentChunk chunk = fresh(content, number);
+        chunk.setId(UUID.randomUUID());
+        chunk.setContentHash(ChunkDiff.hashOf(content));
+        chunk.setEmbedding(new float[]{1f, 0f});
+        return chunk;
+    }
+
+    private static DocumentChunk fresh(String content, int number) {
+        return new DocumentChunk(DOCUMENT, UUID.randomUUID(), "deck.pptx", content, number, 0, content.length());
+    }
+}
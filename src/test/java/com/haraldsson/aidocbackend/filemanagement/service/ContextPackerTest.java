@@ -0,0 +1,79 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.TokenCounter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextPackerTest {
+
+    private final UUID document = UUID.randomUUID();
+    private final String text = "Avtalet löper i tolv månader och förlängs automatiskt. ".repeat(40);
+    private ContextPacker packer;
+
+    @BeforeEach
+    void setUp() {
+        packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "contextTokens", 3500);
+    }
+
+    @Test
+    void overlappingNeighboursAreSentOnce() {
+        List<DocumentChunk> chunks = pdfChunks(document, text, 3);
+
+        String context = packer.pack("", List.of(chunks.get(1), chunks.get(0)));
+
+        assertThat(context).startsWith("--- Chunks 1-2 from avtal.pdf ---\n");
+        assertThat(context).contains(text.substring(0, 1800));
+        assertThat(context.length()).isLessThan(1800 + 100);
+    }
+
+    @Test
+    void segmentsFollowBestRankAndSkipWhatDoesNotFit() {
+        List<DocumentChunk> first = pdfChunks(document, text, 3);
+        DocumentChunk other = chunk(UUID.randomUUID(), "kort.pdf", "Uppsägningstid tre månader.", 1, 0, 28);
+        ReflectionTestUtils.setField(packer, "contextTokens", TokenCounter.count("--- Chunk 3 from avtal.pdf ---\n"
+                + first.get(2).getContent() + "\n\n") + 40);
+
+        String context = packer.pack("", List.of(first.get(2), first.get(0), other),
+                Map.of(first.get(2).getId(), 0.9f));
+
+        assertThat(context).startsWith("--- Chunk 3 (relevance: 0.900) from avtal.pdf ---\n");
+        assertThat(context).doesNotContain("from avtal.pdf ---\n" + first.get(0).getContent());
+        assertThat(context).contains("Uppsägningstid tre månader.");
+    }
+
+    @Test
+    void cutsTheBestSegmentWhenNothingFitsWhole() {
+        ReflectionTestUtils.setField(packer, "contextTokens", 50);
+
+        String context = packer.pack("", List.of(pdfChunks(document, text, 1).get(0)));
+
+        assertThat(context).startsWith("--- Chunk 1 from avtal.pdf ---\n");
+        assertThat(TokenCounter.count(context)).isLessThanOrEqualTo(52);
+    }
+
+    private static List<DocumentChunk> pdfChunks(UUID document, String text, int count) {
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int start = i * 800;
+            int end = Math.min(start + 1000, text.length());
+            chunks.add(chunk(document, "avtal.pdf", text.substring(start, end), i + 1, start, end));
+        }
+        return chunks;
+    }
+
+    private static DocumentChunk chunk(UUID document, String filename, String content, int number, int start, int end) {
+        DocumentChunk chunk = new DocumentChunk(document, UUID.randomUUID(), filename, content, number, start, end);
+        chunk.setId(UUID.randomUUID());
+        return chunk;
+    }
+}
@@ -0,0 +1,135 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.Document;
+import com.haraldsson.aidocbackend.filemanagement.repository.CorpusVersionRepository;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentChunkRepository;
+import com.haraldsson.aidocbackend.filemanagement.repository.DocumentRepository;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.ChunkRetriever;
+import com.haraldsson.aidocbackend.filemanagement.retrieval.KeywordRetriever;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CorpusVersionTrackerTest {
+
+    private final UUID user = UUID.randomUUID();
+    private SharedVersions shared;
+
+    @BeforeEach
+    void setUp() {
+        shared = new SharedVersions();
+    }
+
+    @Test
+    void changeOnOneNodeIsSeenAndInvalidatedOnTheOther() {
+        CorpusVersionTracker nodeA = new CorpusVersionTracker(shared);
+        CorpusVersionTracker nodeB = new CorpusVersionTracker(shared);
+        List<UUID> invalidatedOnB = new ArrayList<>();
+        nodeB.onChange(invalidatedOnB::add);
+
+        assertThat(nodeB.current(user).block()).isZero();
+        assertThat(nodeA.bump(user).block()).isEqualTo(1L);
+
+        assertThat(nodeB.current(user).block()).isEqualTo(1L);
+        assertThat(invalidatedOnB).containsExactly(user);
+
+        // Reading an unchanged version again does not drop anything
+        assertThat(nodeB.current(user).block()).isEqualTo(1L);
+        assertThat(invalidatedOnB).containsExactly(user);
+    }
+
+    @Test
+    void bumpDropsLocalStateEvenWhenTheDatabaseFails() {
+        CorpusVersionRepository failing = new SharedVersions() {
+            @Override
+            public Mono<Long> bump(UUID userId) {
+                return Mono.error(new IllegalStateException("connection refused"));
+            }
+        };
+        CorpusVersionTracker tracker = new CorpusVersionTracker(failing);
+        List<UUID> invalidated = new ArrayList<>();
+        tracker.onChange(invalidated::add);
+
+        assertThat(tracker.bump(user).block()).isNull();
+
+        assertThat(invalidated).containsExactly(user);
+    }
+
+    @Test
+    void deleteOnOneServiceInvalidatesTheOtherBeforeItSearches() {
+        Node nodeA = new Node(shared);
+        Node nodeB = new Node(shared);
+        Document document = new Document("report.pdf", null, user);
+        ReflectionTestUtils.setField(document, "id", UUID.randomUUID());
+        when(nodeA.documentRepository.findById(document.getId())).thenReturn(Mono.just(document));
+
+        nodeB.service.findRelevantChunks("pris", user).block();
+        verify(nodeB.keywordRetriever, never()).onCorpusChanged(user);
+
+        nodeA.service.deleteDocument(document.getId()).block();
+        verify(nodeA.chunkRetriever).onCorpusChanged(user);
+        verify(nodeA.keywordRetriever).onCorpusChanged(user);
+        verify(nodeB.keywordRetriever, never()).onCorpusChanged(user);
+
+        nodeB.service.findRelevantChunks("pris", user).block();
+        verify(nodeB.chunkRetriever).onCorpusChanged(user);
+        verify(nodeB.keywordRetriever).onCorpusChanged(user);
+        verify(nodeB.keywordRetriever, times(2)).search(eq(user), anyString(), anyInt(), any());
+    }
+
+    private static class SharedVersions extends CorpusVersionRepository {
+
+        private final Map<UUID, Long> versions = new ConcurrentHashMap<>();
+
+        SharedVersions() {
+            super(null);
+        }
+
+        @Override
+        public Mono<Long> find(UUID userId) {
+            return Mono.fromSupplier(() -> versions.getOrDefault(userId, 0L));
+        }
+
+        @Override
+        public Mono<Long> bump(UUID userId) {
+            return Mono.fromSupplier(() -> versions.merge(userId, 1L, Long::sum));
+        }
+    }
+
+    private static class Node {
+
+        final DocumentRepository documentRepository = mock(DocumentRepository.class);
+        final DocumentChunkRepository chunkRepository = mock(DocumentChunkRepository.class);
+        final ChunkRetriever chunkRetriever = mock(ChunkRetriever.class);
+        final KeywordRetriever keywordRetriever = mock(KeywordRetriever.class);
+        final DocumentService service;
+
+        Node(CorpusVersionRepository shared) {
+            when(documentRepository.deleteById(any(UUID.class))).thenReturn(Mono.empty());
+            when(chunkRepository.deleteByDocumentId(any())).thenReturn(Mono.empty());
+            when(chunkRepository.findFirstByUserId(any(), anyInt())).thenReturn(Flux.empty());
+            when(keywordRetriever.search(any(), anyString(), anyInt(), any())).thenReturn(Mono.just(List.of()));
+            service = new DocumentService(documentRepository, chunkRepository, null, null, null, null, null, null,
+                    chunkRetriever, keywordRetriever, new CorpusVersionTracker(shared), mock(ContextPacker.class));
+        }
+    }
+}
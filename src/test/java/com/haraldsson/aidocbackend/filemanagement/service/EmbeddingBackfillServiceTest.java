@@ -0,0 +1,60 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.model.DocumentChunk;
+import com.haraldsson.aidocbackend.filemanagement.utils.UuidKeyset;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddingBackfillServiceTest {
+
+    // Postgres compares uuids as unsigned bytes, i.e. both halves as unsigned longs
+    private static final Comparator<UUID> POSTGRES_ORDER = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    @Test
+    void keysetScanReachesIdsOnBothSidesOfTheSignBit() {
+        List<DocumentChunk> table = new ArrayList<>();
+        for (String id : List.of(
+                "00000000-0000-4000-8000-000000000001",
+                "0f3a9c2e-5b1d-4e7a-9c3b-2d8e6f1a4b70",
+                "7fffffff-ffff-4fff-bfff-ffffffffffff",
+                "80000000-0000-4000-8000-000000000000",
+                "a1b2c3d4-e5f6-4a7b-8c9d-0e1f2a3b4c5d",
+                "ffffffff-ffff-4fff-bfff-fffffffffffe")) {
+            DocumentChunk chunk = new DocumentChunk();
+            chunk.setId(UUID.fromString(id));
+            table.add(chunk);
+        }
+        table.sort(Comparator.comparing(DocumentChunk::getId, POSTGRES_ORDER));
+
+        EmbeddingBackfillService service = new EmbeddingBackfillService(null);
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        ReflectionTestUtils.setField(service, "pauseMillis", 0L);
+
+        List<UUID> visited = new ArrayList<>();
+        AtomicLong converted = new AtomicLong();
+        service.backfillFrom(UuidKeyset.FIRST_ID,
+                (afterId, limit) -> Flux.fromIterable(table)
+                        .filter(chunk -> POSTGRES_ORDER.compare(chunk.getId(), afterId) > 0)
+                        .take(limit),
+                chunk -> {
+                    visited.add(chunk.getId());
+                    return Mono.just(1);
+                },
+                converted).block();
+
+        assertThat(visited).containsExactlyElementsOf(table.stream().map(DocumentChunk::getId).toList());
+        assertThat(converted).hasValue(table.size());
+    }
+}
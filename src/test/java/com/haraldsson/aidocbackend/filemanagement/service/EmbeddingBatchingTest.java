@@ -0,0 +1,174 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.TokenCounter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddingBatchingTest {
+
+    private EmbeddingService embeddingService;
+
+    @BeforeEach
+    void setUp() {
+        embeddingService = new EmbeddingService(new QueryEmbeddingCache(0, 60),
+                new EmbeddingRateLimiter(2, 30, 3000, 1_000_000), new EmbeddingCache(null, false, 0));
+        ReflectionTestUtils.setField(embeddingService, "batchMaxInputs", 3);
+        ReflectionTestUtils.setField(embeddingService, "batchMaxTokens", 100_000);
+    }
+
+    @Test
+    void packsInOrderUpToTheInputLimitAndSkipsBlankTexts() {
+        List<String> texts = Arrays.asList("ett", "två", " ", "tre", null, "fyra", "fem");
+
+        assertThat(embeddingService.packBatches(texts))
+                .extracting(EmbeddingService.Batch::indexes)
+                .containsExactly(List.of(0, 1, 3), List.of(5, 6));
+    }
+
+    @Test
+    void startsANewBatchBeforeTheTokenLimitIsExceeded() {
+        String chunk = "Fakturan förfaller till betalning inom trettio dagar. ".repeat(20);
+        int tokens = TokenCounter.count(chunk);
+        ReflectionTestUtils.setField(embeddingService, "batchMaxInputs", 100);
+        ReflectionTestUtils.setField(embeddingService, "batchMaxTokens", tokens * 2);
+
+        assertThat(embeddingService.packBatches(List.of(chunk, chunk, chunk, chunk, chunk)))
+                .extracting(EmbeddingService.Batch::indexes)
+                .containsExactly(List.of(0, 1), List.of(2, 3), List.of(4));
+    }
+
+    @Test
+    void textsWithAKnownEmbeddingAreNotSent() {
+        List<String> texts = List.of("ett", "två", "tre", "fyra");
+        float[][] known = new float[texts.size()][];
+        known[1] = new float[]{1f};
+
+        assertThat(embeddingService.packBatches(texts, known))
+                .extracting(EmbeddingService.Batch::indexes)
+                .containsExactly(List.of(0, 2, 3));
+    }
+
+    @Test
+    void emptyInputNeedsNoRequest() {
+        assertThat(embeddingService.createEmbeddings(List.of()).block()).isEmpty();
+    }
+
+    @Test
+    void failedBatchIsRetriedWholeWithoutPerItemCalls() {
+        Deque<Object> script = new ArrayDeque<>(List.of(status(HttpStatus.BAD_GATEWAY),
+                status(HttpStatus.SERVICE_UNAVAILABLE), "ok"));
+        ScriptedEmbeddingService service = scripted(body -> script.isEmpty() ? "ok" : script.poll());
+
+        List<float[]> embeddings = service.createEmbeddings(List.of("ett", "två", "tre")).block();
+
+        assertThat(embeddings).allSatisfy(embedding -> assertThat(embedding).isNotNull());
+        assertThat(service.requests).hasSize(3).allSatisfy(input -> assertThat(input).isInstanceOf(List.class));
+    }
+
+    @Test
+    void exhaustedRetriesLeaveTheBatchEmptyInsteadOfFallingBackPerItem() {
+        ScriptedEmbeddingService service = scripted(body -> status(HttpStatus.INTERNAL_SERVER_ERROR));
+
+        List<float[]> embeddings = service.createEmbeddings(List.of("ett", "två")).block();
+
+        assertThat(embeddings).containsExactly(null, null);
+        assertThat(service.requests).hasSize(3).allSatisfy(input -> assertThat(input).isInstanceOf(List.class));
+    }
+
+    @Test
+    void rejectedBatchFallsBackToSingleItems() {
+        ScriptedEmbeddingService service = scripted(body -> body.get("input") instanceof List<?>
+                ? status(HttpStatus.BAD_REQUEST)
+                : "två".equals(body.get("input")) ? status(HttpStatus.BAD_REQUEST) : "ok");
+
+        List<float[]> embeddings = service.createEmbeddings(List.of("ett", "två", "tre")).block();
+
+        assertThat(embeddings.get(0)).isNotNull();
+        assertThat(embeddings.get(1)).isNull();
+        assertThat(embeddings.get(2)).isNotNull();
+        assertThat(service.requests).hasSize(4);
+    }
+
+    @Test
+    void onlyItemsMissingFromASuccessfulResponseAreSentAgain() {
+        ScriptedEmbeddingService service = scripted(body -> body.get("input") instanceof List<?> ? "skip 1" : "ok");
+
+        List<float[]> embeddings = service.createEmbeddings(List.of("ett", "två", "tre")).block();
+
+        assertThat(embeddings).allSatisfy(embedding -> assertThat(embedding).isNotNull());
+        assertThat(service.requests).hasSize(2);
+        assertThat(service.requests.get(1)).isEqualTo("två");
+    }
+
+    private ScriptedEmbeddingService scripted(Function<Map<String, Object>, Object> responder) {
+        ScriptedEmbeddingService service = new ScriptedEmbeddingService(responder);
+        ReflectionTestUtils.setField(service, "batchMaxInputs", 256);
+        ReflectionTestUtils.setField(service, "batchMaxTokens", 100_000);
+        ReflectionTestUtils.setField(service, "batchRetries", 2);
+        ReflectionTestUtils.setField(service, "batchRetryBackoffMillis", 1L);
+        return service;
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), HttpHeaders.EMPTY,
+                new byte[0], null);
+    }
+
+    /**
+     * Answers each request from the responder: an exception fails it, {@code "ok"} embeds every
+     * input and {@code "skip n"} leaves item n out of the response.
+     */
+    private static class ScriptedEmbeddingService extends EmbeddingService {
+
+        private final Function<Map<String, Object>, Object> responder;
+        private final List<Object> requests = new ArrayList<>();
+
+        ScriptedEmbeddingService(Function<Map<String, Object>, Object> responder) {
+            super(new QueryEmbeddingCache(0, 60), new EmbeddingRateLimiter(2, 30, 3000, 1_000_000),
+                    new EmbeddingCache(null, false, 0));
+            this.responder = responder;
+        }
+
+        @Override
+        Mono<String> postEmbeddings(Map<String, Object> requestBody) {
+            return Mono.defer(() -> {
+                Object input = requestBody.get("input");
+                synchronized (requests) {
+                    requests.add(input);
+                }
+                Object response = responder.apply(requestBody);
+                if (response instanceof Throwable error) {
+                    return Mono.error(error);
+                }
+                int items = input instanceof List<?> list ? list.size() : 1;
+                int skipped = response.equals("ok") ? -1 : Integer.parseInt(response.toString().substring(5));
+                StringBuilder json = new StringBuilder("{\"data\":[");
+                for (int i = 0; i < items; i++) {
+                    if (i == skipped) {
+                        continue;
+                    }
+                    if (json.charAt(json.length() - 1) == '}') {
+                        json.append(',');
+                    }
+                    json.append("{\"index\":").append(i).append(",\"embedding\":[").append(i + 1).append(".0,0.5]}");
+                }
+                return Mono.just(json.append("]}").toString());
+            });
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.repository.EmbeddingCacheRepository;
+import com.haraldsson.aidocbackend.filemanagement.utils.EmbeddingCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingCacheTest {
+
+    private static final String MODEL = "text-embedding-3-small";
+
+    private EmbeddingCacheRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(EmbeddingCacheRepository.class);
+        when(repository.findByHashes(any(), anyCollection())).thenReturn(Flux.empty());
+        when(repository.touch(any(), anyCollection())).thenReturn(Mono.just(1L));
+        when(repository.saveAll(any(), anyList())).thenReturn(Mono.just(1L));
+    }
+
+    @Test
+    void whitespaceAndCompositionDoNotChangeTheKey() {
+        assertThat(EmbeddingCache.hash("  Standardvillkor\n\tgäller ")).isEqualTo(EmbeddingCache.hash("Standardvillkor gäller"));
+        assertThat(EmbeddingCache.hash("gäller")).isEqualTo(EmbeddingCache.hash("gäller"));
+    }
+
+    @Test
+    void caseChangesTheKey() {
+        assertThat(EmbeddingCache.hash("Avtal")).isNotEqualTo(EmbeddingCache.hash("avtal"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lookupFillsEveryPositionOfADuplicatedText() {
+        float[] clause = {0.6f, 0.8f};
+        String clauseHash = EmbeddingCache.hash("Standardvillkor gäller");
+        when(repository.findByHashes(eq(MODEL), anyCollection()))
+                .thenReturn(Flux.just(Map.entry(clauseHash, EmbeddingCodec.encode(clause))));
+        EmbeddingCache cache = new EmbeddingCache(repository, true, 0);
+
+        Map<Integer, float[]> found = cache.lookup(MODEL,
+                List.of("Standardvillkor gäller", "Bilaga 2", " Standardvillkor  gäller\n", "")).block();
+
+        assertThat(found).containsOnlyKeys(0, 2);
+        assertThat(found.get(2)).containsExactly(clause);
+        ArgumentCaptor<Collection<String>> queried = ArgumentCaptor.forClass(Collection.class);
+        verify(repository).findByHashes(eq(MODEL), queried.capture());
+        assertThat(queried.getValue()).containsExactly(clauseHash, EmbeddingCache.hash("Bilaga 2"));
+        verify(repository).touch(MODEL, List.of(clauseHash));
+        assertThat(cache.stats().tableHits()).isEqualTo(1);
+        assertThat(cache.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void storeSkipsMissingEmbeddingsAndRepeatedTexts() {
+        EmbeddingCache cache = new EmbeddingCache(repository, true, 16);
+
+        cache.store(MODEL, List.of("Bilaga 1", "Bilaga 2", " ", "Bilaga  1"),
+                Arrays.asList(new float[]{1f, 0f}, null, new float[]{0f, 1f}, new float[]{1f, 0f})).block();
+
+        ArgumentCaptor<List<Map.Entry<String, byte[]>>> stored = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveAll(eq(MODEL), stored.capture());
+        assertThat(stored.getValue()).extracting(Map.Entry::getKey).containsExactly(EmbeddingCache.hash("Bilaga 1"));
+    }
+
+    @Test
+    void storeWithOnlyMissingEmbeddingsWritesNothing() {
+        EmbeddingCache cache = new EmbeddingCache(repository, true, 16);
+
+        cache.store(MODEL, List.of("Bilaga 1"), Arrays.asList((float[]) null)).block();
+
+        verify(repository, never()).saveAll(any(), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void memoryTierEvictsTheLeastRecentlyUsedEntry() {
+        EmbeddingCache cache = new EmbeddingCache(repository, true, 2);
+        cache.store(MODEL, List.of("a", "b"), List.of(new float[]{1f}, new float[]{2f})).block();
+        // Reading "a" makes "b" the least recently used
+        cache.lookup(MODEL, List.of("a")).block();
+        cache.store(MODEL, List.of("c"), List.of(new float[]{3f})).block();
+
+        Map<Integer, float[]> found = cache.lookup(MODEL, List.of("a", "b", "c")).block();
+
+        assertThat(found).containsOnlyKeys(0, 2);
+        assertThat(cache.stats().memoryHits()).isEqualTo(3);
+        assertThat(cache.stats().memoryEntries()).isEqualTo(2);
+        ArgumentCaptor<Collection<String>> queried = ArgumentCaptor.forClass(Collection.class);
+        verify(repository).findByHashes(eq(MODEL), queried.capture());
+        assertThat(queried.getValue()).containsExactly(EmbeddingCache.hash("b"));
+    }
+
+    @Test
+    void pruneExpiresOldRowsBeforeCappingTheTable() {
+        when(repository.deleteUnusedSince(90)).thenReturn(Mono.just(4L));
+        when(repository.deleteLeastRecentlyUsedBeyond(1000L)).thenReturn(Mono.just(2L));
+        EmbeddingCache cache = new EmbeddingCache(repository, true, 16);
+        ReflectionTestUtils.setField(cache, "maxAgeDays", 90);
+        ReflectionTestUtils.setField(cache, "maxEntries", 1000L);
+
+        cache.prune().block();
+
+        InOrder order = inOrder(repository);
+        order.verify(repository).deleteUnusedSince(90);
+        order.verify(repository).deleteLeastRecentlyUsedBeyond(1000L);
+    }
+}
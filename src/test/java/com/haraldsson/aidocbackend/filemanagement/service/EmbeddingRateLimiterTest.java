@@ -0,0 +1,117 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddingRateLimiterTest {
+
+    @Test
+    void neverRunsMoreThanTheConcurrencyLimit() {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(3, 30, 100_000, 10_000_000);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        Flux.range(0, 20)
+                .flatMap(i -> limiter.execute(10, () -> Mono.fromRunnable(() -> peak.accumulateAndGet(
+                                running.incrementAndGet(), Math::max))
+                        .then(Mono.delay(Duration.ofMillis(20)))
+                        .doFinally(signal -> running.decrementAndGet())))
+                .blockLast(Duration.ofSeconds(10));
+
+        assertThat(peak.get()).isEqualTo(3);
+    }
+
+    @Test
+    void rateLimitedCallIsRetriedAndHalvesTheLimit() {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(4, 30, 100_000, 10_000_000);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.execute(10, () -> attempts.incrementAndGet() == 1
+                        ? Mono.error(tooManyRequests("0.05"))
+                        : Mono.just("ok"))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(limiter.currentLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void limitGrowsBackAfterSuccesses() {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(4, 30, 100_000, 10_000_000);
+        limiter.onRateLimited(Duration.ZERO);
+        limiter.onRateLimited(Duration.ZERO);
+        assertThat(limiter.currentLimit()).isEqualTo(1);
+
+        Flux.range(0, 10)
+                .concatMap(i -> limiter.execute(1, () -> Mono.just(i)))
+                .blockLast(Duration.ofSeconds(5));
+
+        assertThat(limiter.currentLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void questionIsAdmittedWhileBatchesSaturateTheLimit() {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(2, 30, 100_000, 10_000_000);
+        Sinks.Empty<Void> batchesDone = Sinks.empty();
+        AtomicInteger batchesStarted = new AtomicInteger();
+
+        Disposable batches = Flux.range(0, 5)
+                .flatMap(i -> limiter.execute(1000, () -> batchesDone.asMono()
+                        .doOnSubscribe(subscription -> batchesStarted.incrementAndGet())))
+                .subscribe();
+        try {
+            String answer = limiter.executeQuery(10, () -> Mono.just("question"))
+                    .block(Duration.ofSeconds(2));
+
+            assertThat(answer).isEqualTo("question");
+            assertThat(batchesStarted.get()).isEqualTo(2);
+        } finally {
+            batches.dispose();
+        }
+    }
+
+    @Test
+    void batchesNeverTakeTheReservedQuestionSlot() {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(1, 30, 100_000, 10_000_000);
+        Sinks.Empty<Void> running = Sinks.empty();
+        AtomicInteger started = new AtomicInteger();
+
+        Disposable batches = Flux.range(0, 3)
+                .flatMap(i -> limiter.execute(10, () -> running.asMono()
+                        .doOnSubscribe(subscription -> started.incrementAndGet())))
+                .subscribe();
+        try {
+            Mono.delay(Duration.ofMillis(100)).block();
+            assertThat(started.get()).isEqualTo(1);
+        } finally {
+            batches.dispose();
+        }
+    }
+
+    @Test
+    void retryAfterHeaderIsHonoured() {
+        assertThat(EmbeddingRateLimiter.retryAfter(tooManyRequests("1.5"))).isEqualTo(Duration.ofMillis(1500));
+        assertThat(EmbeddingRateLimiter.retryAfter(tooManyRequests(null))).isEqualTo(Duration.ofSeconds(2));
+    }
+
+    private static WebClientResponseException tooManyRequests(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.add("Retry-After", retryAfter);
+        }
+        return WebClientResponseException.create(429, "Too Many Requests", headers, new byte[0],
+                StandardCharsets.UTF_8);
+    }
+}
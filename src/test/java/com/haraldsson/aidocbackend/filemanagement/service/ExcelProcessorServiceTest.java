@@ -0,0 +1,95 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.FileProcessingException;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExcelProcessorServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ExcelProcessorService service = new ExcelProcessorService();
+
+    @Test
+    void streamsXlsxSheetsInOrder() throws IOException {
+        String text = service.extractText(write(new XSSFWorkbook(), "budget.xlsx")).block();
+
+        assertThat(text).isEqualTo(EXPECTED);
+    }
+
+    @Test
+    void streamsXlsRecordsInOrder() throws IOException {
+        String text = service.extractText(write(new HSSFWorkbook(), "budget.xls")).block();
+
+        assertThat(text).isEqualTo(EXPECTED);
+    }
+
+    @Test
+    void rejectsFilesThatAreNotWorkbooks() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("fake.xlsx"), "not a workbook");
+
+        assertThatThrownBy(() -> service.extractText(file).block())
+                .isInstanceOf(FileProcessingException.class)
+                .hasMessage("Invalid Excel file");
+    }
+
+    private static final String EXPECTED = """
+            === EXCEL DOCUMENT ===
+
+            --- WORKSHEET: 'Budget' ---
+
+            DATA IN TABULAR FORM:
+            Col 1 | Col 2 | Col 3
+            Post | Belopp
+            Hyra | 12000
+            El |  | TRUE
+            Summa | 12500
+
+            SUMMARY: 4 data rows, 3 columns
+
+            --- WORKSHEET: 'Tom' ---
+
+            (empty sheet)
+
+            """;
+
+    private Path write(Workbook workbook, String name) throws IOException {
+        try (workbook) {
+            Sheet budget = workbook.createSheet("Budget");
+            Row header = budget.createRow(0);
+            header.createCell(0).setCellValue("Post");
+            header.createCell(1).setCellValue("Belopp");
+            Row rent = budget.createRow(1);
+            rent.createCell(0).setCellValue("Hyra");
+            rent.createCell(1).setCellValue(12000);
+            Row power = budget.createRow(3);
+            power.createCell(0).setCellValue("El");
+            power.createCell(2).setCellValue(true);
+            Row sum = budget.createRow(4);
+            sum.createCell(0).setCellValue("Summa");
+            sum.createCell(1).setCellFormula("B2+500");
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.createSheet("Tom");
+
+            Path file = tempDir.resolve(name);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+            return file;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.ValidationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IngestionSpoolTest {
+
+    @TempDir
+    Path spoolDir;
+
+    @Test
+    void uploadIsStreamedToAFileInTheSpoolDirectory() throws IOException {
+        IngestionSpool spool = new IngestionSpool(spoolDir.toString());
+
+        Path file = spool.write(upload("report.pdf", 3, 1000), 10_000).block();
+
+        assertThat(file).hasParent(spoolDir);
+        assertThat(file.getFileName().toString()).endsWith(".pdf");
+        assertThat(Files.size(file)).isEqualTo(3000);
+
+        spool.delete(file.toString());
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void oversizedUploadIsRejectedAndLeavesNoFile() throws IOException {
+        IngestionSpool spool = new IngestionSpool(spoolDir.toString());
+
+        assertThatThrownBy(() -> spool.write(upload("huge.pdf", 5, 1000), 4096).block())
+                .isInstanceOf(ValidationException.class);
+        try (var files = Files.list(spoolDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private static FilePart upload(String filename, int buffers, int bytesPerBuffer) {
+        List<DataBuffer> content = new ArrayList<>();
+        for (int i = 0; i < buffers; i++) {
+            content.add(DefaultDataBufferFactory.sharedInstance.wrap(new byte[bytesPerBuffer]));
+        }
+        FilePart part = mock(FilePart.class);
+        when(part.filename()).thenReturn(filename);
+        when(part.content()).thenReturn(Flux.fromIterable(content));
+        return part;
+    }
+}
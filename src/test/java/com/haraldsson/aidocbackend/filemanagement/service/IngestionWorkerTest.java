@@ -0,0 +1,211 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.advice.exceptions.FileProcessingException;
+import com.haraldsson.aidocbackend.filemanagement.model.Document;
+import com.haraldsson.aidocbackend.filemanagement.model.IngestionJob;
+import com.haraldsson.aidocbackend.filemanagement.repository.IngestionJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionWorkerTest {
+
+    private static final String NODE = "node-1";
+    private static final int RETRY_DELAY_SECONDS = 30;
+    private static final long WAIT_MILLIS = 2000;
+
+    @TempDir
+    Path spoolDir;
+
+    private final Queue<IngestionJob> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Sinks.One<Document>> pending = new ConcurrentHashMap<>();
+    private IngestionJobRepository repository;
+    private DocumentService documentService;
+    private IngestionWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(IngestionJobRepository.class);
+        documentService = mock(DocumentService.class);
+        when(repository.claimNext(NODE)).thenAnswer(inv -> Mono.defer(() -> Mono.justOrEmpty(queue.poll())));
+        when(repository.markSucceeded(any(), anyString(), any())).thenReturn(Mono.just(1));
+        when(repository.markFailed(any(), anyString(), anyString(), anyBoolean(), anyInt())).thenReturn(Mono.just(1));
+
+        worker = new IngestionWorker(repository, documentService, new IngestionSpool(spoolDir.toString()), NODE);
+        ReflectionTestUtils.setField(worker, "enabled", true);
+        ReflectionTestUtils.setField(worker, "running", true);
+        ReflectionTestUtils.setField(worker, "concurrency", 2);
+        ReflectionTestUtils.setField(worker, "retryDelaySeconds", RETRY_DELAY_SECONDS);
+    }
+
+    @Test
+    void claimedJobIsMarkedSucceededAndFreesItsSlot() {
+        IngestionJob job = job("report.pdf", 1);
+        Document document = document();
+        queue.add(job);
+        when(documentService.ingestFile(eq(job.getUserId()), eq("report.pdf"), any()))
+                .thenReturn(Mono.just(document));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS)).markSucceeded(job.getId(), NODE, document.getId());
+        awaitRunningJobs(0);
+        verify(repository, never()).markFailed(any(), anyString(), anyString(), anyBoolean(), anyInt());
+        assertThat(Path.of(job.getSpoolPath())).doesNotExist();
+    }
+
+    @Test
+    void jobThatLostItsLockLeavesTheSpoolFileForTheNewOwner() {
+        IngestionJob job = job("report.pdf", 1);
+        queue.add(job);
+        when(repository.markSucceeded(any(), anyString(), any())).thenReturn(Mono.just(0));
+        when(documentService.ingestFile(any(), anyString(), any())).thenReturn(Mono.just(document()));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS)).markSucceeded(any(), anyString(), any());
+        awaitRunningJobs(0);
+        assertThat(Path.of(job.getSpoolPath())).exists();
+    }
+
+    @Test
+    void transientFailureIsRequeuedWithGrowingDelay() {
+        IngestionJob job = job("report.pdf", 2);
+        queue.add(job);
+        when(documentService.ingestFile(any(), anyString(), any()))
+                .thenReturn(Mono.error(new IllegalStateException("database unavailable")));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS))
+                .markFailed(job.getId(), NODE, "database unavailable", true, RETRY_DELAY_SECONDS * 2);
+        awaitRunningJobs(0);
+        // The next attempt reads the same file
+        assertThat(Path.of(job.getSpoolPath())).exists();
+    }
+
+    @Test
+    void unreadableFileIsNotRetried() {
+        IngestionJob job = job("broken.pdf", 1);
+        queue.add(job);
+        when(documentService.ingestFile(any(), anyString(), any()))
+                .thenReturn(Mono.error(new FileProcessingException("Could not read PDF")));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS))
+                .markFailed(job.getId(), NODE, "Could not read PDF", false, RETRY_DELAY_SECONDS);
+        awaitRunningJobs(0);
+        assertThat(Path.of(job.getSpoolPath())).doesNotExist();
+    }
+
+    @Test
+    void jobQueuedWithItsPayloadInTheRowStillRuns() {
+        IngestionJob job = new IngestionJob(UUID.randomUUID(), "old.pdf", null, 3);
+        ReflectionTestUtils.setField(job, "id", UUID.randomUUID());
+        ReflectionTestUtils.setField(job, "attempts", 1);
+        ReflectionTestUtils.setField(job, "payload", "%PDF-1.7".getBytes(StandardCharsets.UTF_8));
+        queue.add(job);
+        when(documentService.ingestFile(any(), anyString(), any())).thenAnswer(inv ->
+                Mono.fromCallable(() -> Files.readString(inv.<Path>getArgument(2))).map(content -> document()));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS)).markSucceeded(eq(job.getId()), eq(NODE), any());
+    }
+
+    @Test
+    void neverRunsMoreJobsThanItHasSlots() {
+        for (int i = 0; i < 3; i++) {
+            queue.add(job("file-" + i + ".pdf", 1));
+        }
+        when(documentService.ingestFile(any(), anyString(), any())).thenAnswer(inv -> {
+            Sinks.One<Document> result = Sinks.one();
+            pending.put(inv.getArgument(1), result);
+            return result.asMono();
+        });
+
+        worker.poll();
+
+        verify(documentService, timeout(WAIT_MILLIS).times(2)).ingestFile(any(), anyString(), any());
+        verify(documentService, after(200).times(2)).ingestFile(any(), anyString(), any());
+        assertThat(worker.runningJobCount()).isEqualTo(2);
+        assertThat(queue).hasSize(1);
+
+        pending.get("file-0.pdf").tryEmitValue(document());
+
+        verify(documentService, timeout(WAIT_MILLIS).times(3)).ingestFile(any(), anyString(), any());
+        awaitRunningJobs(2);
+    }
+
+    @Test
+    void jobsThatFinishImmediatelyDoNotLeakSlots() {
+        ReflectionTestUtils.setField(worker, "concurrency", 1);
+        for (int i = 0; i < 5; i++) {
+            queue.add(job("file-" + i + ".pdf", 1));
+        }
+        when(documentService.ingestFile(any(), anyString(), any()))
+                .thenReturn(Mono.error(new FileProcessingException("Empty file")));
+
+        worker.poll();
+
+        verify(repository, timeout(WAIT_MILLIS).times(5))
+                .markFailed(any(), eq(NODE), eq("Empty file"), eq(false), anyInt());
+        awaitRunningJobs(0);
+        assertThat(queue).isEmpty();
+    }
+
+    private void awaitRunningJobs(int expected) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (worker.runningJobCount() != expected && System.currentTimeMillis() < deadline) {
+            Mono.delay(Duration.ofMillis(10)).block();
+        }
+        assertThat(worker.runningJobCount()).isEqualTo(expected);
+    }
+
+    private IngestionJob job(String fileName, int attempts) {
+        Path file;
+        try {
+            file = Files.writeString(Files.createTempFile(spoolDir, "upload-", ".pdf"), "%PDF-1.7");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        IngestionJob job = new IngestionJob(UUID.randomUUID(), fileName, file.toString(), 3);
+        ReflectionTestUtils.setField(job, "id", UUID.randomUUID());
+        ReflectionTestUtils.setField(job, "attempts", attempts);
+        return job;
+    }
+
+    private static Document document() {
+        Document document = new Document();
+        ReflectionTestUtils.setField(document, "id", UUID.randomUUID());
+        return document;
+    }
+}
@@ -0,0 +1,105 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import com.haraldsson.aidocbackend.filemanagement.utils.DocumentChunkHelper;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PdfProcessorServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PdfProcessorService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new PdfProcessorService(new DocumentChunkHelper(), 4);
+        ReflectionTestUtils.setField(service, "maxMainMemoryBytes", 0L);
+        ReflectionTestUtils.setField(service, "minPagesForParallel", 64);
+        ReflectionTestUtils.setField(service, "minPagesPerRange", 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void extractsPagesInOrderAndRecordsWherePagesStart() throws IOException {
+        Path pdf = writePdf("Forsta sidan", "", "Tredje   sidan");
+        ExtractedText extracted = service.extractText(pdf).block();
+
+        assertThat(extracted.text()).isEqualTo("Forsta sidan Tredje sidan");
+        assertThat(extracted.pageStarts()).containsExactly(0, 13, 13);
+        assertThat(extracted.pageAt(0)).isEqualTo(1);
+        assertThat(extracted.pageAt(12)).isEqualTo(1);
+        assertThat(extracted.pageAt(13)).isEqualTo(3);
+        assertThat(extracted.pageAt(24)).isEqualTo(3);
+    }
+
+    @Test
+    void parallelRangesReassembleInPageOrder() throws IOException {
+        String[] pages = new String[23];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = i % 5 == 4 ? "" : "Sida " + (i + 1);
+        }
+        Path pdf = writePdf(pages);
+        ExtractedText sequential = service.extractText(pdf).block();
+
+        ReflectionTestUtils.setField(service, "minPagesForParallel", 1);
+        ReflectionTestUtils.setField(service, "minPagesPerRange", 2);
+        assertThat(service.ranges(pages.length)).hasSize(4);
+        ExtractedText parallel = service.extractText(pdf).block();
+
+        assertThat(parallel.text()).isEqualTo(sequential.text()).startsWith("Sida 1 Sida 2").endsWith("Sida 23");
+        assertThat(parallel.pageStarts()).containsExactly(sequential.pageStarts());
+    }
+
+    @Test
+    void rangesCoverEveryPageOnceWithoutTinyRanges() {
+        assertThat(service.ranges(40)).containsExactly(new int[]{1, 40});
+        assertThat(service.ranges(500)).containsExactly(
+                new int[]{1, 125}, new int[]{126, 250}, new int[]{251, 375}, new int[]{376, 500});
+        assertThat(service.ranges(70)).containsExactly(new int[]{1, 17}, new int[]{18, 35},
+                new int[]{36, 52}, new int[]{53, 70});
+    }
+
+    @Test
+    void unpagedTextHasNoPageNumbers() {
+        assertThat(ExtractedText.unpaged("--- SLIDE 1 --- Intro").pageAt(3)).isNull();
+    }
+
+    private Path writePdf(String... pages) throws IOException {
+        Path file = tempDir.resolve("test.pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (String text : pages) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                if (text.isEmpty()) {
+                    continue;
+                }
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText(text);
+                    content.endText();
+                }
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+}
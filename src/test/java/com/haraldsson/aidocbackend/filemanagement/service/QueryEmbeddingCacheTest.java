@@ -0,0 +1,79 @@
+package com.haraldsson.aidocbackend.filemanagement.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryEmbeddingCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void nearIdenticalQuestionsShareAnEntry() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(1 << 20, Duration.ofMinutes(5), now::get);
+
+        cache.get("model", "Vad kostar licensen?", this::load).block();
+        float[] second = cache.get("model", "  vad kostar   licensen ", this::load).block();
+
+        assertThat(second).containsExactly(1f, 2f);
+        assertThat(calls).hasValue(1);
+        assertThat(cache.stats().hits()).isEqualTo(1);
+        assertThat(cache.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    void entriesExpireAfterTtl() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(1 << 20, Duration.ofMinutes(5), now::get);
+
+        cache.get("model", "question", this::load).block();
+        now.addAndGet(Duration.ofMinutes(6).toNanos());
+        cache.get("model", "question", this::load).block();
+
+        assertThat(calls).hasValue(2);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverBudget() {
+        long oneEntry = 64 + "model\nfirst".length() * 2L + 2 * Float.BYTES;
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(oneEntry + 10, Duration.ofMinutes(5), now::get);
+
+        cache.get("model", "first", this::load).block();
+        cache.get("model", "other", this::load).block();
+        cache.get("model", "first", this::load).block();
+
+        assertThat(calls).hasValue(3);
+        assertThat(cache.stats().entries()).isEqualTo(1);
+        assertThat(cache.stats().evictions()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrentMissesShareOneCall() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(1 << 20, Duration.ofMinutes(5), now::get);
+        Sinks.One<float[]> response = Sinks.one();
+
+        Mono<float[]> first = cache.get("model", "question", () -> {
+            calls.incrementAndGet();
+            return response.asMono();
+        });
+        Mono<float[]> second = cache.get("model", "question", this::load);
+        first.subscribe();
+        second.subscribe();
+        response.tryEmitValue(new float[]{3f});
+
+        assertThat(second.block()).containsExactly(3f);
+        assertThat(calls).hasValue(1);
+    }
+
+    private Mono<float[]> load() {
+        calls.incrementAndGet();
+        return Mono.just(new float[]{1f, 2f});
+    }
+}